@@ -0,0 +1,77 @@
+package com.usuarioroles.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.usuarioroles.dao.DaoContext;
+import com.usuarioroles.util.DatabaseConnection;
+
+/**
+ * Base H2 en memoria para los benchmarks, creada con el mismo pool y las mismas
+ * migraciones que la aplicación y poblada con {@code users} usuarios.
+ *
+ * JMH ejecuta cada combinación de parámetros en su propio proceso, así que el
+ * pool y el DaoContext por defecto se configuran una sola vez por proceso. El
+ * DaoContext lee su configuración (p. ej. USER_CACHE_MAX_SIZE) al crearse, así que
+ * los benchmarks fijan esas propiedades antes de llamar a {@link #create(int)}.
+ *
+ * Datos: los 3 usuarios y roles de ejemplo más {@link #ROLES} roles de prueba
+ * (IDs 4 a 3 + ROLES) y los usuarios de prueba (IDs 4 en adelante, nombre
+ * "bench&lt;id&gt;"), cada uno con un rol de prueba según su ID.
+ */
+public final class BenchmarkDatabase {
+    public static final int ROLES = 50;
+    public static final long FIRST_ROLE_ID = 4;
+    public static final long FIRST_USER_ID = 4;
+
+    private BenchmarkDatabase() {
+    }
+
+    public static synchronized DaoContext create(int users) throws SQLException {
+        System.setProperty("DB_URL", "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1");
+        System.setProperty("DB_POOL_MAX_SIZE", "64");
+
+        DatabaseConnection db = DatabaseConnection.getInstance();
+        try (Connection connection = db.getConnection()) {
+            populate(connection, users);
+        }
+        return DaoContext.getDefault();
+    }
+
+    /**
+     * Rol de prueba de un usuario de prueba.
+     */
+    public static long roleOf(long userId) {
+        return FIRST_ROLE_ID + userId % ROLES;
+    }
+
+    public static String usernameOf(long userId) {
+        return "bench" + userId;
+    }
+
+    private static void populate(Connection connection, int users) throws SQLException {
+        try (PreparedStatement roles = connection.prepareStatement(
+                "INSERT INTO roles (role_name, description) SELECT 'ROLE_' || X, 'Benchmark' FROM SYSTEM_RANGE(1, ?)");
+             PreparedStatement bulk = connection.prepareStatement(
+                     "INSERT INTO users (username, email, password_hash, first_name, last_name) "
+                             + "SELECT 'bench' || (X + 3), 'bench' || (X + 3) || '@example.com', 'hash', 'Bench', 'User' "
+                             + "FROM SYSTEM_RANGE(1, ?)");
+             PreparedStatement assign = connection.prepareStatement(
+                     "INSERT INTO user_roles (user_id, role_id) SELECT user_id, ? + MOD(user_id, ?) "
+                             + "FROM users WHERE user_id >= ?")) {
+            roles.setInt(1, ROLES);
+            roles.executeUpdate();
+            bulk.setInt(1, users);
+            bulk.executeUpdate();
+            assign.setLong(1, FIRST_ROLE_ID);
+            assign.setInt(2, ROLES);
+            assign.setLong(3, FIRST_USER_ID);
+            assign.executeUpdate();
+        }
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ANALYZE");
+        }
+    }
+}
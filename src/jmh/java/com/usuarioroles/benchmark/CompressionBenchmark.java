@@ -0,0 +1,92 @@
+package com.usuarioroles.benchmark;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.usuarioroles.HttpRequestMessageStub;
+import com.usuarioroles.UserFunction;
+import com.usuarioroles.util.ResponseCompression;
+
+/**
+ * Coste de CPU de comprimir una página real de GET /users frente a los bytes
+ * que se ahorran, por codificación y nivel.
+ *
+ * Junto al tiempo medio de compresión, los contadores auxiliares de
+ * {@link Sizes} (compress:compressedBytes, compress:uncompressedBytes y
+ * compress:compressions) quedan en los resultados JSON. Divididos por
+ * compressions dan el tamaño de la página con y sin comprimir; el ahorro de
+ * tiempo de descarga (bytes * 8 / Mbit/s del enlace) frente al tiempo de
+ * compresión muestra a partir de qué nivel deja de compensar:
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="CompressionBenchmark"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+    @Param({ "100", "1000" })
+    public int pageSize;
+
+    @Param({ "GZIP", "DEFLATE" })
+    public ResponseCompression.Encoding encoding;
+
+    @Param({ "1", "6", "9" })
+    public int level;
+
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.create(10_000);
+        HttpResponseMessage response = new UserFunction().getAllUsers(
+                HttpRequestMessageStub.get("users").query("limit", Integer.toString(pageSize)),
+                HttpRequestMessageStub.context("benchmark"));
+        json = (byte[]) response.getBody();
+    }
+
+    /**
+     * Bytes antes y después de comprimir, acumulados por iteración.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sizes {
+        public long compressedBytes;
+        public long uncompressedBytes;
+        public long compressions;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            compressedBytes = 0;
+            uncompressedBytes = 0;
+            compressions = 0;
+        }
+    }
+
+    @Benchmark
+    public byte[] compress(Sizes sizes) {
+        byte[] compressed = ResponseCompression.compress(json, encoding, level);
+        sizes.compressedBytes += compressed.length;
+        sizes.uncompressedBytes += json.length;
+        sizes.compressions++;
+        return compressed;
+    }
+}
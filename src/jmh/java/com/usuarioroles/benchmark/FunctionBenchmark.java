@@ -0,0 +1,129 @@
+package com.usuarioroles.benchmark;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.HttpMethod;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.usuarioroles.HttpRequestMessageStub;
+import com.usuarioroles.RoleFunction;
+import com.usuarioroles.UserFunction;
+
+/**
+ * Funciones HTTP de extremo a extremo: parámetros, DAO, serialización con Gson,
+ * mensajes de log del contexto y construcción de la respuesta.
+ *
+ * Se mide el rendimiento (ops/s) y la distribución de latencias (SampleTime,
+ * con percentiles). El profiler de GC, que el perfil jmh activa siempre, añade
+ * la tasa de asignación por operación (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx3g" })
+public class FunctionBenchmark {
+    private static final AtomicLong CREATED = new AtomicLong();
+
+    @Param({ "1000", "100000" })
+    public int users;
+
+    private UserFunction userFunction;
+    private RoleFunction roleFunction;
+    private ExecutionContext context;
+    private String[] userIds;
+    private String[] roleIds;
+
+    private final HttpRequestMessageStub getRequest = HttpRequestMessageStub.get("benchmark");
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.create(users);
+        userFunction = new UserFunction();
+        roleFunction = new RoleFunction();
+        context = HttpRequestMessageStub.context("benchmark");
+
+        // Los IDs llegan como texto desde la ruta
+        userIds = new String[Math.min(users, 10_000)];
+        for (int i = 0; i < userIds.length; i++) {
+            userIds[i] = Long.toString(BenchmarkDatabase.FIRST_USER_ID + (long) i * users / userIds.length);
+        }
+        roleIds = new String[BenchmarkDatabase.ROLES];
+        for (int i = 0; i < roleIds.length; i++) {
+            roleIds[i] = Long.toString(BenchmarkDatabase.FIRST_ROLE_ID + i);
+        }
+    }
+
+    private String randomUserId() {
+        return userIds[ThreadLocalRandom.current().nextInt(userIds.length)];
+    }
+
+    private String randomRoleId() {
+        return roleIds[ThreadLocalRandom.current().nextInt(roleIds.length)];
+    }
+
+    @Benchmark
+    public HttpResponseMessage getAllUsers() {
+        return userFunction.getAllUsers(getRequest, context);
+    }
+
+    @Benchmark
+    public HttpResponseMessage getUserById() {
+        return userFunction.getUserById(getRequest, randomUserId(), context);
+    }
+
+    @Benchmark
+    public HttpResponseMessage getUserByIdNotFound() {
+        return userFunction.getUserById(getRequest, "0", context);
+    }
+
+    @Benchmark
+    public HttpResponseMessage createUser() {
+        long n = CREATED.incrementAndGet();
+        HttpRequestMessageStub request = new HttpRequestMessageStub(HttpMethod.POST, "users")
+                .body("{\"username\":\"created" + n + "\",\"email\":\"created" + n + "@example.com\","
+                        + "\"passwordHash\":\"hash\",\"firstName\":\"Created\",\"lastName\":\"User\",\"active\":true}");
+        return userFunction.createUser(request, context);
+    }
+
+    @Benchmark
+    public HttpResponseMessage updateUser() {
+        String userId = randomUserId();
+        String username = BenchmarkDatabase.usernameOf(Long.parseLong(userId));
+        HttpRequestMessageStub request = new HttpRequestMessageStub(HttpMethod.PUT, "users/" + userId)
+                .body("{\"username\":\"" + username + "\",\"email\":\"" + username + "@example.com\","
+                        + "\"passwordHash\":\"hash\",\"firstName\":\"Bench\",\"lastName\":\"User\",\"active\":true}");
+        return userFunction.updateUser(request, userId, context);
+    }
+
+    @Benchmark
+    public HttpResponseMessage getAllRoles() {
+        return roleFunction.getAllRoles(getRequest, context);
+    }
+
+    @Benchmark
+    public HttpResponseMessage getRoleById() {
+        return roleFunction.getRoleById(getRequest, randomRoleId(), context);
+    }
+
+    @Benchmark
+    public HttpResponseMessage getUsersByRoleId() {
+        return roleFunction.getUsersByRoleId(getRequest, randomRoleId(), context);
+    }
+}
@@ -0,0 +1,153 @@
+package com.usuarioroles.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.usuarioroles.util.SchemaMigrator;
+
+/**
+ * Consultas por nombre de usuario, nombre de rol y usuarios de un rol con el
+ * esquema sin índices (migraciones hasta V2) y con los índices de V3, sobre una
+ * base H2 en memoria propia (no la de {@link BenchmarkDatabase}, que aplica todas
+ * las migraciones).
+ *
+ * Se mide la distribución de latencias (p50, p99...) de cada consulta, p. ej.:
+ *   -Djmh.args="IndexBenchmark -p users=100000"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx3g" })
+public class IndexBenchmark {
+    private static final int ROLES = 50;
+    // Los roles de ejemplo de V2 ocupan los IDs 1 a 3
+    private static final int FIRST_ROLE_ID = 4;
+
+    @Param({ "2", "3" })
+    public int schemaVersion;
+
+    @Param({ "100000" })
+    public int users;
+
+    private JdbcDataSource dataSource;
+
+    @Setup
+    public void setUp() throws SQLException {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:index_benchmark_" + schemaVersion + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUser("bench");
+        dataSource.setPassword("");
+        SchemaMigrator.migrate(dataSource, schemaVersion);
+
+        try (Connection connection = dataSource.getConnection()) {
+            populate(connection, users);
+        }
+    }
+
+    /**
+     * Conexión y sentencias preparadas de cada hilo.
+     */
+    @State(Scope.Thread)
+    public static class Statements {
+        private Connection connection;
+        private PreparedStatement userByUsername;
+        private PreparedStatement roleByName;
+        private PreparedStatement usersByRoleId;
+
+        @Setup
+        public void setUp(IndexBenchmark benchmark) throws SQLException {
+            connection = benchmark.dataSource.getConnection();
+            userByUsername = connection.prepareStatement("SELECT user_id FROM users WHERE username = ?");
+            roleByName = connection.prepareStatement("SELECT role_id FROM roles WHERE role_name = ?");
+            usersByRoleId = connection.prepareStatement("SELECT u.user_id, u.username FROM user_roles ur "
+                    + "JOIN users u ON u.user_id = ur.user_id "
+                    + "WHERE ur.role_id = ? AND ur.user_id > 0 ORDER BY ur.role_id, ur.user_id FETCH FIRST 100 ROWS ONLY");
+        }
+
+        @TearDown
+        public void tearDown() throws SQLException {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    public long getUserByUsername(Statements statements) throws SQLException {
+        statements.userByUsername.setString(1, "bench" + ThreadLocalRandom.current().nextInt(users));
+        return drain(statements.userByUsername);
+    }
+
+    @Benchmark
+    public long getRoleByName(Statements statements) throws SQLException {
+        statements.roleByName.setString(1, "ROLE_" + ThreadLocalRandom.current().nextInt(ROLES));
+        return drain(statements.roleByName);
+    }
+
+    @Benchmark
+    public long getUsersByRoleId(Statements statements) throws SQLException {
+        statements.usersByRoleId.setInt(1, FIRST_ROLE_ID + ThreadLocalRandom.current().nextInt(ROLES));
+        return drain(statements.usersByRoleId);
+    }
+
+    private static long drain(PreparedStatement stmt) throws SQLException {
+        long sum = 0;
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                sum += rs.getLong(1);
+            }
+        }
+        return sum;
+    }
+
+    private static void populate(Connection connection, int users) throws SQLException {
+        connection.setAutoCommit(false);
+        try (PreparedStatement role = connection.prepareStatement(
+                "INSERT INTO roles (role_name, description) VALUES (?, 'bench')")) {
+            for (int i = 0; i < ROLES; i++) {
+                role.setString(1, "ROLE_" + i);
+                role.addBatch();
+            }
+            role.executeBatch();
+        }
+        try (PreparedStatement user = connection.prepareStatement(
+                "INSERT INTO users (username, email, password_hash) VALUES (?, ?, 'x')")) {
+            for (int i = 0; i < users; i++) {
+                user.setString(1, "bench" + i);
+                user.setString(2, "bench" + i + "@example.com");
+                user.addBatch();
+                if (i % 1000 == 999) {
+                    user.executeBatch();
+                }
+            }
+            user.executeBatch();
+        }
+        // Cada usuario de prueba tiene un rol de prueba
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO user_roles (user_id, role_id) SELECT user_id, ? + MOD(user_id, ?) FROM users WHERE user_id > 3")) {
+            stmt.setInt(1, FIRST_ROLE_ID);
+            stmt.setInt(2, ROLES);
+            stmt.executeUpdate();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+}
@@ -0,0 +1,109 @@
+package com.usuarioroles.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.usuarioroles.dao.DaoContext;
+import com.usuarioroles.dao.RoleDAO;
+import com.usuarioroles.model.Role;
+import com.usuarioroles.model.User;
+
+/**
+ * Operaciones de RoleDAO sobre H2 en memoria con distintos volúmenes de usuarios.
+ * El número de hilos se elige con la opción -t de JMH.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx3g" })
+public class RoleDaoBenchmark {
+    private static final int USERS_PER_DELETED_ROLE = 100;
+    private static final AtomicLong CREATED = new AtomicLong();
+
+    @Param({ "1000", "100000", "1000000" })
+    public int users;
+
+    private DaoContext context;
+    private RoleDAO roleDAO;
+
+    @Setup
+    public void setUp() throws SQLException {
+        context = BenchmarkDatabase.create(users);
+        roleDAO = new RoleDAO(context);
+    }
+
+    private static long randomRoleId() {
+        return BenchmarkDatabase.FIRST_ROLE_ID + ThreadLocalRandom.current().nextInt(BenchmarkDatabase.ROLES);
+    }
+
+    /**
+     * Todos los usuarios de un rol (un 2 % del total).
+     */
+    @Benchmark
+    public List<User> getUsersByRoleId() throws SQLException {
+        return roleDAO.getUsersByRoleId(randomRoleId());
+    }
+
+    /**
+     * Primera página de 100 usuarios de un rol, como la sirve la función HTTP.
+     */
+    @Benchmark
+    public List<User> getUsersByRoleIdPage() throws SQLException {
+        return roleDAO.getUsersByRoleIdAfter(randomRoleId(), 0, 100);
+    }
+
+    /**
+     * Rol recién creado y asignado a {@link #USERS_PER_DELETED_ROLE} usuarios,
+     * preparado fuera de la medición para cada llamada a deleteRole.
+     */
+    @State(Scope.Thread)
+    public static class DeletableRole {
+        long roleId;
+
+        @Setup(Level.Invocation)
+        public void create(RoleDaoBenchmark benchmark) throws SQLException {
+            Role role = benchmark.roleDAO.createRole(
+                    new Role(null, "DELETE_ME_" + CREATED.incrementAndGet(), "Benchmark", null, null));
+            roleId = role.getRoleId();
+
+            try (Connection connection = benchmark.context.getDataSource().getConnection();
+                 PreparedStatement assign = connection.prepareStatement(
+                         "INSERT INTO user_roles (user_id, role_id) VALUES (?, ?)")) {
+                long first = BenchmarkDatabase.FIRST_USER_ID
+                        + ThreadLocalRandom.current().nextInt(Math.max(1, benchmark.users - USERS_PER_DELETED_ROLE));
+                int count = Math.min(USERS_PER_DELETED_ROLE, benchmark.users);
+                for (int i = 0; i < count; i++) {
+                    assign.setLong(1, first + i);
+                    assign.setLong(2, roleId);
+                    assign.addBatch();
+                }
+                assign.executeBatch();
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean deleteRole(DeletableRole role) throws SQLException {
+        return roleDAO.deleteRole(role.roleId);
+    }
+}
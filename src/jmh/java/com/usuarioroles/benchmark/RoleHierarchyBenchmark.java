@@ -0,0 +1,111 @@
+package com.usuarioroles.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.usuarioroles.dao.DaoContext;
+import com.usuarioroles.dao.RoleDAO;
+import com.usuarioroles.model.Role;
+
+/**
+ * Roles efectivos de un usuario con una jerarquía de roles en cadena de
+ * {@code depth} niveles: con el cierre transitivo en memoria de RoleDAO frente a
+ * una consulta recursiva (CTE) sobre role_parents en cada llamada.
+ *
+ * Cada uno de los primeros {@link #CHAIN_USERS} usuarios de prueba tiene asignado,
+ * además de su rol de prueba, el rol del nivel inferior de la cadena, así que sus
+ * roles efectivos son {@code depth + 1}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx3g" })
+public class RoleHierarchyBenchmark {
+    private static final int USERS = 10000;
+    private static final int CHAIN_USERS = 1000;
+    private static final String SQL_EFFECTIVE_ROLES_CTE =
+            "WITH RECURSIVE effective (role_id) AS ("
+                    + "SELECT role_id FROM user_roles WHERE user_id = ? "
+                    + "UNION "
+                    + "SELECT rp.parent_role_id FROM role_parents rp JOIN effective e ON rp.role_id = e.role_id) "
+                    + "SELECT r.* FROM effective e JOIN roles r ON r.role_id = e.role_id ORDER BY r.role_id";
+
+    @Param({ "2", "10", "50", "200" })
+    public int depth;
+
+    private DaoContext context;
+    private RoleDAO roleDAO;
+
+    @Setup
+    public void setUp() throws SQLException {
+        context = BenchmarkDatabase.create(USERS);
+        roleDAO = new RoleDAO(context);
+
+        // Cadena CHAIN_1 <- CHAIN_2 <- ... <- CHAIN_depth (cada nivel hereda del anterior)
+        long parentId = 0;
+        for (int level = 1; level <= depth; level++) {
+            long roleId = roleDAO.createRole(new Role(null, "CHAIN_" + level, "Benchmark", null, null)).getRoleId();
+            if (parentId != 0) {
+                roleDAO.addRoleParent(roleId, parentId);
+            }
+            parentId = roleId;
+        }
+
+        try (Connection connection = context.getDataSource().getConnection();
+             PreparedStatement assign = connection.prepareStatement(
+                     "INSERT INTO user_roles (user_id, role_id) VALUES (?, ?)")) {
+            for (int i = 0; i < CHAIN_USERS; i++) {
+                assign.setLong(1, BenchmarkDatabase.FIRST_USER_ID + i);
+                assign.setLong(2, parentId);
+                assign.addBatch();
+            }
+            assign.executeBatch();
+        }
+        // Las asignaciones se han hecho por SQL directo, fuera del índice de user_roles
+        context.getUserRoleIndex().invalidate();
+    }
+
+    private static long randomUserId() {
+        return BenchmarkDatabase.FIRST_USER_ID + ThreadLocalRandom.current().nextInt(CHAIN_USERS);
+    }
+
+    @Benchmark
+    public List<Role> effectiveRolesFromClosure() throws SQLException {
+        return roleDAO.getEffectiveRoles(randomUserId());
+    }
+
+    @Benchmark
+    public List<Long> effectiveRolesRecursiveCte() throws SQLException {
+        List<Long> roleIds = new ArrayList<>(depth + 1);
+        try (Connection connection = context.getDataSource().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(SQL_EFFECTIVE_ROLES_CTE)) {
+            stmt.setLong(1, randomUserId());
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    roleIds.add(rs.getLong("role_id"));
+                }
+            }
+        }
+        return roleIds;
+    }
+}
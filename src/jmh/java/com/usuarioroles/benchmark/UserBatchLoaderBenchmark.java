@@ -0,0 +1,63 @@
+package com.usuarioroles.benchmark;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.usuarioroles.dao.DaoContext;
+import com.usuarioroles.dao.UserDAO;
+import com.usuarioroles.model.User;
+
+/**
+ * getUserById con y sin el cargador por lotes, con la caché de usuarios
+ * desactivada para que cada llamada llegue a la base de datos. Mide a la vez el
+ * rendimiento (operaciones por segundo) y la distribución de latencias, que con
+ * lotes incluye la espera de la ventana. Solo tiene sentido con varios hilos, p. ej.:
+ *   -Djmh.args="UserBatchLoaderBenchmark -t 32"
+ *
+ * Con windowMicros = 0 el cargador está desactivado y cada llamada hace su propia
+ * consulta.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx3g" })
+public class UserBatchLoaderBenchmark {
+    private static final int USERS = 100000;
+
+    @Param({ "0", "500", "1000", "2000" })
+    public long windowMicros;
+
+    @Param({ "64" })
+    public int maxKeys;
+
+    private UserDAO userDAO;
+
+    @Setup
+    public void setUp() throws SQLException {
+        System.setProperty("USER_CACHE_MAX_SIZE", "0");
+        System.setProperty("USER_BATCH_LOADER_WINDOW_MICROS", Long.toString(windowMicros));
+        System.setProperty("USER_BATCH_LOADER_MAX_KEYS", Integer.toString(maxKeys));
+        DaoContext context = BenchmarkDatabase.create(USERS);
+        userDAO = new UserDAO(context);
+    }
+
+    @Benchmark
+    public User getUserById() throws SQLException {
+        return userDAO.getUserById(BenchmarkDatabase.FIRST_USER_ID + ThreadLocalRandom.current().nextInt(USERS));
+    }
+}
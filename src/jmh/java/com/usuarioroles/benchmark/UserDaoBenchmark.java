@@ -0,0 +1,99 @@
+package com.usuarioroles.benchmark;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.usuarioroles.dao.DaoContext;
+import com.usuarioroles.dao.UserDAO;
+import com.usuarioroles.model.Role;
+import com.usuarioroles.model.User;
+
+/**
+ * Operaciones de UserDAO sobre H2 en memoria con distintos volúmenes de usuarios.
+ * El número de hilos se elige con la opción -t de JMH.
+ *
+ * Con userCacheSize = 0 la caché de usuarios está desactivada y getUserById mide
+ * la consulta; con el tamaño por defecto de la aplicación (10000) mide sobre todo
+ * aciertos de caché.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx3g" })
+public class UserDaoBenchmark {
+    private static final AtomicLong CREATED = new AtomicLong();
+
+    @Param({ "1000", "100000", "1000000" })
+    public int users;
+
+    @Param({ "0", "10000" })
+    public int userCacheSize;
+
+    private UserDAO userDAO;
+
+    @Setup
+    public void setUp() throws SQLException {
+        System.setProperty("USER_CACHE_MAX_SIZE", Integer.toString(userCacheSize));
+        DaoContext context = BenchmarkDatabase.create(users);
+        userDAO = new UserDAO(context);
+    }
+
+    private long randomUserId() {
+        return BenchmarkDatabase.FIRST_USER_ID + ThreadLocalRandom.current().nextInt(users);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<User> getAllUsers() throws SQLException {
+        return userDAO.getAllUsers();
+    }
+
+    @Benchmark
+    public User getUserById() throws SQLException {
+        return userDAO.getUserById(randomUserId());
+    }
+
+    @Benchmark
+    public User getUserByUsername() throws SQLException {
+        return userDAO.getUserByUsername(BenchmarkDatabase.usernameOf(randomUserId()));
+    }
+
+    @Benchmark
+    public User createUser() throws SQLException {
+        long n = CREATED.incrementAndGet();
+        return userDAO.createUser(new User(null, "created" + n, "created" + n + "@example.com", "hash",
+                "Created", "User", true, null, null));
+    }
+
+    /**
+     * Reescribe un usuario con los mismos datos y roles: un UPDATE y la
+     * comparación de roles, sin cambios en user_roles.
+     */
+    @Benchmark
+    public boolean updateUser() throws SQLException {
+        long userId = randomUserId();
+        User user = new User(userId, BenchmarkDatabase.usernameOf(userId),
+                BenchmarkDatabase.usernameOf(userId) + "@example.com", "hash", "Bench", "User", true, null, null);
+        user.setRoles(Collections.singletonList(
+                new Role(BenchmarkDatabase.roleOf(userId), null, null, null, null)));
+        return userDAO.updateUser(user);
+    }
+}
@@ -0,0 +1,145 @@
+package com.usuarioroles;
+
+import com.google.gson.Gson;
+import com.microsoft.azure.functions.*;
+import com.microsoft.azure.functions.annotation.*;
+import com.usuarioroles.dao.DaoContext;
+import com.usuarioroles.dao.UserBatchLoader;
+import com.usuarioroles.dao.UserCache;
+import com.usuarioroles.metrics.Metrics;
+import com.usuarioroles.metrics.PrometheusWriter;
+import com.usuarioroles.model.QuerySummary;
+import com.usuarioroles.util.DatabaseConnection;
+import com.usuarioroles.util.ResponseCache;
+import com.usuarioroles.util.SingleFlight;
+import com.usuarioroles.util.jdbc.QueryStats;
+import com.usuarioroles.util.jdbc.StatementCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import oracle.ucp.jdbc.JDBCConnectionPoolStatistics;
+
+/**
+ * Función Azure que publica las métricas de la aplicación en formato Prometheus:
+ * latencias y códigos de respuesta de cada función, latencias y errores de cada
+ * método de DAO, y el estado del pool y de las cachés. También sirve el informe
+ * de las sentencias SQL más costosas.
+ */
+public class MetricsFunction {
+    private static final int QUERY_REPORT_DEFAULT_LIMIT = 20;
+    private final Gson gson = new Gson();
+
+    @FunctionName("metrics")
+    public HttpResponseMessage metrics(
+            @HttpTrigger(name = "req", 
+                        methods = {HttpMethod.GET}, 
+                        authLevel = AuthorizationLevel.ANONYMOUS,
+                        route = "metrics") 
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+        
+        PrometheusWriter out = new PrometheusWriter()
+                .latencies("usuarioroles_function_duration_seconds", "Duración de las funciones HTTP",
+                        "function", Metrics.functions())
+                .statuses("usuarioroles_function_responses_total", "Respuestas por función y código HTTP",
+                        "function", Metrics.functions())
+                .latencies("usuarioroles_dao_duration_seconds", "Duración de los métodos de DAO",
+                        "method", Metrics.daoMethods())
+                .errors("usuarioroles_dao_errors_total", "Excepciones lanzadas por los métodos de DAO",
+                        "method", Metrics.daoMethods());
+
+        UserCache userCache = DaoContext.getDefault().getUserCache();
+        out.counter("usuarioroles_user_cache_hits_total", "Aciertos de la caché de usuarios", userCache.getHits())
+                .counter("usuarioroles_user_cache_misses_total", "Fallos de la caché de usuarios", userCache.getMisses())
+                .counter("usuarioroles_user_cache_evictions_total", "Expulsiones de la caché de usuarios",
+                        userCache.getEvictions())
+                .gauge("usuarioroles_user_cache_size", "Usuarios en caché", userCache.size());
+        out.gauge("usuarioroles_user_role_index_users", "Usuarios en el índice de roles en memoria",
+                DaoContext.getDefault().getUserRoleIndex().size());
+
+        Map<String, Long> flightLoads = new HashMap<>();
+        Map<String, Long> flightShared = new HashMap<>();
+        for (SingleFlight<?, ?> flight : DaoContext.getDefault().getSingleFlights()) {
+            flightLoads.put(flight.getName(), flight.getLoads());
+            flightShared.put(flight.getName(), flight.getShared());
+        }
+        out.counters("usuarioroles_single_flight_loads_total", "Cargas de base de datos de las lecturas agrupadas",
+                        "method", flightLoads)
+                .counters("usuarioroles_single_flight_shared_total",
+                        "Lecturas resueltas con la carga de otra petición", "method", flightShared);
+        UserBatchLoader batchLoader = DaoContext.getDefault().getUserBatchLoader();
+        if (batchLoader != null) {
+            out.counter("usuarioroles_user_batch_loader_batches_total", "Lotes de getUserById enviados",
+                            batchLoader.getBatches())
+                    .counter("usuarioroles_user_batch_loader_keys_total", "IDs de usuario cargados en lotes",
+                            batchLoader.getKeys());
+        }
+
+        ResponseCache responseCache = ResponseCache.getInstance();
+        out.counter("usuarioroles_response_cache_hits_total", "Respuestas servidas desde la caché",
+                        responseCache.getHits())
+                .counter("usuarioroles_response_cache_misses_total", "Respuestas generadas por fallo de caché",
+                        responseCache.getMisses())
+                .gauge("usuarioroles_response_cache_size", "Respuestas en caché", responseCache.size());
+
+        out.counter("usuarioroles_statement_cache_hits_total", "Aciertos de la caché de sentencias",
+                        StatementCache.getHits())
+                .counter("usuarioroles_statement_cache_misses_total", "Fallos de la caché de sentencias",
+                        StatementCache.getMisses())
+                .counter("usuarioroles_statement_cache_evictions_total", "Expulsiones de la caché de sentencias",
+                        StatementCache.getEvictions());
+
+        JDBCConnectionPoolStatistics pool = DatabaseConnection.getInstance().getStatistics();
+        if (pool != null) {
+            out.gauge("usuarioroles_db_pool_borrowed_connections", "Conexiones prestadas",
+                            pool.getBorrowedConnectionsCount())
+                    .gauge("usuarioroles_db_pool_available_connections", "Conexiones disponibles",
+                            pool.getAvailableConnectionsCount())
+                    .gauge("usuarioroles_db_pool_peak_connections", "Máximo de conexiones usadas a la vez",
+                            pool.getPeakConnectionsCount());
+        }
+
+        return request.createResponseBuilder(HttpStatus.OK)
+                .header("Content-Type", PrometheusWriter.CONTENT_TYPE)
+                .body(out.toString())
+                .build();
+    }
+
+    /**
+     * Sentencias SQL ordenadas por tiempo total acumulado (?limit=)
+     */
+    @FunctionName("queryReport")
+    public HttpResponseMessage queryReport(
+            @HttpTrigger(name = "req", 
+                        methods = {HttpMethod.GET}, 
+                        authLevel = AuthorizationLevel.ANONYMOUS,
+                        route = "metrics/queries") 
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+        
+        int limit;
+        try {
+            String value = request.getQueryParameters().get("limit");
+            limit = value == null ? QUERY_REPORT_DEFAULT_LIMIT : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body("Parámetro limit inválido")
+                    .build();
+        }
+
+        List<QuerySummary> report = new ArrayList<>();
+        for (QueryStats.Entry entry : QueryStats.top(Math.max(1, limit))) {
+            report.add(new QuerySummary(entry.getSql(), entry.getExecutions(), entry.getTotalNanos(),
+                    entry.getMaxNanos(), entry.getRows(), entry.getErrors()));
+        }
+
+        return request.createResponseBuilder(HttpStatus.OK)
+                .header("Content-Type", "application/json")
+                .body(gson.toJson(report))
+                .build();
+    }
+}
@@ -5,13 +5,25 @@ import com.google.gson.GsonBuilder;
 import com.microsoft.azure.functions.*;
 import com.microsoft.azure.functions.annotation.*;
 import com.usuarioroles.dao.RoleDAO;
+import com.usuarioroles.dao.UserFields;
+import com.usuarioroles.metrics.Metrics;
+import com.usuarioroles.metrics.OperationMetrics;
 import com.usuarioroles.model.Role;
 import com.usuarioroles.model.User;
+import com.usuarioroles.model.UserIdPage;
+import com.usuarioroles.util.ConditionalGet;
 import com.usuarioroles.util.DatabaseConnection;
+import com.usuarioroles.util.JsonResponseWriter;
+import com.usuarioroles.util.PagedJsonWriter;
+import com.usuarioroles.util.ResponseCache;
+import com.usuarioroles.util.ResponseCompression;
+import com.usuarioroles.util.Pagination;
 
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,11 +32,25 @@ import java.util.logging.Logger;
  */
 public class RoleFunction {
     private static final Logger LOGGER = Logger.getLogger(RoleFunction.class.getName());
+    private static final OperationMetrics GET_ALL_ROLES_METRICS = Metrics.function("getAllRoles");
+    private static final OperationMetrics GET_ROLE_BY_ID_METRICS = Metrics.function("getRoleById");
+    private static final OperationMetrics CREATE_ROLE_METRICS = Metrics.function("createRole");
+    private static final OperationMetrics UPDATE_ROLE_METRICS = Metrics.function("updateRole");
+    private static final OperationMetrics DELETE_ROLE_METRICS = Metrics.function("deleteRole");
+    private static final OperationMetrics GET_USERS_BY_ROLE_ID_METRICS = Metrics.function("getUsersByRoleId");
+    private static final OperationMetrics QUERY_ROLE_MEMBERS_METRICS = Metrics.function("queryRoleMembers");
+    private static final OperationMetrics GET_ROLE_PARENTS_METRICS = Metrics.function("getRoleParents");
+    private static final OperationMetrics ADD_ROLE_PARENT_METRICS = Metrics.function("addRoleParent");
+    private static final OperationMetrics REMOVE_ROLE_PARENT_METRICS = Metrics.function("removeRoleParent");
+    private static final String ALL_ROLES_CACHE_KEY = "roles";
     private final Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").create();
     private final RoleDAO roleDAO = new RoleDAO();
+    private final ResponseCache responseCache = ResponseCache.getInstance();
+    // Gson por combinación de ?fields=
+    private final ConcurrentMap<UserFields, Gson> fieldsGson = new ConcurrentHashMap<>();
 
     /**
-     * Obtener todos los roles
+     * Obtener todos los roles (admite If-None-Match)
      */
     @FunctionName("getAllRoles")
     public HttpResponseMessage getAllRoles(
@@ -34,14 +60,37 @@ public class RoleFunction {
                         route = "roles") 
             HttpRequestMessage<Optional<String>> request,
             final ExecutionContext context) {
-        
+        return GET_ALL_ROLES_METRICS.time(request, req -> handleGetAllRoles(req, context));
+    }
+
+    private HttpResponseMessage handleGetAllRoles(HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
         context.getLogger().info("Solicitud recibida para obtener todos los roles");
         
         try {
-            List<Role> roles = roleDAO.getAllRoles();
-            return request.createResponseBuilder(HttpStatus.OK)
+            String etag = ConditionalGet.etag(roleDAO.getRolesVersion());
+            if (ConditionalGet.isNotModified(request, etag)) {
+                return ConditionalGet.notModified(request, etag);
+            }
+
+            ResponseCompression.Encoding encoding = ResponseCompression.negotiate(request);
+            String cacheKey = ResponseCache.key(ALL_ROLES_CACHE_KEY, encoding);
+            long version = roleDAO.getDataVersion();
+            ResponseCompression.Body body = responseCache.get(cacheKey, version);
+            if (body == null) {
+                try (JsonResponseWriter out = JsonResponseWriter.open(gson)) {
+                    out.beginArray();
+                    roleDAO.streamAllRoles(role -> out.write(role, Role.class));
+                    out.endArray();
+                    body = ResponseCompression.encode(out.toByteArray(), encoding);
+                }
+                responseCache.put(cacheKey, version, body);
+            }
+
+            return ResponseCompression.body(request.createResponseBuilder(HttpStatus.OK)
                     .header("Content-Type", "application/json")
-                    .body(gson.toJson(roles))
+                    .header("ETag", etag)
+                    .header("Cache-Control", ConditionalGet.CACHE_CONTROL), body)
                     .build();
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Error al obtener roles", e);
@@ -52,7 +101,7 @@ public class RoleFunction {
     }
 
     /**
-     * Obtener un rol por ID
+     * Obtener un rol por ID (admite If-None-Match)
      */
     @FunctionName("getRoleById")
     public HttpResponseMessage getRoleById(
@@ -63,7 +112,11 @@ public class RoleFunction {
             HttpRequestMessage<Optional<String>> request,
             @BindingName("roleId") String roleIdStr,
             final ExecutionContext context) {
-        
+        return GET_ROLE_BY_ID_METRICS.time(request, req -> handleGetRoleById(req, roleIdStr, context));
+    }
+
+    private HttpResponseMessage handleGetRoleById(HttpRequestMessage<Optional<String>> request,
+            String roleIdStr, final ExecutionContext context) {
         context.getLogger().info("Solicitud recibida para obtener rol con ID: " + roleIdStr);
         
         try {
@@ -71,9 +124,15 @@ public class RoleFunction {
             Role role = roleDAO.getRoleById(roleId);
             
             if (role != null) {
+                String etag = ConditionalGet.etag(ConditionalGet.versionOf(role));
+                if (ConditionalGet.isNotModified(request, etag)) {
+                    return ConditionalGet.notModified(request, etag);
+                }
                 return request.createResponseBuilder(HttpStatus.OK)
                         .header("Content-Type", "application/json")
-                        .body(gson.toJson(role))
+                        .header("ETag", etag)
+                        .header("Cache-Control", ConditionalGet.CACHE_CONTROL)
+                        .body(JsonResponseWriter.toJson(gson, role))
                         .build();
             } else {
                 return request.createResponseBuilder(HttpStatus.NOT_FOUND)
@@ -104,7 +163,11 @@ public class RoleFunction {
                         route = "roles") 
             HttpRequestMessage<Optional<String>> request,
             final ExecutionContext context) {
-        
+        return CREATE_ROLE_METRICS.time(request, req -> handleCreateRole(req, context));
+    }
+
+    private HttpResponseMessage handleCreateRole(HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
         context.getLogger().info("Solicitud recibida para crear un nuevo rol");
         
         String requestBody = request.getBody().orElse("");
@@ -120,7 +183,7 @@ public class RoleFunction {
             
             return request.createResponseBuilder(HttpStatus.CREATED)
                     .header("Content-Type", "application/json")
-                    .body(gson.toJson(createdRole))
+                    .body(JsonResponseWriter.toJson(gson, createdRole))
                     .build();
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Error al crear rol", e);
@@ -142,7 +205,11 @@ public class RoleFunction {
             HttpRequestMessage<Optional<String>> request,
             @BindingName("roleId") String roleIdStr,
             final ExecutionContext context) {
-        
+        return UPDATE_ROLE_METRICS.time(request, req -> handleUpdateRole(req, roleIdStr, context));
+    }
+
+    private HttpResponseMessage handleUpdateRole(HttpRequestMessage<Optional<String>> request,
+            String roleIdStr, final ExecutionContext context) {
         context.getLogger().info("Solicitud recibida para actualizar rol con ID: " + roleIdStr);
         
         String requestBody = request.getBody().orElse("");
@@ -157,9 +224,8 @@ public class RoleFunction {
             Role role = gson.fromJson(requestBody, Role.class);
             role.setRoleId(roleId);
             
-            // Verificar que el rol existe
-            Role existingRole = roleDAO.getRoleById(roleId);
-            if (existingRole == null) {
+            // Verificar que el rol existe (catálogo en memoria)
+            if (!roleDAO.roleExists(roleId)) {
                 return request.createResponseBuilder(HttpStatus.NOT_FOUND)
                         .body("Rol no encontrado con ID: " + roleId)
                         .build();
@@ -172,7 +238,7 @@ public class RoleFunction {
                 Role updatedRole = roleDAO.getRoleById(roleId);
                 return request.createResponseBuilder(HttpStatus.OK)
                         .header("Content-Type", "application/json")
-                        .body(gson.toJson(updatedRole))
+                        .body(JsonResponseWriter.toJson(gson, updatedRole))
                         .build();
             } else {
                 return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -204,15 +270,18 @@ public class RoleFunction {
             HttpRequestMessage<Optional<String>> request,
             @BindingName("roleId") String roleIdStr,
             final ExecutionContext context) {
-        
+        return DELETE_ROLE_METRICS.time(request, req -> handleDeleteRole(req, roleIdStr, context));
+    }
+
+    private HttpResponseMessage handleDeleteRole(HttpRequestMessage<Optional<String>> request,
+            String roleIdStr, final ExecutionContext context) {
         context.getLogger().info("Solicitud recibida para eliminar rol con ID: " + roleIdStr);
         
         try {
             long roleId = Long.parseLong(roleIdStr);
             
-            // Verificar que el rol existe
-            Role existingRole = roleDAO.getRoleById(roleId);
-            if (existingRole == null) {
+            // Verificar que el rol existe (catálogo en memoria)
+            if (!roleDAO.roleExists(roleId)) {
                 return request.createResponseBuilder(HttpStatus.NOT_FOUND)
                         .body("Rol no encontrado con ID: " + roleId)
                         .build();
@@ -243,7 +312,7 @@ public class RoleFunction {
     }
 
     /**
-     * Obtener todos los usuarios asignados a un rol
+     * Obtener los usuarios asignados a un rol, paginados por cursor (?limit=&cursor=&fields=)
      */
     @FunctionName("getUsersByRoleId")
     public HttpResponseMessage getUsersByRoleId(
@@ -254,31 +323,55 @@ public class RoleFunction {
             HttpRequestMessage<Optional<String>> request,
             @BindingName("roleId") String roleIdStr,
             final ExecutionContext context) {
-        
+        return GET_USERS_BY_ROLE_ID_METRICS.time(request, req -> handleGetUsersByRoleId(req, roleIdStr, context));
+    }
+
+    private HttpResponseMessage handleGetUsersByRoleId(HttpRequestMessage<Optional<String>> request,
+            String roleIdStr, final ExecutionContext context) {
         context.getLogger().info("Solicitud recibida para obtener usuarios con rol ID: " + roleIdStr);
         
         try {
             long roleId = Long.parseLong(roleIdStr);
             
-            // Verificar que el rol existe
-            Role existingRole = roleDAO.getRoleById(roleId);
-            if (existingRole == null) {
+            // Verificar que el rol existe (catálogo en memoria)
+            if (!roleDAO.roleExists(roleId)) {
                 return request.createResponseBuilder(HttpStatus.NOT_FOUND)
                         .body("Rol no encontrado con ID: " + roleId)
                         .build();
             }
             
-            List<User> users = roleDAO.getUsersByRoleId(roleId);
+            int limit = Pagination.parseLimit(request.getQueryParameters());
+            long lastId = Pagination.parseCursor(request.getQueryParameters());
+            UserFields fields = UserFields.parse(request.getQueryParameters().get("fields"));
             
-            return request.createResponseBuilder(HttpStatus.OK)
-                    .header("Content-Type", "application/json")
-                    .body(gson.toJson(users))
+            ResponseCompression.Encoding encoding = ResponseCompression.negotiate(request);
+            String cacheKey = ResponseCache.key(
+                    "roles/" + roleId + "/users?limit=" + limit + "&cursor=" + lastId + "&fields=" + fields, encoding);
+            long version = roleDAO.getDataVersion();
+            ResponseCompression.Body body = responseCache.get(cacheKey, version);
+            if (body == null) {
+                try (JsonResponseWriter out = JsonResponseWriter.open(gsonFor(fields))) {
+                    PagedJsonWriter<User> page = new PagedJsonWriter<>(out, User.class, limit, User::getUserId);
+                    roleDAO.streamUsersByRoleIdAfter(roleId, lastId, limit + 1, fields, page);
+                    page.finish();
+                    body = ResponseCompression.encode(out.toByteArray(), encoding);
+                }
+                responseCache.put(cacheKey, version, body);
+            }
+
+            return ResponseCompression.body(request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/json"), body)
                     .build();
         } catch (NumberFormatException e) {
             LOGGER.log(Level.WARNING, "ID de rol inválido: " + roleIdStr, e);
             return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
                     .body("ID de rol inválido")
                     .build();
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Parámetros de paginación o campos inválidos", e);
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body(e.getMessage())
+                    .build();
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Error al obtener usuarios para rol ID: " + roleIdStr, e);
             return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -286,4 +379,225 @@ public class RoleFunction {
                     .build();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * IDs de los usuarios que cumplen una combinación de roles, con el total:
+     * ?all=1,2 (todos), ?any=3,4 (alguno) y ?none=5 (ninguno), paginados por cursor
+     */
+    @FunctionName("queryRoleMembers")
+    public HttpResponseMessage queryRoleMembers(
+            @HttpTrigger(name = "req", 
+                        methods = {HttpMethod.GET}, 
+                        authLevel = AuthorizationLevel.ANONYMOUS,
+                        route = "roles:members") 
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+        return QUERY_ROLE_MEMBERS_METRICS.time(request, req -> handleQueryRoleMembers(req, context));
+    }
+
+    private HttpResponseMessage handleQueryRoleMembers(HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+        context.getLogger().info("Solicitud recibida para consultar usuarios por combinación de roles");
+        
+        try {
+            long[] all = parseRoleIds(request.getQueryParameters().get("all"));
+            long[] any = parseRoleIds(request.getQueryParameters().get("any"));
+            long[] none = parseRoleIds(request.getQueryParameters().get("none"));
+            int limit = Pagination.parseLimit(request.getQueryParameters());
+            long lastId = Pagination.parseCursor(request.getQueryParameters());
+            
+            UserIdPage page = roleDAO.queryUsersByRoles(all, any, none, lastId, limit);
+            return request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/json")
+                    .body(JsonResponseWriter.toJson(gson, page))
+                    .build();
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Consulta de roles inválida", e);
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body(e.getMessage())
+                    .build();
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error al consultar usuarios por roles", e);
+            return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error al consultar usuarios por roles: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    /**
+     * Obtener los roles de los que hereda un rol: los padres directos o, con
+     * ?transitive=true, todos sus ascendientes
+     */
+    @FunctionName("getRoleParents")
+    public HttpResponseMessage getRoleParents(
+            @HttpTrigger(name = "req", 
+                        methods = {HttpMethod.GET}, 
+                        authLevel = AuthorizationLevel.ANONYMOUS,
+                        route = "roles/{roleId}/parents") 
+            HttpRequestMessage<Optional<String>> request,
+            @BindingName("roleId") String roleIdStr,
+            final ExecutionContext context) {
+        return GET_ROLE_PARENTS_METRICS.time(request, req -> handleGetRoleParents(req, roleIdStr, context));
+    }
+
+    private HttpResponseMessage handleGetRoleParents(HttpRequestMessage<Optional<String>> request,
+            String roleIdStr, final ExecutionContext context) {
+        context.getLogger().info("Solicitud recibida para obtener los roles padre del rol con ID: " + roleIdStr);
+        
+        try {
+            long roleId = Long.parseLong(roleIdStr);
+            boolean transitive = Boolean.parseBoolean(request.getQueryParameters().get("transitive"));
+            
+            if (!roleDAO.roleExists(roleId)) {
+                return request.createResponseBuilder(HttpStatus.NOT_FOUND)
+                        .body("Rol no encontrado con ID: " + roleId)
+                        .build();
+            }
+            
+            List<Role> parents = roleDAO.getParentRoles(roleId, transitive);
+            return request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/json")
+                    .body(JsonResponseWriter.toJson(gson, parents))
+                    .build();
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "ID de rol inválido: " + roleIdStr, e);
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body("ID de rol inválido")
+                    .build();
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error al obtener los roles padre del rol con ID: " + roleIdStr, e);
+            return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error al obtener roles padre: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    /**
+     * Hacer que un rol herede de otro (409 si la relación crearía un ciclo)
+     */
+    @FunctionName("addRoleParent")
+    public HttpResponseMessage addRoleParent(
+            @HttpTrigger(name = "req", 
+                        methods = {HttpMethod.PUT}, 
+                        authLevel = AuthorizationLevel.ANONYMOUS,
+                        route = "roles/{roleId}/parents/{parentId}") 
+            HttpRequestMessage<Optional<String>> request,
+            @BindingName("roleId") String roleIdStr,
+            @BindingName("parentId") String parentIdStr,
+            final ExecutionContext context) {
+        return ADD_ROLE_PARENT_METRICS.time(request, req -> handleAddRoleParent(req, roleIdStr, parentIdStr, context));
+    }
+
+    private HttpResponseMessage handleAddRoleParent(HttpRequestMessage<Optional<String>> request,
+            String roleIdStr, String parentIdStr, final ExecutionContext context) {
+        context.getLogger().info("Solicitud recibida para que el rol " + roleIdStr + " herede del rol " + parentIdStr);
+        
+        try {
+            long roleId = Long.parseLong(roleIdStr);
+            long parentId = Long.parseLong(parentIdStr);
+            
+            if (!roleDAO.roleExists(roleId) || !roleDAO.roleExists(parentId)) {
+                return request.createResponseBuilder(HttpStatus.NOT_FOUND)
+                        .body("Rol no encontrado con ID: " + (roleDAO.roleExists(roleId) ? parentId : roleId))
+                        .build();
+            }
+            
+            boolean added = roleDAO.addRoleParent(roleId, parentId);
+            return request.createResponseBuilder(HttpStatus.OK)
+                    .body(added ? "Rol padre añadido correctamente" : "El rol ya heredaba de ese rol")
+                    .build();
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "ID de rol inválido", e);
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body("ID de rol inválido")
+                    .build();
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Relación de herencia rechazada", e);
+            return request.createResponseBuilder(HttpStatus.CONFLICT)
+                    .body(e.getMessage())
+                    .build();
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error al añadir rol padre", e);
+            return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error al añadir rol padre: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    /**
+     * Quitar una relación de herencia entre dos roles
+     */
+    @FunctionName("removeRoleParent")
+    public HttpResponseMessage removeRoleParent(
+            @HttpTrigger(name = "req", 
+                        methods = {HttpMethod.DELETE}, 
+                        authLevel = AuthorizationLevel.ANONYMOUS,
+                        route = "roles/{roleId}/parents/{parentId}") 
+            HttpRequestMessage<Optional<String>> request,
+            @BindingName("roleId") String roleIdStr,
+            @BindingName("parentId") String parentIdStr,
+            final ExecutionContext context) {
+        return REMOVE_ROLE_PARENT_METRICS.time(request, req -> handleRemoveRoleParent(req, roleIdStr, parentIdStr, context));
+    }
+
+    private HttpResponseMessage handleRemoveRoleParent(HttpRequestMessage<Optional<String>> request,
+            String roleIdStr, String parentIdStr, final ExecutionContext context) {
+        context.getLogger().info("Solicitud recibida para que el rol " + roleIdStr + " deje de heredar del rol "
+                + parentIdStr);
+        
+        try {
+            long roleId = Long.parseLong(roleIdStr);
+            long parentId = Long.parseLong(parentIdStr);
+            
+            boolean removed = roleDAO.removeRoleParent(roleId, parentId);
+            
+            if (removed) {
+                return request.createResponseBuilder(HttpStatus.OK)
+                        .body("Rol padre quitado correctamente")
+                        .build();
+            } else {
+                return request.createResponseBuilder(HttpStatus.NOT_FOUND)
+                        .body("No se encontró la relación de herencia para eliminar")
+                        .build();
+            }
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "ID de rol inválido", e);
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body("ID de rol inválido")
+                    .build();
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error al quitar rol padre", e);
+            return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error al quitar rol padre: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    private static long[] parseRoleIds(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return new long[0];
+        }
+        String[] parts = value.split(",");
+        long[] roleIds = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                roleIds[i] = Long.parseLong(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("ID de rol inválido: " + parts[i], e);
+            }
+        }
+        return roleIds;
+    }
+
+    /**
+     * Gson que serializa User solo con los campos pedidos; sin ?fields= es el Gson base.
+     */
+    private Gson gsonFor(UserFields fields) {
+        if (fields.equals(UserFields.ALL)) {
+            return gson;
+        }
+        return fieldsGson.computeIfAbsent(fields, f -> gson.newBuilder()
+                .registerTypeAdapter(User.class, f.typeAdapter(gson))
+                .create());
+    }
+}
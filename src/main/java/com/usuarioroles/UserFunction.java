@@ -2,15 +2,37 @@ package com.usuarioroles;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import com.microsoft.azure.functions.*;
 import com.microsoft.azure.functions.annotation.*;
+import com.usuarioroles.dao.RoleDAO;
 import com.usuarioroles.dao.UserDAO;
+import com.usuarioroles.dao.UserFields;
+import com.usuarioroles.metrics.Metrics;
+import com.usuarioroles.metrics.OperationMetrics;
+import com.usuarioroles.model.BatchItemResult;
+import com.usuarioroles.model.BatchResult;
+import com.usuarioroles.model.Role;
+import com.usuarioroles.model.RoleCheck;
 import com.usuarioroles.model.User;
+import com.usuarioroles.util.AppSettings;
+import com.usuarioroles.util.ConditionalGet;
 import com.usuarioroles.util.DatabaseConnection;
+import com.usuarioroles.util.JsonResponseWriter;
+import com.usuarioroles.util.PagedJsonWriter;
+import com.usuarioroles.util.Pagination;
+import com.usuarioroles.util.ResponseCompression;
 
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,11 +41,29 @@ import java.util.logging.Logger;
  */
 public class UserFunction {
     private static final Logger LOGGER = Logger.getLogger(UserFunction.class.getName());
+    private static final OperationMetrics GET_ALL_USERS_METRICS = Metrics.function("getAllUsers");
+    private static final OperationMetrics GET_USER_BY_ID_METRICS = Metrics.function("getUserById");
+    private static final OperationMetrics CREATE_USER_METRICS = Metrics.function("createUser");
+    private static final OperationMetrics CREATE_USERS_BATCH_METRICS = Metrics.function("createUsersBatch");
+    private static final OperationMetrics UPDATE_USER_METRICS = Metrics.function("updateUser");
+    private static final OperationMetrics DELETE_USER_METRICS = Metrics.function("deleteUser");
+    private static final OperationMetrics SET_USER_ROLES_METRICS = Metrics.function("setUserRoles");
+    private static final OperationMetrics ASSIGN_ROLE_TO_USER_METRICS = Metrics.function("assignRoleToUser");
+    private static final OperationMetrics REMOVE_ROLE_FROM_USER_METRICS = Metrics.function("removeRoleFromUser");
+    private static final OperationMetrics CHECK_USER_ROLE_METRICS = Metrics.function("checkUserRole");
+    private static final OperationMetrics CHECK_USER_ROLES_METRICS = Metrics.function("checkUserRoles");
+    private static final OperationMetrics GET_EFFECTIVE_ROLES_METRICS = Metrics.function("getEffectiveRoles");
+    private static final int BATCH_CHUNK_SIZE = AppSettings.getInt("USER_BATCH_CHUNK_SIZE", 500);
+    private static final int BATCH_MAX_ITEMS = AppSettings.getInt("USER_BATCH_MAX_ITEMS", 10000);
     private final Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").create();
     private final UserDAO userDAO = new UserDAO();
+    private final RoleDAO roleDAO = new RoleDAO();
+    // Gson por combinación de ?fields=
+    private final ConcurrentMap<UserFields, Gson> fieldsGson = new ConcurrentHashMap<>();
 
     /**
-     * Obtener todos los usuarios
+     * Obtener todos los usuarios, paginados por cursor (?limit=&cursor=), opcionalmente
+     * solo con algunos campos (?fields=userId,username,roles.roleName)
      */
     @FunctionName("getAllUsers")
     public HttpResponseMessage getAllUsers(
@@ -33,14 +73,33 @@ public class UserFunction {
                         route = "users") 
             HttpRequestMessage<Optional<String>> request,
             final ExecutionContext context) {
-        
+        return GET_ALL_USERS_METRICS.time(request, req -> handleGetAllUsers(req, context));
+    }
+
+    private HttpResponseMessage handleGetAllUsers(HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
         context.getLogger().info("Solicitud recibida para obtener todos los usuarios");
         
         try {
-            List<User> users = userDAO.getAllUsers();
-            return request.createResponseBuilder(HttpStatus.OK)
-                    .header("Content-Type", "application/json")
-                    .body(gson.toJson(users))
+            int limit = Pagination.parseLimit(request.getQueryParameters());
+            long lastId = Pagination.parseCursor(request.getQueryParameters());
+            UserFields fields = UserFields.parse(request.getQueryParameters().get("fields"));
+            
+            try (JsonResponseWriter out = JsonResponseWriter.open(gsonFor(fields))) {
+                PagedJsonWriter<User> page = new PagedJsonWriter<>(out, User.class, limit, User::getUserId);
+                userDAO.streamUsersAfter(lastId, limit + 1, fields, page);
+                page.finish();
+                
+                ResponseCompression.Body body =
+                        ResponseCompression.encode(out.toByteArray(), ResponseCompression.negotiate(request));
+                return ResponseCompression.body(request.createResponseBuilder(HttpStatus.OK)
+                        .header("Content-Type", "application/json"), body)
+                        .build();
+            }
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Parámetros de paginación o campos inválidos", e);
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body(e.getMessage())
                     .build();
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Error al obtener usuarios", e);
@@ -51,7 +110,7 @@ public class UserFunction {
     }
 
     /**
-     * Obtener un usuario por ID
+     * Obtener un usuario por ID (admite If-None-Match)
      */
     @FunctionName("getUserById")
     public HttpResponseMessage getUserById(
@@ -62,7 +121,11 @@ public class UserFunction {
             HttpRequestMessage<Optional<String>> request,
             @BindingName("userId") String userIdStr,
             final ExecutionContext context) {
-        
+        return GET_USER_BY_ID_METRICS.time(request, req -> handleGetUserById(req, userIdStr, context));
+    }
+
+    private HttpResponseMessage handleGetUserById(HttpRequestMessage<Optional<String>> request,
+            String userIdStr, final ExecutionContext context) {
         context.getLogger().info("Solicitud recibida para obtener usuario con ID: " + userIdStr);
         
         try {
@@ -70,9 +133,15 @@ public class UserFunction {
             User user = userDAO.getUserById(userId);
             
             if (user != null) {
+                String etag = ConditionalGet.etag(ConditionalGet.versionOf(user));
+                if (ConditionalGet.isNotModified(request, etag)) {
+                    return ConditionalGet.notModified(request, etag);
+                }
                 return request.createResponseBuilder(HttpStatus.OK)
                         .header("Content-Type", "application/json")
-                        .body(gson.toJson(user))
+                        .header("ETag", etag)
+                        .header("Cache-Control", ConditionalGet.CACHE_CONTROL)
+                        .body(JsonResponseWriter.toJson(gson, user))
                         .build();
             } else {
                 return request.createResponseBuilder(HttpStatus.NOT_FOUND)
@@ -103,7 +172,11 @@ public class UserFunction {
                         route = "users") 
             HttpRequestMessage<Optional<String>> request,
             final ExecutionContext context) {
-        
+        return CREATE_USER_METRICS.time(request, req -> handleCreateUser(req, context));
+    }
+
+    private HttpResponseMessage handleCreateUser(HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
         context.getLogger().info("Solicitud recibida para crear un nuevo usuario");
         
         String requestBody = request.getBody().orElse("");
@@ -119,7 +192,7 @@ public class UserFunction {
             
             return request.createResponseBuilder(HttpStatus.CREATED)
                     .header("Content-Type", "application/json")
-                    .body(gson.toJson(createdUser))
+                    .body(JsonResponseWriter.toJson(gson, createdUser))
                     .build();
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Error al crear usuario", e);
@@ -129,6 +202,71 @@ public class UserFunction {
         }
     }
 
+    /**
+     * Crear usuarios por lotes (?chunkSize= para el tamaño de cada transacción)
+     */
+    @FunctionName("createUsersBatch")
+    public HttpResponseMessage createUsersBatch(
+            @HttpTrigger(name = "req", 
+                        methods = {HttpMethod.POST}, 
+                        authLevel = AuthorizationLevel.ANONYMOUS,
+                        route = "users:batch") 
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+        return CREATE_USERS_BATCH_METRICS.time(request, req -> handleCreateUsersBatch(req, context));
+    }
+
+    private HttpResponseMessage handleCreateUsersBatch(HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+        context.getLogger().info("Solicitud recibida para crear usuarios por lotes");
+        
+        String requestBody = request.getBody().orElse("");
+        if (requestBody.isEmpty()) {
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body("Por favor proporcione un array de usuarios en el cuerpo de la solicitud")
+                    .build();
+        }
+        
+        try {
+            User[] users = gson.fromJson(requestBody, User[].class);
+            if (users == null || users.length == 0) {
+                return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                        .body("Por favor proporcione un array de usuarios en el cuerpo de la solicitud")
+                        .build();
+            }
+            if (users.length > BATCH_MAX_ITEMS) {
+                return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                        .body("El lote supera el máximo de " + BATCH_MAX_ITEMS + " usuarios")
+                        .build();
+            }
+            
+            int chunkSize = BATCH_CHUNK_SIZE;
+            String chunkParam = request.getQueryParameters().get("chunkSize");
+            if (chunkParam != null) {
+                chunkSize = Integer.parseInt(chunkParam);
+                if (chunkSize <= 0) {
+                    throw new NumberFormatException("chunkSize debe ser positivo");
+                }
+            }
+            
+            List<BatchItemResult> results = userDAO.createUsers(Arrays.asList(users), chunkSize);
+            return request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/json")
+                    .body(JsonResponseWriter.toJson(gson, new BatchResult(results)))
+                    .build();
+        } catch (JsonParseException | NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Solicitud de lote inválida", e);
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body("Solicitud de lote inválida: " + e.getMessage())
+                    .build();
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error al crear usuarios por lotes", e);
+            return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error al crear usuarios por lotes: " + e.getMessage())
+                    .build();
+        }
+    }
+
     /**
      * Actualizar un usuario existente
      */
@@ -141,7 +279,11 @@ public class UserFunction {
             HttpRequestMessage<Optional<String>> request,
             @BindingName("userId") String userIdStr,
             final ExecutionContext context) {
-        
+        return UPDATE_USER_METRICS.time(request, req -> handleUpdateUser(req, userIdStr, context));
+    }
+
+    private HttpResponseMessage handleUpdateUser(HttpRequestMessage<Optional<String>> request,
+            String userIdStr, final ExecutionContext context) {
         context.getLogger().info("Solicitud recibida para actualizar usuario con ID: " + userIdStr);
         
         String requestBody = request.getBody().orElse("");
@@ -171,7 +313,7 @@ public class UserFunction {
                 User updatedUser = userDAO.getUserById(userId);
                 return request.createResponseBuilder(HttpStatus.OK)
                         .header("Content-Type", "application/json")
-                        .body(gson.toJson(updatedUser))
+                        .body(JsonResponseWriter.toJson(gson, updatedUser))
                         .build();
             } else {
                 return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -183,6 +325,11 @@ public class UserFunction {
             return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
                     .body("ID de usuario inválido")
                     .build();
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Datos de usuario inválidos", e);
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body(e.getMessage())
+                    .build();
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Error al actualizar usuario con ID: " + userIdStr, e);
             return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -203,7 +350,11 @@ public class UserFunction {
             HttpRequestMessage<Optional<String>> request,
             @BindingName("userId") String userIdStr,
             final ExecutionContext context) {
-        
+        return DELETE_USER_METRICS.time(request, req -> handleDeleteUser(req, userIdStr, context));
+    }
+
+    private HttpResponseMessage handleDeleteUser(HttpRequestMessage<Optional<String>> request,
+            String userIdStr, final ExecutionContext context) {
         context.getLogger().info("Solicitud recibida para eliminar usuario con ID: " + userIdStr);
         
         try {
@@ -241,6 +392,217 @@ public class UserFunction {
         }
     }
 
+    /**
+     * Reemplazar el conjunto de roles de un usuario. El cuerpo es un array de IDs de
+     * rol ([1, 3]) o de roles ([{"roleId": 1}, ...]).
+     */
+    @FunctionName("setUserRoles")
+    public HttpResponseMessage setUserRoles(
+            @HttpTrigger(name = "req", 
+                        methods = {HttpMethod.PUT}, 
+                        authLevel = AuthorizationLevel.ANONYMOUS,
+                        route = "users/{userId}/roles") 
+            HttpRequestMessage<Optional<String>> request,
+            @BindingName("userId") String userIdStr,
+            final ExecutionContext context) {
+        return SET_USER_ROLES_METRICS.time(request, req -> handleSetUserRoles(req, userIdStr, context));
+    }
+
+    private HttpResponseMessage handleSetUserRoles(HttpRequestMessage<Optional<String>> request,
+            String userIdStr, final ExecutionContext context) {
+        context.getLogger().info("Solicitud recibida para reemplazar los roles del usuario " + userIdStr);
+        
+        String requestBody = request.getBody().orElse("");
+        if (requestBody.isEmpty()) {
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body("Por favor proporcione un array de roles en el cuerpo de la solicitud")
+                    .build();
+        }
+        
+        try {
+            long userId = Long.parseLong(userIdStr);
+            Set<Long> roleIds = parseRoleIds(requestBody);
+            
+            for (Long roleId : roleIds) {
+                if (!roleDAO.roleExists(roleId)) {
+                    return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                            .body("Rol no encontrado con ID: " + roleId)
+                            .build();
+                }
+            }
+            
+            if (!userDAO.setUserRoles(userId, roleIds)) {
+                return request.createResponseBuilder(HttpStatus.NOT_FOUND)
+                        .body("Usuario no encontrado con ID: " + userId)
+                        .build();
+            }
+            
+            return request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/json")
+                    .body(JsonResponseWriter.toJson(gson, userDAO.getUserById(userId)))
+                    .build();
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "ID de usuario inválido: " + userIdStr, e);
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body("ID de usuario inválido")
+                    .build();
+        } catch (JsonParseException e) {
+            LOGGER.log(Level.WARNING, "Lista de roles inválida", e);
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body("Lista de roles inválida: " + e.getMessage())
+                    .build();
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error al reemplazar roles del usuario con ID: " + userIdStr, e);
+            return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error al reemplazar roles del usuario: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    /**
+     * Comprobar si un usuario tiene un rol, asignado o heredado, con el índice en
+     * memoria de asignaciones y la jerarquía de roles
+     */
+    @FunctionName("checkUserRole")
+    public HttpResponseMessage checkUserRole(
+            @HttpTrigger(name = "req", 
+                        methods = {HttpMethod.GET}, 
+                        authLevel = AuthorizationLevel.ANONYMOUS,
+                        route = "users/{userId}/roles/{roleId}") 
+            HttpRequestMessage<Optional<String>> request,
+            @BindingName("userId") String userIdStr,
+            @BindingName("roleId") String roleIdStr,
+            final ExecutionContext context) {
+        return CHECK_USER_ROLE_METRICS.time(request, req -> handleCheckUserRole(req, userIdStr, roleIdStr));
+    }
+
+    private HttpResponseMessage handleCheckUserRole(HttpRequestMessage<Optional<String>> request,
+            String userIdStr, String roleIdStr) {
+        // Sin log por petición: es la ruta que llaman las pasarelas en cada autorización
+        try {
+            long userId = Long.parseLong(userIdStr);
+            long roleId = Long.parseLong(roleIdStr);
+            
+            boolean hasRole = userDAO.hasRole(userId, roleId);
+            return request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/json")
+                    .body(JsonResponseWriter.toJson(gson, new RoleCheck(userId, roleId, hasRole)))
+                    .build();
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "ID de usuario o rol inválido", e);
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body("ID de usuario o rol inválido")
+                    .build();
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error al comprobar rol de usuario", e);
+            return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error al comprobar rol de usuario: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    /**
+     * Comprobar varios pares usuario-rol a la vez. El cuerpo es un array de
+     * {"userId": 1, "roleId": 2}; la respuesta repite cada par con hasRole.
+     */
+    @FunctionName("checkUserRoles")
+    public HttpResponseMessage checkUserRoles(
+            @HttpTrigger(name = "req", 
+                        methods = {HttpMethod.POST}, 
+                        authLevel = AuthorizationLevel.ANONYMOUS,
+                        route = "users:checkRoles") 
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+        return CHECK_USER_ROLES_METRICS.time(request, req -> handleCheckUserRoles(req));
+    }
+
+    private HttpResponseMessage handleCheckUserRoles(HttpRequestMessage<Optional<String>> request) {
+        String requestBody = request.getBody().orElse("");
+        if (requestBody.isEmpty()) {
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body("Por favor proporcione un array de pares usuario-rol en el cuerpo de la solicitud")
+                    .build();
+        }
+        
+        try {
+            RoleCheck[] checks = gson.fromJson(requestBody, RoleCheck[].class);
+            if (checks == null || checks.length > BATCH_MAX_ITEMS) {
+                return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                        .body("Se esperaba un array de hasta " + BATCH_MAX_ITEMS + " pares usuario-rol")
+                        .build();
+            }
+            for (RoleCheck check : checks) {
+                if (check == null || check.getUserId() == null || check.getRoleId() == null) {
+                    return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                            .body("Cada elemento debe indicar userId y roleId")
+                            .build();
+                }
+            }
+            
+            List<RoleCheck> results = userDAO.checkRoles(Arrays.asList(checks));
+            return request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/json")
+                    .body(JsonResponseWriter.toJson(gson, results))
+                    .build();
+        } catch (JsonParseException e) {
+            LOGGER.log(Level.WARNING, "Lista de comprobaciones inválida", e);
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body("Lista de comprobaciones inválida: " + e.getMessage())
+                    .build();
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error al comprobar roles de usuarios", e);
+            return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error al comprobar roles de usuarios: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    /**
+     * Obtener los roles efectivos de un usuario: los asignados y todos los que estos
+     * heredan en la jerarquía de roles
+     */
+    @FunctionName("getEffectiveRoles")
+    public HttpResponseMessage getEffectiveRoles(
+            @HttpTrigger(name = "req", 
+                        methods = {HttpMethod.GET}, 
+                        authLevel = AuthorizationLevel.ANONYMOUS,
+                        route = "users/{userId}/effectiveRoles") 
+            HttpRequestMessage<Optional<String>> request,
+            @BindingName("userId") String userIdStr,
+            final ExecutionContext context) {
+        return GET_EFFECTIVE_ROLES_METRICS.time(request, req -> handleGetEffectiveRoles(req, userIdStr));
+    }
+
+    private HttpResponseMessage handleGetEffectiveRoles(HttpRequestMessage<Optional<String>> request,
+            String userIdStr) {
+        // Sin log por petición: como checkUserRole, se llama en cada autorización
+        try {
+            long userId = Long.parseLong(userIdStr);
+            
+            if (userDAO.getUserById(userId) == null) {
+                return request.createResponseBuilder(HttpStatus.NOT_FOUND)
+                        .body("Usuario no encontrado con ID: " + userId)
+                        .build();
+            }
+            
+            List<Role> roles = roleDAO.getEffectiveRoles(userId);
+            return request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/json")
+                    .body(JsonResponseWriter.toJson(gson, roles))
+                    .build();
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "ID de usuario inválido: " + userIdStr, e);
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body("ID de usuario inválido")
+                    .build();
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error al obtener roles efectivos del usuario", e);
+            return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error al obtener roles efectivos: " + e.getMessage())
+                    .build();
+        }
+    }
+
     /**
      * Asignar un rol a un usuario
      */
@@ -254,7 +616,11 @@ public class UserFunction {
             @BindingName("userId") String userIdStr,
             @BindingName("roleId") String roleIdStr,
             final ExecutionContext context) {
-        
+        return ASSIGN_ROLE_TO_USER_METRICS.time(request, req -> handleAssignRoleToUser(req, userIdStr, roleIdStr, context));
+    }
+
+    private HttpResponseMessage handleAssignRoleToUser(HttpRequestMessage<Optional<String>> request,
+            String userIdStr, String roleIdStr, final ExecutionContext context) {
         context.getLogger().info("Solicitud recibida para asignar rol " + roleIdStr + " a usuario " + userIdStr);
         
         try {
@@ -298,7 +664,11 @@ public class UserFunction {
             @BindingName("userId") String userIdStr,
             @BindingName("roleId") String roleIdStr,
             final ExecutionContext context) {
-        
+        return REMOVE_ROLE_FROM_USER_METRICS.time(request, req -> handleRemoveRoleFromUser(req, userIdStr, roleIdStr, context));
+    }
+
+    private HttpResponseMessage handleRemoveRoleFromUser(HttpRequestMessage<Optional<String>> request,
+            String userIdStr, String roleIdStr, final ExecutionContext context) {
         context.getLogger().info("Solicitud recibida para eliminar rol " + roleIdStr + " de usuario " + userIdStr);
         
         try {
@@ -328,4 +698,36 @@ public class UserFunction {
                     .build();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Gson que serializa User solo con los campos pedidos; sin ?fields= es el Gson base.
+     */
+    private Gson gsonFor(UserFields fields) {
+        if (fields.equals(UserFields.ALL)) {
+            return gson;
+        }
+        return fieldsGson.computeIfAbsent(fields, f -> gson.newBuilder()
+                .registerTypeAdapter(User.class, f.typeAdapter(gson))
+                .create());
+    }
+
+    private static Set<Long> parseRoleIds(String body) {
+        Set<Long> roleIds = new LinkedHashSet<>();
+        try {
+            for (JsonElement element : JsonParser.parseString(body).getAsJsonArray()) {
+                if (element.isJsonObject()) {
+                    JsonElement roleId = element.getAsJsonObject().get("roleId");
+                    if (roleId == null || roleId.isJsonNull()) {
+                        throw new JsonParseException("Cada rol debe indicar roleId");
+                    }
+                    roleIds.add(roleId.getAsLong());
+                } else {
+                    roleIds.add(element.getAsLong());
+                }
+            }
+        } catch (IllegalStateException | UnsupportedOperationException | NumberFormatException e) {
+            throw new JsonParseException("Se esperaba un array de IDs de rol", e);
+        }
+        return roleIds;
+    }
+}
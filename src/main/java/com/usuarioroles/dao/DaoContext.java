@@ -0,0 +1,197 @@
+package com.usuarioroles.dao;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import com.usuarioroles.metrics.OperationMetrics;
+import com.usuarioroles.model.User;
+import com.usuarioroles.util.AppSettings;
+import com.usuarioroles.util.DatabaseConnection;
+import com.usuarioroles.util.SingleFlight;
+
+/**
+ * Estado compartido por los DAO que trabajan sobre una misma base de datos: el
+ * DataSource y las estructuras en memoria que deben verse igual desde UserDAO y
+ * RoleDAO, aunque cada función cree sus propias instancias de los DAO.
+ *
+ * También lleva una versión de datos que los métodos de escritura de los DAO
+ * incrementan al terminar, para invalidar lo que se haya calculado a partir de
+ * lecturas anteriores (p. ej. {@link com.usuarioroles.util.ResponseCache}).
+ */
+public class DaoContext {
+    private static DaoContext defaultContext;
+
+    private final DataSource dataSource;
+    private final RoleCatalog roleCatalog;
+    private final RoleHierarchy roleHierarchy;
+    private final UserCache userCache;
+    private final UserRoleIndex userRoleIndex;
+    // Lecturas agrupadas por clave (ver SingleFlight)
+    private final SingleFlight<Long, User> userByIdFlight;
+    private final SingleFlight<String, User> userByUsernameFlight;
+    private final SingleFlight<Long, List<User>> usersByRoleFlight;
+    private final long userBatchLoaderWindowMicros;
+    private final int userBatchLoaderMaxKeys;
+    private final int userBatchLoaderThreads;
+    private final long userBatchLoaderTimeoutMillis;
+    // Se crea en el primer uso
+    private volatile UserBatchLoader userBatchLoader;
+    private volatile SqlDialect dialect;
+    private final AtomicLong dataVersion = new AtomicLong();
+
+    public DaoContext(DataSource dataSource) {
+        // Las comprobaciones de roles leen el marcador de user_roles como mucho cada TTL
+        this(dataSource, new UserRoleIndex(AppSettings.getLong("USER_ROLE_INDEX_TTL_MILLIS", 1000),
+                AppSettings.getLong("USER_ROLE_INDEX_MAX_AGE_SECONDS", 300) * 1000L));
+    }
+
+    /**
+     * Contexto con un índice de user_roles propio, p. ej. con otro TTL.
+     */
+    DaoContext(DataSource dataSource, UserRoleIndex userRoleIndex) {
+        this.dataSource = dataSource;
+        this.roleCatalog = new RoleCatalog(AppSettings.getLong("ROLE_CATALOG_TTL_SECONDS", 300) * 1000L);
+        this.roleHierarchy = new RoleHierarchy(AppSettings.getLong("ROLE_HIERARCHY_TTL_SECONDS", 300) * 1000L);
+        this.userCache = new UserCache(AppSettings.getInt("USER_CACHE_MAX_SIZE", 10000),
+                AppSettings.getLong("USER_CACHE_TTL_SECONDS", 60) * 1000L);
+        this.userRoleIndex = userRoleIndex;
+        long window = AppSettings.getLong("SINGLE_FLIGHT_WINDOW_MILLIS", 0);
+        this.userByIdFlight = new SingleFlight<>("UserDAO.getUserById", window);
+        this.userByUsernameFlight = new SingleFlight<>("UserDAO.getUserByUsername", window);
+        this.usersByRoleFlight = new SingleFlight<>("RoleDAO.getUsersByRoleId", window);
+        this.userBatchLoaderWindowMicros = AppSettings.getLong("USER_BATCH_LOADER_WINDOW_MICROS", 0);
+        this.userBatchLoaderMaxKeys = AppSettings.getInt("USER_BATCH_LOADER_MAX_KEYS", 100);
+        this.userBatchLoaderThreads = AppSettings.getInt("USER_BATCH_LOADER_THREADS", 2);
+        // Un lote espera la ventana y una conexión del pool; si no ha terminado en
+        // ese tiempo más la espera máxima del pool, el llamante deja de esperarlo
+        this.userBatchLoaderTimeoutMillis = userBatchLoaderWindowMicros / 1000
+                + AppSettings.getInt("DB_POOL_BORROW_TIMEOUT_SECONDS", 5) * 1000L;
+    }
+
+    /**
+     * Contexto de la aplicación, sobre el pool de DatabaseConnection.
+     */
+    public static synchronized DaoContext getDefault() {
+        if (defaultContext == null) {
+            defaultContext = new DaoContext(DatabaseConnection.getInstance().getDataSource());
+        }
+        return defaultContext;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public RoleCatalog getRoleCatalog() {
+        return roleCatalog;
+    }
+
+    public RoleHierarchy getRoleHierarchy() {
+        return roleHierarchy;
+    }
+
+    public UserCache getUserCache() {
+        return userCache;
+    }
+
+    public UserRoleIndex getUserRoleIndex() {
+        return userRoleIndex;
+    }
+
+    SingleFlight<Long, User> getUserByIdFlight() {
+        return userByIdFlight;
+    }
+
+    SingleFlight<String, User> getUserByUsernameFlight() {
+        return userByUsernameFlight;
+    }
+
+    SingleFlight<Long, List<User>> getUsersByRoleFlight() {
+        return usersByRoleFlight;
+    }
+
+    /**
+     * Cargador por lotes de getUserById, configurado con
+     * USER_BATCH_LOADER_WINDOW_MICROS (0, el valor por defecto, lo desactiva),
+     * USER_BATCH_LOADER_MAX_KEYS y USER_BATCH_LOADER_THREADS; null si está desactivado.
+     */
+    public UserBatchLoader getUserBatchLoader() {
+        UserBatchLoader current = userBatchLoader;
+        if (current == null && userBatchLoaderWindowMicros > 0) {
+            synchronized (this) {
+                current = userBatchLoader;
+                if (current == null) {
+                    UserDAO userDAO = new UserDAO(this);
+                    current = new UserBatchLoader(userBatchLoaderWindowMicros, userBatchLoaderMaxKeys,
+                            userBatchLoaderThreads, userDAO::loadAndCacheUsers);
+                    userBatchLoader = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Espera máxima de getUserById por un usuario del cargador por lotes.
+     */
+    long getUserBatchLoaderTimeoutMillis() {
+        return userBatchLoaderTimeoutMillis;
+    }
+
+    /**
+     * Agrupadores de lecturas de los DAO, para publicar sus contadores.
+     */
+    public List<SingleFlight<?, ?>> getSingleFlights() {
+        return Collections.unmodifiableList(Arrays.asList(userByIdFlight, userByUsernameFlight, usersByRoleFlight));
+    }
+
+    /**
+     * Dialecto SQL de la base de datos, detectado en el primer uso.
+     */
+    public SqlDialect getDialect() throws SQLException {
+        SqlDialect current = dialect;
+        if (current == null) {
+            synchronized (this) {
+                current = dialect;
+                if (current == null) {
+                    current = SqlDialect.detect(dataSource);
+                    dialect = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Versión de los datos escritos desde esta instancia. Debe leerse antes de
+     * consultar la base de datos para que un resultado nunca se asocie a una
+     * versión posterior a la de los datos leídos.
+     */
+    public long getDataVersion() {
+        return dataVersion.get();
+    }
+
+    /**
+     * Marca que un DAO ha modificado (o intentado modificar) los datos.
+     */
+    public void dataChanged() {
+        dataVersion.incrementAndGet();
+    }
+
+    /**
+     * Ejecuta un método de escritura de un DAO con sus métricas y, termine como
+     * termine, marca el cambio de datos.
+     */
+    <T> T write(OperationMetrics metrics, OperationMetrics.Call<T, SQLException> call) throws SQLException {
+        try {
+            return metrics.time(call);
+        } finally {
+            dataChanged();
+        }
+    }
+}
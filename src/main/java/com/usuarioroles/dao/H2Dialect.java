@@ -0,0 +1,30 @@
+package com.usuarioroles.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * H2: el INSERT se envuelve en {@code SELECT ... FROM FINAL TABLE (INSERT ...)},
+ * que devuelve la fila tal como quedó insertada (ID y valores por defecto) en
+ * una sola consulta.
+ */
+final class H2Dialect extends SqlDialect {
+
+    H2Dialect() {
+        super("H2");
+    }
+
+    @Override
+    public PreparedStatement prepareInsertReturning(Connection connection, String insertSql, String... returning)
+            throws SQLException {
+        return connection.prepareStatement("SELECT " + String.join(", ", returning)
+                + " FROM FINAL TABLE (" + insertSql + ")");
+    }
+
+    @Override
+    public ResultSet executeInsertReturning(PreparedStatement stmt) throws SQLException {
+        return stmt.executeQuery();
+    }
+}
@@ -0,0 +1,14 @@
+package com.usuarioroles.dao;
+
+/**
+ * Oracle: getGeneratedKeys con nombres de columna, que el driver traduce a
+ * {@code INSERT ... RETURNING ... INTO} y resuelve en el mismo viaje que el
+ * INSERT. A diferencia de RETURNING en SQL plano, funciona con cualquier
+ * columna, no solo con la clave.
+ */
+final class OracleDialect extends SqlDialect {
+
+    OracleDialect() {
+        super("Oracle");
+    }
+}
@@ -0,0 +1,103 @@
+package com.usuarioroles.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.usuarioroles.model.Role;
+import com.usuarioroles.util.ConditionalGet;
+
+/**
+ * Catálogo de roles en memoria, con búsqueda por ID y por nombre.
+ *
+ * Los roles casi nunca cambian, así que RoleDAO lo carga de forma perezosa con una
+ * única consulta y lo mantiene al día en createRole, updateRole y deleteRole. Las
+ * lecturas trabajan sobre una instantánea inmutable sin bloqueos; las escrituras
+ * copian la instantánea bajo el monitor del catálogo. Como otras instancias de la
+ * función pueden modificar la tabla, la instantánea caduca tras un TTL.
+ *
+ * Los objetos Role del catálogo se comparten entre peticiones y no deben modificarse.
+ */
+public class RoleCatalog {
+    private final long ttlNanos;
+    private volatile Snapshot snapshot;
+
+    public RoleCatalog(long ttlMillis) {
+        this.ttlNanos = ttlMillis * 1_000_000L;
+    }
+
+    /**
+     * Instantánea vigente, o null si no se ha cargado o ha caducado.
+     */
+    Snapshot current() {
+        Snapshot current = snapshot;
+        if (current == null || System.nanoTime() - current.loadedAt > ttlNanos) {
+            return null;
+        }
+        return current;
+    }
+
+    synchronized void load(List<Role> roles) {
+        snapshot = new Snapshot(roles, System.nanoTime());
+    }
+
+    /**
+     * Añade o reemplaza un rol. Si el catálogo no está cargado no hace nada: la
+     * próxima lectura lo cargará completo desde la base de datos.
+     */
+    synchronized void put(Role role) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+        Map<Long, Role> byId = new TreeMap<>(current.byId);
+        byId.put(role.getRoleId(), role);
+        snapshot = new Snapshot(new ArrayList<>(byId.values()), current.loadedAt);
+    }
+
+    synchronized void remove(long roleId) {
+        Snapshot current = snapshot;
+        if (current == null || !current.byId.containsKey(roleId)) {
+            return;
+        }
+        Map<Long, Role> byId = new TreeMap<>(current.byId);
+        byId.remove(roleId);
+        snapshot = new Snapshot(new ArrayList<>(byId.values()), current.loadedAt);
+    }
+
+    public synchronized void invalidate() {
+        snapshot = null;
+    }
+
+    /**
+     * Estado inmutable del catálogo.
+     */
+    static final class Snapshot {
+        final List<Role> all;
+        final Map<Long, Role> byId;
+        final Map<String, Role> byName;
+        // Huella del contenido, para el ETag de la lista de roles
+        final long version;
+        final long loadedAt;
+
+        Snapshot(List<Role> roles, long loadedAt) {
+            Map<Long, Role> ids = new TreeMap<>();
+            Map<String, Role> names = new HashMap<>();
+            for (Role role : roles) {
+                ids.put(role.getRoleId(), role);
+            }
+            for (Role role : ids.values()) {
+                // Si hubiera nombres repetidos gana el de menor ID, como en la consulta
+                names.putIfAbsent(role.getRoleName(), role);
+            }
+            this.all = Collections.unmodifiableList(new ArrayList<>(ids.values()));
+            this.byId = Collections.unmodifiableMap(ids);
+            this.byName = Collections.unmodifiableMap(names);
+            this.version = ConditionalGet.versionOf(all);
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -3,162 +3,257 @@ package com.usuarioroles.dao;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.sql.DataSource;
+
+import com.usuarioroles.metrics.Metrics;
+import com.usuarioroles.metrics.OperationMetrics;
 import com.usuarioroles.model.Role;
+import com.usuarioroles.model.Page;
 import com.usuarioroles.model.User;
-import com.usuarioroles.util.DatabaseConnection;
+import com.usuarioroles.model.UserIdPage;
+import com.usuarioroles.util.Pagination;
+import com.usuarioroles.util.SingleFlight;
 
 public class RoleDAO {
     private static final Logger LOGGER = Logger.getLogger(RoleDAO.class.getName());
+    private static final OperationMetrics GET_ALL_ROLES_METRICS = Metrics.dao("RoleDAO.getAllRoles");
+    private static final OperationMetrics STREAM_ALL_ROLES_METRICS = Metrics.dao("RoleDAO.streamAllRoles");
+    private static final OperationMetrics GET_ROLES_VERSION_METRICS = Metrics.dao("RoleDAO.getRolesVersion");
+    private static final OperationMetrics GET_ROLE_BY_ID_METRICS = Metrics.dao("RoleDAO.getRoleById");
+    private static final OperationMetrics GET_ROLE_BY_NAME_METRICS = Metrics.dao("RoleDAO.getRoleByName");
+    private static final OperationMetrics ROLE_EXISTS_METRICS = Metrics.dao("RoleDAO.roleExists");
+    private static final OperationMetrics CREATE_ROLE_METRICS = Metrics.dao("RoleDAO.createRole");
+    private static final OperationMetrics UPDATE_ROLE_METRICS = Metrics.dao("RoleDAO.updateRole");
+    private static final OperationMetrics DELETE_ROLE_METRICS = Metrics.dao("RoleDAO.deleteRole");
+    private static final OperationMetrics GET_USERS_BY_ROLE_ID_METRICS = Metrics.dao("RoleDAO.getUsersByRoleId");
+    private static final OperationMetrics GET_USERS_BY_ROLE_ID_AFTER_METRICS = Metrics.dao("RoleDAO.getUsersByRoleIdAfter");
+    private static final OperationMetrics STREAM_USERS_BY_ROLE_ID_AFTER_METRICS = Metrics.dao("RoleDAO.streamUsersByRoleIdAfter");
+    private static final OperationMetrics COUNT_USERS_BY_ROLE_ID_METRICS = Metrics.dao("RoleDAO.countUsersByRoleId");
+    private static final OperationMetrics QUERY_USERS_BY_ROLES_METRICS = Metrics.dao("RoleDAO.queryUsersByRoles");
+    private static final OperationMetrics GET_PARENT_ROLES_METRICS = Metrics.dao("RoleDAO.getParentRoles");
+    private static final OperationMetrics ADD_ROLE_PARENT_METRICS = Metrics.dao("RoleDAO.addRoleParent");
+    private static final OperationMetrics REMOVE_ROLE_PARENT_METRICS = Metrics.dao("RoleDAO.removeRoleParent");
+    private static final OperationMetrics GET_EFFECTIVE_ROLES_METRICS = Metrics.dao("RoleDAO.getEffectiveRoles");
+    private static final long[] NO_ROLES = new long[0];
     
     // Consultas SQL como constantes
     private static final String SQL_GET_ALL_ROLES = "SELECT * FROM roles ORDER BY role_id";
     private static final String SQL_GET_ROLE_BY_ID = "SELECT * FROM roles WHERE role_id = ?";
-    private static final String SQL_GET_ROLE_BY_NAME = "SELECT * FROM roles WHERE role_name = ?";
     private static final String SQL_CREATE_ROLE = "INSERT INTO roles (role_name, description) VALUES (?, ?)";
+    private static final String[] SQL_CREATE_ROLE_RETURNING = { "role_id", "role_name", "description", "created_at", "updated_at" };
     private static final String SQL_UPDATE_ROLE = "UPDATE roles SET role_name = ?, description = ? WHERE role_id = ?";
     private static final String SQL_DELETE_USER_ROLES = "DELETE FROM user_roles WHERE role_id = ?";
+    private static final String SQL_DELETE_ROLE_PARENTS = "DELETE FROM role_parents WHERE role_id = ? OR parent_role_id = ?";
     private static final String SQL_DELETE_ROLE = "DELETE FROM roles WHERE role_id = ?";
-    private static final String SQL_GET_USERS_BY_ROLE = "SELECT u.* FROM users u JOIN user_roles ur ON u.user_id = ur.user_id WHERE ur.role_id = ?";
+    private static final String SQL_ADD_ROLE_PARENT = "INSERT INTO role_parents (role_id, parent_role_id) VALUES (?, ?)";
+    private static final String SQL_REMOVE_ROLE_PARENT = "DELETE FROM role_parents WHERE role_id = ? AND parent_role_id = ?";
+    // Se recorre user_roles por el índice (role_id, user_id) y se une con users por clave primaria
+    private static final String SQL_GET_USERS_BY_ROLE = "SELECT u.* FROM user_roles ur JOIN users u ON u.user_id = ur.user_id WHERE ur.role_id = ?";
+    private static final String SQL_GET_USERS_BY_ROLE_AFTER = "SELECT u.* FROM user_roles ur JOIN users u ON u.user_id = ur.user_id " +
+            "WHERE ur.role_id = ? AND ur.user_id > ? ORDER BY ur.role_id, ur.user_id FETCH FIRST ? ROWS ONLY";
+    // SQL de streamUsersByRoleIdAfter por combinación de campos pedida
+    private static final ConcurrentMap<UserFields, String> USERS_BY_ROLE_AFTER_SQL = new ConcurrentHashMap<>();
+
+    private final DaoContext context;
+    private final DataSource dataSource;
+    private final RoleCatalog catalog;
+    private final RoleHierarchy hierarchy;
+    private final UserCache userCache;
+    private final UserRoleIndex userRoleIndex;
+    private final SingleFlight<Long, List<User>> usersByRoleFlight;
+
+    public RoleDAO() {
+        this(DaoContext.getDefault());
+    }
+
+    public RoleDAO(DaoContext context) {
+        this.context = context;
+        this.dataSource = context.getDataSource();
+        this.catalog = context.getRoleCatalog();
+        this.hierarchy = context.getRoleHierarchy();
+        this.userCache = context.getUserCache();
+        this.userRoleIndex = context.getUserRoleIndex();
+        this.usersByRoleFlight = context.getUsersByRoleFlight();
+    }
     
     public List<Role> getAllRoles() throws SQLException {
-        List<Role> roles = new ArrayList<>();
-        
-        try (Connection connection = DatabaseConnection.getInstance().getConnection();
-             Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(SQL_GET_ALL_ROLES)) {
-            
-            while (rs.next()) {
-                roles.add(mapResultSetToRole(rs));
+        return GET_ALL_ROLES_METRICS.time(() -> {
+            return new ArrayList<>(catalog().all);
+        });
+    }
+
+    /**
+     * Entrega cada rol del catálogo al consumidor, ordenados por ID.
+     */
+    public int streamAllRoles(Consumer<? super Role> consumer) throws SQLException {
+        return STREAM_ALL_ROLES_METRICS.time(() -> {
+            List<Role> roles = catalog().all;
+            for (Role role : roles) {
+                consumer.accept(role);
             }
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Error al obtener todos los roles", e);
-            throw e;
-        }
-        
-        return roles;
+            return roles.size();
+        });
+    }
+
+    /**
+     * Versión de datos del contexto; ver {@link DaoContext#getDataVersion()}.
+     */
+    public long getDataVersion() {
+        return context.getDataVersion();
+    }
+
+    /**
+     * Versión del contenido de la tabla de roles, que cambia con cualquier alta,
+     * modificación o baja. Se sirve desde el catálogo.
+     */
+    public long getRolesVersion() throws SQLException {
+        return GET_ROLES_VERSION_METRICS.time(() -> {
+            return catalog().version;
+        });
     }
 
     public Role getRoleById(long roleId) throws SQLException {
-        try (Connection connection = DatabaseConnection.getInstance().getConnection();
-             PreparedStatement pstmt = connection.prepareStatement(SQL_GET_ROLE_BY_ID)) {
-            pstmt.setLong(1, roleId);
-            
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return mapResultSetToRole(rs);
-                }
-            }
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Error al obtener rol por ID: " + roleId, e);
-            throw e;
-        }
-        
-        return null;
+        return GET_ROLE_BY_ID_METRICS.time(() -> {
+            return catalog().byId.get(roleId);
+        });
     }
 
     public Role getRoleByName(String roleName) throws SQLException {
-        try (Connection connection = DatabaseConnection.getInstance().getConnection();
-             PreparedStatement pstmt = connection.prepareStatement(SQL_GET_ROLE_BY_NAME)) {
-            pstmt.setString(1, roleName);
-            
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return mapResultSetToRole(rs);
-                }
-            }
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Error al obtener rol por nombre: " + roleName, e);
-            throw e;
-        }
-        
-        return null;
+        return GET_ROLE_BY_NAME_METRICS.time(() -> {
+            return catalog().byName.get(roleName);
+        });
+    }
+
+    /**
+     * Comprobación de existencia servida desde el catálogo, sin consultar la base de datos.
+     */
+    public boolean roleExists(long roleId) throws SQLException {
+        return ROLE_EXISTS_METRICS.time(() -> {
+            return catalog().byId.containsKey(roleId);
+        });
     }
 
     public Role createRole(Role role) throws SQLException {
-        try (Connection connection = DatabaseConnection.getInstance().getConnection();
-             PreparedStatement pstmt = connection.prepareStatement(SQL_CREATE_ROLE, Statement.RETURN_GENERATED_KEYS)) {
-            
-            pstmt.setString(1, role.getRoleName());
-            pstmt.setString(2, role.getDescription());
+        return context.write(CREATE_ROLE_METRICS, () -> {
+            SqlDialect dialect = context.getDialect();
+
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement pstmt = dialect.prepareInsertReturning(connection, SQL_CREATE_ROLE,
+                         SQL_CREATE_ROLE_RETURNING)) {
             
-            int rowsAffected = pstmt.executeUpdate();
+                pstmt.setString(1, role.getRoleName());
+                pstmt.setString(2, role.getDescription());
             
-            if (rowsAffected > 0) {
-                try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                // El INSERT devuelve la fila completa, que se registra en el catálogo
+                try (ResultSet rs = dialect.executeInsertReturning(pstmt)) {
                     if (rs.next()) {
-                        long roleId = rs.getLong(1);
-                        role.setRoleId(roleId);
-                        
-                        // Recuperar el rol completo con timestamps
-                        Role completeRole = getRoleById(roleId);
-                        if (completeRole != null) {
-                            role.setCreatedAt(completeRole.getCreatedAt());
-                            role.setUpdatedAt(completeRole.getUpdatedAt());
-                        }
-                        
+                        Role created = new Role(rs.getLong(1), rs.getString(2), rs.getString(3),
+                                rs.getTimestamp(4), rs.getTimestamp(5));
+                        catalog.put(created);
+                    
+                        role.setRoleId(created.getRoleId());
+                        role.setCreatedAt(created.getCreatedAt());
+                        role.setUpdatedAt(created.getUpdatedAt());
                         return role;
                     }
                 }
+            } catch (SQLException e) {
+                LOGGER.log(Level.SEVERE, "Error al crear un rol", e);
+                throw e;
             }
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Error al crear un rol", e);
-            throw e;
-        }
         
-        return null;
+            return null;
+        });
     }
 
     public boolean updateRole(Role role) throws SQLException {
-        try (Connection connection = DatabaseConnection.getInstance().getConnection();
-             PreparedStatement pstmt = connection.prepareStatement(SQL_UPDATE_ROLE)) {
+        return context.write(UPDATE_ROLE_METRICS, () -> {
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement pstmt = connection.prepareStatement(SQL_UPDATE_ROLE)) {
             
-            pstmt.setString(1, role.getRoleName());
-            pstmt.setString(2, role.getDescription());
-            pstmt.setLong(3, role.getRoleId());
+                pstmt.setString(1, role.getRoleName());
+                pstmt.setString(2, role.getDescription());
+                pstmt.setLong(3, role.getRoleId());
             
-            return pstmt.executeUpdate() > 0;
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Error al actualizar rol ID: " + role.getRoleId(), e);
-            throw e;
-        }
+                boolean updated = pstmt.executeUpdate() > 0;
+                refreshCatalogEntry(connection, role.getRoleId());
+                userCache.invalidateRole(role.getRoleId());
+                return updated;
+            } catch (SQLException e) {
+                LOGGER.log(Level.SEVERE, "Error al actualizar rol ID: " + role.getRoleId(), e);
+                throw e;
+            }
+        });
     }
 
     public boolean deleteRole(long roleId) throws SQLException {
-        try (Connection connection = DatabaseConnection.getInstance().getConnection()) {
-            connection.setAutoCommit(false);
+        return context.write(DELETE_ROLE_METRICS, () -> {
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(false);
             
-            try {
-                // Eliminar referencias en user_roles
-                try (PreparedStatement pstmt = connection.prepareStatement(SQL_DELETE_USER_ROLES)) {
-                    pstmt.setLong(1, roleId);
-                    pstmt.executeUpdate();
-                }
+                try {
+                    // Eliminar referencias en user_roles
+                    long version = 0;
+                    try (PreparedStatement pstmt = connection.prepareStatement(SQL_DELETE_USER_ROLES)) {
+                        pstmt.setLong(1, roleId);
+                        if (pstmt.executeUpdate() > 0) {
+                            version = UserRoleIndex.nextVersion(connection);
+                        }
+                    }
                 
-                // Eliminar el rol
-                try (PreparedStatement pstmt = connection.prepareStatement(SQL_DELETE_ROLE)) {
-                    pstmt.setLong(1, roleId);
-                    int rowsAffected = pstmt.executeUpdate();
+                    // Eliminar sus relaciones de herencia, como hijo y como padre
+                    try (PreparedStatement pstmt = connection.prepareStatement(SQL_DELETE_ROLE_PARENTS)) {
+                        pstmt.setLong(1, roleId);
+                        pstmt.setLong(2, roleId);
+                        pstmt.executeUpdate();
+                    }
+                
+                    // Eliminar el rol
+                    try (PreparedStatement pstmt = connection.prepareStatement(SQL_DELETE_ROLE)) {
+                        pstmt.setLong(1, roleId);
+                        int rowsAffected = pstmt.executeUpdate();
                     
-                    connection.commit();
-                    return rowsAffected > 0;
+                        connection.commit();
+                        catalog.remove(roleId);
+                        userCache.invalidateRole(roleId);
+                        userRoleIndex.removeRole(roleId);
+                        userRoleIndex.written(version);
+                        hierarchy.removeRole(roleId);
+                        return rowsAffected > 0;
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    LOGGER.log(Level.SEVERE, "Error al eliminar rol ID: " + roleId, e);
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
                 }
-            } catch (SQLException e) {
-                connection.rollback();
-                LOGGER.log(Level.SEVERE, "Error al eliminar rol ID: " + roleId, e);
-                throw e;
-            } finally {
-                connection.setAutoCommit(true);
             }
-        }
+        });
     }
 
+    /**
+     * Todos los usuarios de un rol. Las llamadas concurrentes para el mismo rol
+     * comparten una sola consulta; cada llamante recibe su propia lista, pero los
+     * objetos User son compartidos y no deben modificarse.
+     */
     public List<User> getUsersByRoleId(long roleId) throws SQLException {
+        return GET_USERS_BY_ROLE_ID_METRICS.time(() -> {
+            return new ArrayList<>(usersByRoleFlight.execute(roleId, context.getDataVersion(),
+                    () -> loadUsersByRoleId(roleId)));
+        });
+    }
+
+    private List<User> loadUsersByRoleId(long roleId) throws SQLException {
         List<User> users = new ArrayList<>();
         
-        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+        try (Connection connection = dataSource.getConnection();
              PreparedStatement pstmt = connection.prepareStatement(SQL_GET_USERS_BY_ROLE)) {
             
             pstmt.setLong(1, roleId);
@@ -176,6 +271,260 @@ public class RoleDAO {
         return users;
     }
 
+    // Página de usuarios del rol con ID mayor que lastId (paginación keyset)
+    public List<User> getUsersByRoleIdAfter(long roleId, long lastId, int limit) throws SQLException {
+        return GET_USERS_BY_ROLE_ID_AFTER_METRICS.time(() -> {
+            List<User> users = new ArrayList<>();
+            streamUsersByRoleIdAfter(roleId, lastId, limit, users::add);
+            return users;
+        });
+    }
+
+    /**
+     * Igual que getUsersByRoleIdAfter, pero entrega cada usuario al consumidor a
+     * medida que se lee del ResultSet.
+     */
+    public int streamUsersByRoleIdAfter(long roleId, long lastId, int limit, Consumer<? super User> consumer)
+            throws SQLException {
+        return streamUsersByRoleIdAfter(roleId, lastId, limit, UserFields.ALL, consumer);
+    }
+
+    /**
+     * Igual que streamUsersByRoleIdAfter, pero consultando y mapeando solo las
+     * columnas de users indicadas. Los roles de cada usuario no se cargan aquí. Si
+     * solo se pide userId la página sale del índice en memoria, sin consultas.
+     */
+    public int streamUsersByRoleIdAfter(long roleId, long lastId, int limit, UserFields fields,
+            Consumer<? super User> consumer) throws SQLException {
+        return STREAM_USERS_BY_ROLE_ID_AFTER_METRICS.time(() -> {
+            if (fields.isUserIdOnly()) {
+                UserRoleIndex.Members members = members(new long[] { roleId }, NO_ROLES, NO_ROLES, lastId, limit);
+                for (int userId : members.userIds) {
+                    User user = new User();
+                    user.setUserId((long) userId);
+                    consumer.accept(user);
+                }
+                return members.userIds.length;
+            }
+
+            int count = 0;
+            String query = fields.equals(UserFields.ALL)
+                    ? SQL_GET_USERS_BY_ROLE_AFTER
+                    : USERS_BY_ROLE_AFTER_SQL.computeIfAbsent(fields, RoleDAO::usersByRoleAfterSql);
+        
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement pstmt = connection.prepareStatement(query)) {
+            
+                pstmt.setLong(1, roleId);
+                pstmt.setLong(2, lastId);
+                pstmt.setInt(3, limit);
+                pstmt.setFetchSize(Math.min(limit, 500));
+            
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        consumer.accept(fields.mapUser(rs));
+                        count++;
+                    }
+                }
+            } catch (SQLException e) {
+                LOGGER.log(Level.SEVERE, "Error al obtener usuarios para rol ID: " + roleId + " después del ID: " + lastId, e);
+                throw e;
+            }
+        
+            return count;
+        });
+    }
+
+    /**
+     * Número de usuarios con el rol, desde el índice en memoria de user_roles.
+     */
+    public long countUsersByRoleId(long roleId) throws SQLException {
+        return COUNT_USERS_BY_ROLE_ID_METRICS.time(() -> {
+            return members(new long[] { roleId }, NO_ROLES, NO_ROLES, 0, 0).count;
+        });
+    }
+
+    /**
+     * Usuarios que tienen todos los roles de {@code all}, alguno de {@code any} (si
+     * se indica) y ninguno de {@code none}, resueltos con los bitmaps del índice en
+     * memoria. Devuelve el total y una página de IDs mayores que {@code lastId}.
+     *
+     * @throws IllegalArgumentException si all y any están vacíos
+     */
+    public UserIdPage queryUsersByRoles(long[] all, long[] any, long[] none, long lastId, int limit)
+            throws SQLException {
+        return QUERY_USERS_BY_ROLES_METRICS.time(() -> {
+            UserRoleIndex.Members members = members(all, any, none, lastId, limit + 1);
+            List<Long> rows = new ArrayList<>(members.userIds.length);
+            for (int userId : members.userIds) {
+                rows.add((long) userId);
+            }
+            Page<Long> page = Pagination.toPage(rows, limit, Long::longValue);
+            return new UserIdPage(members.count, new ArrayList<>(page.getItems()), page.getNext());
+        });
+    }
+
+    private UserRoleIndex.Members members(long[] all, long[] any, long[] none, long lastId, int limit)
+            throws SQLException {
+        return userRoleIndex.members(dataSource, all, any, none, lastId, limit);
+    }
+
+    /**
+     * Roles de los que hereda un rol: solo los padres directos o, con
+     * {@code transitive}, todos sus ascendientes. Se sirve desde la jerarquía en
+     * memoria, ordenado por ID.
+     */
+    public List<Role> getParentRoles(long roleId, boolean transitive) throws SQLException {
+        return GET_PARENT_ROLES_METRICS.time(() -> {
+            RoleHierarchy.Snapshot current = hierarchy();
+            return toRoles(transitive ? current.ancestorsOf(roleId) : current.parentsOf(roleId));
+        });
+    }
+
+    /**
+     * Hace que roleId herede de parentId. Ambos roles deben existir.
+     *
+     * @return false si la relación ya existía
+     * @throws IllegalArgumentException si la relación crearía un ciclo
+     */
+    public boolean addRoleParent(long roleId, long parentId) throws SQLException {
+        return context.write(ADD_ROLE_PARENT_METRICS, () -> {
+            if (roleId == parentId) {
+                throw new IllegalArgumentException("Un rol no puede heredar de sí mismo");
+            }
+            // Comprobación e inserción bajo el monitor de la jerarquía, para que dos
+            // altas concurrentes no cierren un ciclo entre las dos
+            synchronized (hierarchy) {
+                RoleHierarchy.Snapshot current = hierarchy();
+                if (current.isParent(roleId, parentId)) {
+                    return false;
+                }
+                if (current.inherits(parentId, roleId)) {
+                    throw new IllegalArgumentException("El rol " + parentId + " ya hereda del rol " + roleId
+                            + ": la relación crearía un ciclo");
+                }
+                
+                try (Connection connection = dataSource.getConnection();
+                     PreparedStatement pstmt = connection.prepareStatement(SQL_ADD_ROLE_PARENT)) {
+                    pstmt.setLong(1, roleId);
+                    pstmt.setLong(2, parentId);
+                    pstmt.executeUpdate();
+                } catch (SQLException e) {
+                    LOGGER.log(Level.SEVERE, "Error al añadir el rol padre " + parentId + " al rol " + roleId, e);
+                    throw e;
+                }
+                hierarchy.addParent(roleId, parentId);
+                return true;
+            }
+        });
+    }
+
+    public boolean removeRoleParent(long roleId, long parentId) throws SQLException {
+        return context.write(REMOVE_ROLE_PARENT_METRICS, () -> {
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement pstmt = connection.prepareStatement(SQL_REMOVE_ROLE_PARENT)) {
+                pstmt.setLong(1, roleId);
+                pstmt.setLong(2, parentId);
+                
+                int rowsAffected = pstmt.executeUpdate();
+                hierarchy.removeParent(roleId, parentId);
+                return rowsAffected > 0;
+            } catch (SQLException e) {
+                LOGGER.log(Level.SEVERE, "Error al quitar el rol padre " + parentId + " del rol " + roleId, e);
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Roles efectivos de un usuario: los asignados y todos los que estos heredan,
+     * ordenados por ID. Se resuelve con el índice de user_roles y el cierre de la
+     * jerarquía en memoria, sin consultas recursivas.
+     */
+    public List<Role> getEffectiveRoles(long userId) throws SQLException {
+        return GET_EFFECTIVE_ROLES_METRICS.time(() -> {
+            int[] assigned = userRoleIndex.assignedRoles(dataSource, userId);
+            return toRoles(hierarchy().expand(assigned));
+        });
+    }
+
+    private List<Role> toRoles(long[] roleIds) throws SQLException {
+        RoleCatalog.Snapshot roles = catalog();
+        List<Role> result = new ArrayList<>(roleIds.length);
+        for (long roleId : roleIds) {
+            Role role = roles.byId.get(roleId);
+            if (role != null) {
+                result.add(role);
+            }
+        }
+        return result;
+    }
+
+    private static String usersByRoleAfterSql(UserFields fields) {
+        return "SELECT " + fields.userColumns("u") + " FROM user_roles ur JOIN users u ON u.user_id = ur.user_id " +
+                "WHERE ur.role_id = ? AND ur.user_id > ? ORDER BY ur.role_id, ur.user_id FETCH FIRST ? ROWS ONLY";
+    }
+
+    /**
+     * Catálogo vigente; si no está cargado o ha caducado se carga con una sola consulta.
+     */
+    private RoleCatalog.Snapshot catalog() throws SQLException {
+        RoleCatalog.Snapshot snapshot = catalog.current();
+        if (snapshot != null) {
+            return snapshot;
+        }
+        
+        synchronized (catalog) {
+            snapshot = catalog.current();
+            if (snapshot != null) {
+                return snapshot;
+            }
+            
+            List<Role> roles = new ArrayList<>();
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(SQL_GET_ALL_ROLES);
+                 ResultSet rs = stmt.executeQuery()) {
+                
+                while (rs.next()) {
+                    roles.add(mapResultSetToRole(rs));
+                }
+            } catch (SQLException e) {
+                LOGGER.log(Level.SEVERE, "Error al cargar el catálogo de roles", e);
+                throw e;
+            }
+            
+            catalog.load(roles);
+            return catalog.current();
+        }
+    }
+
+    private RoleHierarchy.Snapshot hierarchy() throws SQLException {
+        return hierarchy.ensureLoaded(dataSource);
+    }
+
+    /**
+     * Relee un rol de la base de datos y actualiza (o elimina) su entrada en el
+     * catálogo. Se hace bajo el monitor del catálogo para que una carga completa
+     * concurrente o dos escrituras seguidas no dejen una versión antigua.
+     */
+    private Role refreshCatalogEntry(Connection connection, long roleId) throws SQLException {
+        synchronized (catalog) {
+            try (PreparedStatement pstmt = connection.prepareStatement(SQL_GET_ROLE_BY_ID)) {
+                pstmt.setLong(1, roleId);
+                
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        Role role = mapResultSetToRole(rs);
+                        catalog.put(role);
+                        return role;
+                    }
+                }
+            }
+            catalog.remove(roleId);
+            return null;
+        }
+    }
+
     private Role mapResultSetToRole(ResultSet rs) throws SQLException {
         return new Role(
                 rs.getLong("role_id"),
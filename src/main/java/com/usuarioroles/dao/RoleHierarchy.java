@@ -0,0 +1,343 @@
+package com.usuarioroles.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * Jerarquía de roles (tabla role_parents) con su cierre transitivo precalculado.
+ *
+ * Para cada rol se guardan sus padres directos, todos sus ascendientes (los roles
+ * que hereda) y todos sus descendientes (los roles que lo heredan), como arrays
+ * ordenados. Así los roles efectivos de un usuario se obtienen uniendo los
+ * ascendientes de sus roles directos, sin consultas recursivas.
+ *
+ * Igual que {@link RoleCatalog}, las lecturas trabajan sobre una instantánea
+ * inmutable sin bloqueos, que se carga de forma perezosa con una única consulta
+ * (ver {@link #ensureLoaded(DataSource)}), tanto para RoleDAO como para las
+ * comprobaciones de roles de UserDAO. Las escrituras mantienen el cierre de forma incremental: al añadir una
+ * relación solo cambian los descendientes del hijo y los ascendientes del padre;
+ * al quitarla se recalculan los ascendientes del hijo y de sus descendientes. La
+ * carga y las actualizaciones se serializan en el monitor de la jerarquía y las
+ * actualizaciones son idempotentes, así que una escritura confirmada durante la
+ * carga no se pierde. Como otras instancias de la función pueden modificar la
+ * tabla, la instantánea caduca tras un TTL.
+ */
+public class RoleHierarchy {
+    private static final Logger LOGGER = Logger.getLogger(RoleHierarchy.class.getName());
+    private static final String SQL_GET_ROLE_PARENTS = "SELECT role_id, parent_role_id FROM role_parents";
+    private static final long[] NONE = new long[0];
+
+    private final long ttlNanos;
+    private volatile Snapshot snapshot;
+
+    public RoleHierarchy(long ttlMillis) {
+        this.ttlNanos = ttlMillis * 1_000_000L;
+    }
+
+    /**
+     * Instantánea vigente, o null si no se ha cargado o ha caducado.
+     */
+    Snapshot current() {
+        Snapshot current = snapshot;
+        if (current == null || System.nanoTime() - current.loadedAt > ttlNanos) {
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * Jerarquía vigente; si no está cargada o ha caducado se carga con una sola
+     * consulta, bajo el monitor de la jerarquía.
+     */
+    Snapshot ensureLoaded(DataSource dataSource) throws SQLException {
+        Snapshot current = current();
+        if (current != null) {
+            return current;
+        }
+
+        synchronized (this) {
+            current = current();
+            if (current != null) {
+                return current;
+            }
+
+            List<long[]> edges = new ArrayList<>();
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(SQL_GET_ROLE_PARENTS);
+                 ResultSet rs = stmt.executeQuery()) {
+
+                while (rs.next()) {
+                    edges.add(new long[] { rs.getLong(1), rs.getLong(2) });
+                }
+            } catch (SQLException e) {
+                LOGGER.log(Level.SEVERE, "Error al cargar la jerarquía de roles", e);
+                throw e;
+            }
+
+            load(edges);
+            return current();
+        }
+    }
+
+    /**
+     * Carga la jerarquía completa a partir de pares (role_id, parent_role_id).
+     */
+    synchronized void load(List<long[]> edges) {
+        Map<Long, long[]> parents = new HashMap<>();
+        for (long[] edge : edges) {
+            parents.put(edge[0], union(parents.getOrDefault(edge[0], NONE), new long[] { edge[1] }));
+        }
+        Map<Long, long[]> ancestors = new HashMap<>();
+        for (Long roleId : parents.keySet()) {
+            ancestors.put(roleId, reachable(parents, roleId));
+        }
+        Map<Long, long[]> descendants = new HashMap<>();
+        for (Map.Entry<Long, long[]> entry : ancestors.entrySet()) {
+            for (long ancestor : entry.getValue()) {
+                descendants.put(ancestor, union(descendants.getOrDefault(ancestor, NONE),
+                        new long[] { entry.getKey() }));
+            }
+        }
+        snapshot = new Snapshot(parents, ancestors, descendants, System.nanoTime());
+    }
+
+    /**
+     * Registra que roleId hereda de parentId. Si la jerarquía no está cargada no
+     * hace nada: la próxima lectura la cargará completa desde la base de datos. Si la
+     * relación cerrase un ciclo (otra instancia ha cambiado la tabla) se descarta la
+     * instantánea.
+     */
+    synchronized void addParent(long roleId, long parentId) {
+        Snapshot current = snapshot;
+        if (current == null || current.isParent(roleId, parentId)) {
+            return;
+        }
+        if (roleId == parentId || current.inherits(parentId, roleId)) {
+            snapshot = null;
+            return;
+        }
+        Map<Long, long[]> parents = new HashMap<>(current.parents);
+        Map<Long, long[]> ancestors = new HashMap<>(current.ancestors);
+        Map<Long, long[]> descendants = new HashMap<>(current.descendants);
+        parents.put(roleId, union(current.parentsOf(roleId), new long[] { parentId }));
+
+        // Todo lo que está por debajo del hijo hereda todo lo que está por encima del padre
+        long[] up = union(current.ancestorsOf(parentId), new long[] { parentId });
+        long[] down = union(current.descendantsOf(roleId), new long[] { roleId });
+        for (long role : down) {
+            ancestors.put(role, union(ancestors.getOrDefault(role, NONE), up));
+        }
+        for (long role : up) {
+            descendants.put(role, union(descendants.getOrDefault(role, NONE), down));
+        }
+        snapshot = new Snapshot(parents, ancestors, descendants, current.loadedAt);
+    }
+
+    synchronized void removeParent(long roleId, long parentId) {
+        Snapshot current = snapshot;
+        if (current == null || !current.isParent(roleId, parentId)) {
+            return;
+        }
+        Map<Long, long[]> parents = new HashMap<>(current.parents);
+        Map<Long, long[]> ancestors = new HashMap<>(current.ancestors);
+        Map<Long, long[]> descendants = new HashMap<>(current.descendants);
+        unlink(parents, ancestors, descendants, roleId, parentId);
+        snapshot = new Snapshot(parents, ancestors, descendants, current.loadedAt);
+    }
+
+    /**
+     * Quita un rol borrado y todas sus relaciones.
+     */
+    synchronized void removeRole(long roleId) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+        Map<Long, long[]> parents = new HashMap<>(current.parents);
+        Map<Long, long[]> ancestors = new HashMap<>(current.ancestors);
+        Map<Long, long[]> descendants = new HashMap<>(current.descendants);
+        for (long child : current.descendantsOf(roleId)) {
+            if (current.isParent(child, roleId)) {
+                unlink(parents, ancestors, descendants, child, roleId);
+            }
+        }
+        for (long parent : current.parentsOf(roleId)) {
+            unlink(parents, ancestors, descendants, roleId, parent);
+        }
+        snapshot = new Snapshot(parents, ancestors, descendants, current.loadedAt);
+    }
+
+    public synchronized void invalidate() {
+        snapshot = null;
+    }
+
+    /**
+     * Quita la relación roleId → parentId y recalcula los ascendientes de roleId y
+     * de sus descendientes, que son los únicos cuyos caminos podían pasar por ella.
+     */
+    private static void unlink(Map<Long, long[]> parents, Map<Long, long[]> ancestors,
+            Map<Long, long[]> descendants, long roleId, long parentId) {
+        put(parents, roleId, minus(parents.getOrDefault(roleId, NONE), new long[] { parentId }));
+
+        long[] affected = union(descendants.getOrDefault(roleId, NONE), new long[] { roleId });
+        for (long role : affected) {
+            long[] before = ancestors.getOrDefault(role, NONE);
+            long[] after = reachable(parents, role);
+            for (long lost : minus(before, after)) {
+                put(descendants, lost, minus(descendants.getOrDefault(lost, NONE), new long[] { role }));
+            }
+            put(ancestors, role, after);
+        }
+    }
+
+    /**
+     * Roles alcanzables desde roleId siguiendo padres, sin incluirlo (aunque un
+     * ciclo creado desde otra instancia lo haga alcanzable).
+     */
+    private static long[] reachable(Map<Long, long[]> parents, long roleId) {
+        Set<Long> seen = new HashSet<>();
+        Deque<Long> queue = new ArrayDeque<>();
+        queue.add(roleId);
+        while (!queue.isEmpty()) {
+            for (long parent : parents.getOrDefault(queue.poll(), NONE)) {
+                if (parent != roleId && seen.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
+        long[] result = new long[seen.size()];
+        int i = 0;
+        for (Long role : seen) {
+            result[i++] = role;
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static void put(Map<Long, long[]> map, long roleId, long[] values) {
+        if (values.length == 0) {
+            map.remove(roleId);
+        } else {
+            map.put(roleId, values);
+        }
+    }
+
+    /**
+     * Unión de dos arrays ordenados sin repetidos.
+     */
+    static long[] union(long[] a, long[] b) {
+        long[] result = new long[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[n++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[n++] = b[j++];
+            } else {
+                result[n++] = a[i++];
+                j++;
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Elementos de {@code a} que no están en {@code b} (ambos ordenados).
+     */
+    static long[] minus(long[] a, long[] b) {
+        long[] result = new long[a.length];
+        int n = 0;
+        for (long value : a) {
+            if (Arrays.binarySearch(b, value) < 0) {
+                result[n++] = value;
+            }
+        }
+        return n == result.length ? a : Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Estado inmutable de la jerarquía. Los arrays devueltos son compartidos y no
+     * deben modificarse.
+     */
+    static final class Snapshot {
+        final Map<Long, long[]> parents;
+        final Map<Long, long[]> ancestors;
+        final Map<Long, long[]> descendants;
+        final long loadedAt;
+
+        Snapshot(Map<Long, long[]> parents, Map<Long, long[]> ancestors, Map<Long, long[]> descendants,
+                long loadedAt) {
+            this.parents = Collections.unmodifiableMap(parents);
+            this.ancestors = Collections.unmodifiableMap(ancestors);
+            this.descendants = Collections.unmodifiableMap(descendants);
+            this.loadedAt = loadedAt;
+        }
+
+        long[] parentsOf(long roleId) {
+            return parents.getOrDefault(roleId, NONE);
+        }
+
+        /**
+         * Roles que hereda roleId, directa o indirectamente, en orden ascendente.
+         */
+        long[] ancestorsOf(long roleId) {
+            return ancestors.getOrDefault(roleId, NONE);
+        }
+
+        long[] descendantsOf(long roleId) {
+            return descendants.getOrDefault(roleId, NONE);
+        }
+
+        boolean isParent(long roleId, long parentId) {
+            return Arrays.binarySearch(parentsOf(roleId), parentId) >= 0;
+        }
+
+        /**
+         * true si roleId hereda de ancestorId (directa o indirectamente).
+         */
+        boolean inherits(long roleId, long ancestorId) {
+            return Arrays.binarySearch(ancestorsOf(roleId), ancestorId) >= 0;
+        }
+
+        /**
+         * Roles efectivos a partir de unos roles asignados: ellos mismos y todos sus
+         * ascendientes, en orden ascendente y sin repetidos.
+         */
+        long[] expand(int[] roleIds) {
+            long[] result = NONE;
+            for (int roleId : roleIds) {
+                result = union(result, union(new long[] { roleId }, ancestorsOf(roleId)));
+            }
+            return result;
+        }
+
+        /**
+         * true si alguno de los roles asignados es roleId o lo hereda, sin
+         * construir el conjunto de roles efectivos.
+         */
+        boolean grants(int[] roleIds, long roleId) {
+            for (int assigned : roleIds) {
+                if (assigned == roleId || inherits(assigned, roleId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.usuarioroles.dao;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * Diferencias de SQL entre las bases de datos soportadas.
+ *
+ * Se elige una vez por DaoContext a partir de DatabaseMetaData. La
+ * implementación base usa el mecanismo estándar de JDBC para recuperar columnas
+ * de la fila insertada (getGeneratedKeys con nombres de columna).
+ */
+public class SqlDialect {
+    private static final Logger LOGGER = Logger.getLogger(SqlDialect.class.getName());
+
+    static final SqlDialect STANDARD = new SqlDialect("Standard");
+
+    private final String name;
+
+    protected SqlDialect(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Dialecto de la base de datos del DataSource.
+     */
+    public static SqlDialect detect(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            DatabaseMetaData meta = connection.getMetaData();
+            SqlDialect dialect = forProductName(meta.getDatabaseProductName());
+            LOGGER.log(Level.INFO, "Dialecto SQL: " + dialect.getName() + " ("
+                    + meta.getDatabaseProductName() + " " + meta.getDatabaseProductVersion() + ")");
+            return dialect;
+        }
+    }
+
+    static SqlDialect forProductName(String productName) {
+        String product = productName == null ? "" : productName.toLowerCase();
+        if (product.contains("h2")) {
+            return new H2Dialect();
+        }
+        if (product.contains("oracle")) {
+            return new OracleDialect();
+        }
+        return STANDARD;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Prepara {@code insertSql} (un INSERT de una fila) para que devuelva las
+     * columnas {@code returning} de la fila insertada, en ese orden.
+     */
+    public PreparedStatement prepareInsertReturning(Connection connection, String insertSql, String... returning)
+            throws SQLException {
+        return connection.prepareStatement(insertSql, returning);
+    }
+
+    /**
+     * Ejecuta una sentencia de {@link #prepareInsertReturning} y devuelve las
+     * columnas pedidas. El ResultSet debe cerrarse antes que la sentencia.
+     */
+    public ResultSet executeInsertReturning(PreparedStatement stmt) throws SQLException {
+        stmt.executeUpdate();
+        return stmt.getGeneratedKeys();
+    }
+}
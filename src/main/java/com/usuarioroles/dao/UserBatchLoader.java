@@ -0,0 +1,131 @@
+package com.usuarioroles.dao;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.usuarioroles.model.User;
+
+/**
+ * Agrupa las peticiones de usuarios por ID que llegan en una ventana corta
+ * (p. ej. 1-2 ms) o hasta reunir un número máximo de IDs, y las resuelve con una
+ * sola carga por lotes (ver {@link UserDAO#getUsersByIds(Collection)}), en lugar
+ * de una consulta por petición.
+ *
+ * La primera petición de un lote programa su envío al cumplirse la ventana; si
+ * antes se alcanza el máximo de IDs, el lote se envía en ese momento. Los IDs
+ * repetidos dentro de un lote comparten el mismo futuro. Las cargas se ejecutan
+ * en los hilos propios del cargador (hilos daemon), no en los de los llamantes.
+ */
+public class UserBatchLoader {
+    private static final Logger LOGGER = Logger.getLogger(UserBatchLoader.class.getName());
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    /**
+     * Carga por lotes: devuelve los usuarios encontrados por ID.
+     */
+    public interface BatchFunction {
+        Map<Long, User> load(Collection<Long> userIds) throws SQLException;
+    }
+
+    private final long windowNanos;
+    private final int maxKeys;
+    private final BatchFunction batchFunction;
+    private final ScheduledExecutorService executor;
+    // Lote abierto, protegido por el monitor del cargador; null si no hay ninguno
+    private Map<Long, CompletableFuture<User>> pending;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder keys = new LongAdder();
+
+    public UserBatchLoader(long windowMicros, int maxKeys, int threads, BatchFunction batchFunction) {
+        this.windowNanos = windowMicros * 1000L;
+        this.maxKeys = Math.max(1, maxKeys);
+        this.batchFunction = batchFunction;
+        this.executor = new ScheduledThreadPoolExecutor(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "user-batch-loader-" + THREADS.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Usuario con el ID indicado (null si no existe), cargado en el próximo lote.
+     */
+    public CompletableFuture<User> load(long userId) {
+        Map<Long, CompletableFuture<User>> full = null;
+        CompletableFuture<User> future;
+        synchronized (this) {
+            if (pending == null) {
+                Map<Long, CompletableFuture<User>> batch = new LinkedHashMap<>();
+                pending = batch;
+                executor.schedule(() -> flush(batch), windowNanos, TimeUnit.NANOSECONDS);
+            }
+            future = pending.computeIfAbsent(userId, id -> new CompletableFuture<>());
+            if (pending.size() >= maxKeys) {
+                full = pending;
+                pending = null;
+            }
+        }
+        if (full != null) {
+            Map<Long, CompletableFuture<User>> batch = full;
+            executor.execute(() -> dispatch(batch));
+        }
+        return future;
+    }
+
+    /**
+     * Envía el lote al cumplirse su ventana, salvo que ya se haya enviado por estar lleno.
+     */
+    private void flush(Map<Long, CompletableFuture<User>> batch) {
+        synchronized (this) {
+            if (pending != batch) {
+                return;
+            }
+            pending = null;
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(Map<Long, CompletableFuture<User>> batch) {
+        batches.increment();
+        keys.add(batch.size());
+        try {
+            Map<Long, User> users = batchFunction.load(batch.keySet());
+            for (Map.Entry<Long, CompletableFuture<User>> entry : batch.entrySet()) {
+                entry.getValue().complete(users.get(entry.getKey()));
+            }
+        } catch (SQLException | RuntimeException | Error e) {
+            LOGGER.log(Level.SEVERE, "Error al cargar un lote de " + batch.size() + " usuarios", e);
+            for (CompletableFuture<User> future : batch.values()) {
+                future.completeExceptionally(e);
+            }
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+        }
+    }
+
+    /**
+     * Lotes enviados a la base de datos.
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * IDs distintos cargados en todos los lotes.
+     */
+    public long getKeys() {
+        return keys.sum();
+    }
+}
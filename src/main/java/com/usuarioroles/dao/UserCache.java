@@ -0,0 +1,151 @@
+package com.usuarioroles.dao;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.usuarioroles.model.Role;
+import com.usuarioroles.model.User;
+
+/**
+ * Caché acotada de usuarios por ID, con expulsión LRU y caducidad (TTL).
+ *
+ * UserDAO la consulta en getUserById y la invalida en cada escritura que afecta a
+ * un usuario; RoleDAO invalida los usuarios que tienen un rol al modificarlo o
+ * eliminarlo. Para no guardar un usuario leído antes de una invalidación
+ * concurrente, el cargador toma un {@link #stamp()} antes de consultar y lo pasa
+ * a {@link #put(User, long)}.
+ *
+ * Los objetos User de la caché se comparten entre peticiones y no deben modificarse.
+ */
+public class UserCache {
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Map<Long, Entry> entries;
+    private long invalidations;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public UserCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                if (size() > UserCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized User get(long userId) {
+        Entry entry = entries.get(userId);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (System.nanoTime() - entry.loadedAt > ttlNanos) {
+            entries.remove(userId);
+            expirations.increment();
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.user;
+    }
+
+    /**
+     * Marca de tiempo lógica que debe tomarse antes de leer el usuario de la base de datos.
+     */
+    public synchronized long stamp() {
+        return invalidations;
+    }
+
+    /**
+     * Guarda el usuario si no ha habido ninguna invalidación desde {@code stamp}.
+     */
+    public synchronized void put(User user, long stamp) {
+        if (maxSize <= 0 || stamp != invalidations) {
+            return;
+        }
+        entries.put(user.getUserId(), new Entry(user, System.nanoTime()));
+    }
+
+    public synchronized void invalidate(long userId) {
+        invalidations++;
+        entries.remove(userId);
+    }
+
+    /**
+     * Invalida todos los usuarios en caché que tienen el rol indicado.
+     */
+    public synchronized void invalidateRole(long roleId) {
+        invalidations++;
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (hasRole(it.next().user, roleId)) {
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        invalidations++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    private static boolean hasRole(User user, long roleId) {
+        if (user.getRoles() == null) {
+            return false;
+        }
+        for (Role role : user.getRoles()) {
+            if (role.getRoleId() != null && role.getRoleId() == roleId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Entry {
+        final User user;
+        final long loadedAt;
+
+        Entry(User user, long loadedAt) {
+            this.user = user;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -2,57 +2,331 @@ package com.usuarioroles.dao;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.sql.DataSource;
+
+import com.usuarioroles.metrics.Metrics;
+import com.usuarioroles.metrics.OperationMetrics;
+import com.usuarioroles.model.BatchItemResult;
 import com.usuarioroles.model.Role;
+import com.usuarioroles.model.RoleCheck;
 import com.usuarioroles.model.User;
-import com.usuarioroles.util.DatabaseConnection;
+import com.usuarioroles.util.SingleFlight;
 
 public class UserDAO {
     private static final Logger LOGGER = Logger.getLogger(UserDAO.class.getName());
-    private final Connection connection;
+    private static final OperationMetrics GET_ALL_USERS_METRICS = Metrics.dao("UserDAO.getAllUsers");
+    private static final OperationMetrics GET_USERS_AFTER_METRICS = Metrics.dao("UserDAO.getUsersAfter");
+    private static final OperationMetrics STREAM_USERS_AFTER_METRICS = Metrics.dao("UserDAO.streamUsersAfter");
+    private static final OperationMetrics GET_USER_BY_ID_METRICS = Metrics.dao("UserDAO.getUserById");
+    private static final OperationMetrics GET_USERS_BY_IDS_METRICS = Metrics.dao("UserDAO.getUsersByIds");
+    private static final OperationMetrics GET_USER_BY_USERNAME_METRICS = Metrics.dao("UserDAO.getUserByUsername");
+    private static final OperationMetrics CREATE_USER_METRICS = Metrics.dao("UserDAO.createUser");
+    private static final OperationMetrics CREATE_USERS_METRICS = Metrics.dao("UserDAO.createUsers");
+    private static final OperationMetrics UPDATE_USER_METRICS = Metrics.dao("UserDAO.updateUser");
+    private static final OperationMetrics SET_USER_ROLES_METRICS = Metrics.dao("UserDAO.setUserRoles");
+    private static final OperationMetrics DELETE_USER_METRICS = Metrics.dao("UserDAO.deleteUser");
+    private static final OperationMetrics ASSIGN_ROLE_TO_USER_METRICS = Metrics.dao("UserDAO.assignRoleToUser");
+    private static final OperationMetrics REMOVE_ROLE_FROM_USER_METRICS = Metrics.dao("UserDAO.removeRoleFromUser");
+    private static final OperationMetrics HAS_ROLE_METRICS = Metrics.dao("UserDAO.hasRole");
+    private static final OperationMetrics CHECK_ROLES_METRICS = Metrics.dao("UserDAO.checkRoles");
+    private static final String SQL_INSERT_USER =
+            "INSERT INTO users (username, email, password_hash, first_name, last_name, active) " +
+            "VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String[] SQL_INSERT_USER_RETURNING = { "user_id", "created_at", "updated_at" };
+
+    private final DaoContext context;
+    private final DataSource dataSource;
+    private final UserCache userCache;
+    private final UserRoleIndex roleIndex;
+    private final RoleHierarchy hierarchy;
+    private final SingleFlight<Long, User> userByIdFlight;
+    private final SingleFlight<String, User> userByUsernameFlight;
 
     public UserDAO() {
-        this.connection = DatabaseConnection.getInstance().getConnection();
+        this(DaoContext.getDefault());
+    }
+
+    public UserDAO(DaoContext context) {
+        this.context = context;
+        this.dataSource = context.getDataSource();
+        this.userCache = context.getUserCache();
+        this.roleIndex = context.getUserRoleIndex();
+        this.hierarchy = context.getRoleHierarchy();
+        this.userByIdFlight = context.getUserByIdFlight();
+        this.userByUsernameFlight = context.getUserByUsernameFlight();
     }
 
+    // IDs por consulta en getUsersByIds; las listas IN se rellenan hasta la
+    // siguiente potencia de dos para reutilizar pocas sentencias distintas
+    private static final int IN_LIST_MAX = 512;
+
+    // SQL de streamUsersAfter por combinación de campos pedida
+    private static final ConcurrentMap<UserFields, String> STREAM_USERS_AFTER_SQL = new ConcurrentHashMap<>();
+
+    // Consulta base: usuarios con sus roles en una sola pasada (LEFT JOIN)
+    private static final String SQL_USERS_WITH_ROLES = "SELECT u.*, " +
+            "r.role_id AS r_role_id, r.role_name AS r_role_name, r.description AS r_description, " +
+            "r.created_at AS r_created_at, r.updated_at AS r_updated_at " +
+            "FROM users u " +
+            "LEFT JOIN user_roles ur ON u.user_id = ur.user_id " +
+            "LEFT JOIN roles r ON r.role_id = ur.role_id ";
+
     // Obtener todos los usuarios
     public List<User> getAllUsers() throws SQLException {
-        List<User> users = new ArrayList<>();
-        String query = "SELECT * FROM users ORDER BY user_id";
+        return GET_ALL_USERS_METRICS.time(() -> {
+            String query = SQL_USERS_WITH_ROLES + "ORDER BY u.user_id, r.role_id";
 
-        try (Statement stmt = connection.createStatement();
-                ResultSet rs = stmt.executeQuery(query)) {
+            try (Connection connection = dataSource.getConnection();
+                    PreparedStatement stmt = connection.prepareStatement(query);
+                    ResultSet rs = stmt.executeQuery()) {
 
-            while (rs.next()) {
-                User user = mapResultSetToUser(rs);
-                // Cargar roles para este usuario
-                user.setRoles(getUserRoles(user.getUserId()));
-                users.add(user);
+                return mapResultSetToUsersWithRoles(rs);
+            } catch (SQLException e) {
+                LOGGER.log(Level.SEVERE, "Error al obtener todos los usuarios", e);
+                throw e;
+            }
+        });
+    }
+
+    // Obtener una página de usuarios con ID mayor que lastId (paginación keyset)
+    public List<User> getUsersAfter(long lastId, int limit) throws SQLException {
+        return GET_USERS_AFTER_METRICS.time(() -> {
+            List<User> users = new ArrayList<>();
+            streamUsersAfter(lastId, limit, users::add);
+            return users;
+        });
+    }
+
+    /**
+     * Igual que getUsersAfter, pero entrega cada usuario (con sus roles) al consumidor
+     * en cuanto está completo, sin acumular la página en memoria.
+     *
+     * @return número de usuarios entregados
+     */
+    public int streamUsersAfter(long lastId, int limit, Consumer<? super User> consumer) throws SQLException {
+        return streamUsersAfter(lastId, limit, UserFields.ALL, consumer);
+    }
+
+    /**
+     * Igual que streamUsersAfter, pero consultando y mapeando solo los campos
+     * indicados; si no se piden los roles no se unen sus tablas.
+     */
+    public int streamUsersAfter(long lastId, int limit, UserFields fields, Consumer<? super User> consumer)
+            throws SQLException {
+        return STREAM_USERS_AFTER_METRICS.time(() -> {
+            String query = STREAM_USERS_AFTER_SQL.computeIfAbsent(fields, UserDAO::streamUsersAfterSql);
+
+            try (Connection connection = dataSource.getConnection();
+                    PreparedStatement pstmt = connection.prepareStatement(query)) {
+                pstmt.setLong(1, lastId);
+                pstmt.setInt(2, limit);
+                pstmt.setFetchSize(Math.min(limit, 500));
+
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (fields.includesRoles()) {
+                        return forEachUserWithRoles(rs, fields, consumer);
+                    }
+                    int count = 0;
+                    while (rs.next()) {
+                        consumer.accept(fields.mapUser(rs));
+                        count++;
+                    }
+                    return count;
+                }
+            } catch (SQLException e) {
+                LOGGER.log(Level.SEVERE, "Error al obtener usuarios después del ID: " + lastId, e);
+                throw e;
+            }
+        });
+    }
+
+    private static String streamUsersAfterSql(UserFields fields) {
+        if (!fields.includesRoles()) {
+            return "SELECT " + fields.userColumns("u") + " FROM users u " +
+                    "WHERE u.user_id > ? ORDER BY u.user_id FETCH FIRST ? ROWS ONLY";
+        }
+        return "SELECT " + fields.userColumns("u") + ", " + fields.roleColumns() + " " +
+                "FROM (SELECT " + fields.userColumns("x") + " FROM users x " +
+                "WHERE x.user_id > ? ORDER BY x.user_id FETCH FIRST ? ROWS ONLY) u " +
+                "LEFT JOIN user_roles ur ON u.user_id = ur.user_id " +
+                "LEFT JOIN roles r ON r.role_id = ur.role_id " +
+                "ORDER BY u.user_id, r.role_id";
+    }
+
+    // Obtener un usuario por ID (primero en la caché de usuarios; los fallos
+    // concurrentes del mismo ID comparten una sola consulta)
+    public User getUserById(long userId) throws SQLException {
+        return GET_USER_BY_ID_METRICS.time(() -> {
+            User cached = userCache.get(userId);
+            if (cached != null) {
+                return cached;
+            }
+
+            UserBatchLoader batchLoader = context.getUserBatchLoader();
+            return userByIdFlight.execute(userId, context.getDataVersion(), () -> {
+                if (batchLoader != null) {
+                    return await(batchLoader.load(userId), context.getUserBatchLoaderTimeoutMillis());
+                }
+                long stamp = userCache.stamp();
+                User user = loadUserById(userId);
+                if (user != null) {
+                    userCache.put(user, stamp);
+                }
+                return user;
+            });
+        });
+    }
+
+    /**
+     * Usuarios con sus roles para los IDs indicados, por ID (los que no existen no
+     * aparecen). Cada bloque de hasta IN_LIST_MAX IDs se resuelve con dos consultas
+     * con lista IN: una de usuarios y otra de sus roles.
+     */
+    public Map<Long, User> getUsersByIds(Collection<Long> userIds) throws SQLException {
+        return GET_USERS_BY_IDS_METRICS.time(() -> {
+            List<Long> ids = new ArrayList<>(new LinkedHashSet<>(userIds));
+            Map<Long, User> users = new HashMap<>();
+            if (ids.isEmpty()) {
+                return users;
+            }
+
+            try (Connection connection = dataSource.getConnection()) {
+                for (int from = 0; from < ids.size(); from += IN_LIST_MAX) {
+                    loadUsersByIds(connection, ids.subList(from, Math.min(ids.size(), from + IN_LIST_MAX)), users);
+                }
+            } catch (SQLException e) {
+                LOGGER.log(Level.SEVERE, "Error al obtener " + ids.size() + " usuarios por ID", e);
+                throw e;
+            }
+            return users;
+        });
+    }
+
+    private void loadUsersByIds(Connection connection, List<Long> ids, Map<Long, User> users) throws SQLException {
+        int size = ids.size() <= 1 ? 1 : Integer.highestOneBit(ids.size() - 1) << 1;
+        String in = inList(size);
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT * FROM users WHERE user_id IN " + in)) {
+            setInList(pstmt, ids, size);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    User user = mapResultSetToUser(rs);
+                    user.setRoles(new ArrayList<>());
+                    users.put(user.getUserId(), user);
+                }
             }
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Error al obtener todos los usuarios", e);
-            throw e;
         }
 
+        Map<Long, Role> rolesById = new HashMap<>();
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT ur.user_id, r.* FROM user_roles ur " +
+                "JOIN roles r ON r.role_id = ur.role_id WHERE ur.user_id IN " + in + " ORDER BY ur.user_id, r.role_id")) {
+            setInList(pstmt, ids, size);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    User user = users.get(rs.getLong("user_id"));
+                    if (user == null) {
+                        continue;
+                    }
+                    long roleId = rs.getLong("role_id");
+                    Role role = rolesById.get(roleId);
+                    if (role == null) {
+                        role = new Role(roleId,
+                                rs.getString("role_name"),
+                                rs.getString("description"),
+                                rs.getTimestamp("created_at"),
+                                rs.getTimestamp("updated_at"));
+                        rolesById.put(roleId, role);
+                    }
+                    user.getRoles().add(role);
+                }
+            }
+        }
+    }
+
+    /**
+     * Carga por lotes del cargador de getUserById: como getUsersByIds, guardando
+     * los usuarios en la caché.
+     */
+    Map<Long, User> loadAndCacheUsers(Collection<Long> userIds) throws SQLException {
+        long stamp = userCache.stamp();
+        Map<Long, User> users = getUsersByIds(userIds);
+        for (User user : users.values()) {
+            userCache.put(user, stamp);
+        }
         return users;
     }
 
-    // Obtener un usuario por ID
-    public User getUserById(long userId) throws SQLException {
-        String query = "SELECT * FROM users WHERE user_id = ?";
+    /**
+     * "(?, ?, ...)" con {@code size} parámetros.
+     */
+    private static String inList(int size) {
+        StringBuilder sql = new StringBuilder(size * 3 + 2).append('(');
+        for (int i = 0; i < size; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(')').toString();
+    }
 
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+    /**
+     * Asigna los IDs a una lista IN de {@code size} parámetros; los de relleno
+     * repiten el último ID.
+     */
+    private static void setInList(PreparedStatement pstmt, List<Long> ids, int size) throws SQLException {
+        for (int i = 0; i < size; i++) {
+            pstmt.setLong(i + 1, ids.get(Math.min(i, ids.size() - 1)));
+        }
+    }
+
+    private static User await(CompletableFuture<User> future, long timeoutMillis) throws SQLException {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new SQLTimeoutException("El usuario no se cargó en " + timeoutMillis + " ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrumpido mientras se esperaba la carga del usuario", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                SQLException sqlException = (SQLException) cause;
+                throw new SQLException(sqlException.getMessage(), sqlException.getSQLState(),
+                        sqlException.getErrorCode(), sqlException);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException("Error al cargar el usuario", cause);
+        }
+    }
+
+    private User loadUserById(long userId) throws SQLException {
+        String query = SQL_USERS_WITH_ROLES + "WHERE u.user_id = ? ORDER BY r.role_id";
+
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement pstmt = connection.prepareStatement(query)) {
             pstmt.setLong(1, userId);
 
             try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    User user = mapResultSetToUser(rs);
-                    // Cargar roles para este usuario
-                    user.setRoles(getUserRoles(userId));
-                    return user;
+                List<User> users = mapResultSetToUsersWithRoles(rs);
+                if (!users.isEmpty()) {
+                    return users.get(0);
                 }
             }
         } catch (SQLException e) {
@@ -63,19 +337,56 @@ public class UserDAO {
         return null;
     }
 
+    /**
+     * Indica si el usuario tiene el rol, asignado directamente o heredado a través
+     * de la jerarquía de roles, con el índice en memoria de user_roles (ver
+     * {@link UserRoleIndex#assignedRoles}) y el cierre de la jerarquía.
+     */
+    public boolean hasRole(long userId, long roleId) throws SQLException {
+        return HAS_ROLE_METRICS.time(() -> {
+            int[] assigned = roleIndex.assignedRoles(dataSource, userId);
+            return hierarchy.ensureLoaded(dataSource).grants(assigned, roleId);
+        });
+    }
+
+    /**
+     * Resuelve varias comprobaciones usuario-rol como {@link #hasRole}, teniendo en
+     * cuenta los roles heredados.
+     *
+     * @return una comprobación por elemento, en el mismo orden, con hasRole informado
+     */
+    public List<RoleCheck> checkRoles(List<RoleCheck> checks) throws SQLException {
+        return CHECK_ROLES_METRICS.time(() -> {
+            RoleHierarchy.Snapshot roles = hierarchy.ensureLoaded(dataSource);
+            List<RoleCheck> results = new ArrayList<>(checks.size());
+            for (RoleCheck check : checks) {
+                boolean answer = roles.grants(roleIndex.assignedRoles(dataSource, check.getUserId()),
+                        check.getRoleId());
+                results.add(new RoleCheck(check.getUserId(), check.getRoleId(), answer));
+            }
+            return results;
+        });
+    }
+
     // Obtener un usuario por nombre de usuario
     public User getUserByUsername(String username) throws SQLException {
-        String query = "SELECT * FROM users WHERE username = ?";
+        return GET_USER_BY_USERNAME_METRICS.time(() -> {
+            return userByUsernameFlight.execute(username, context.getDataVersion(),
+                    () -> loadUserByUsername(username));
+        });
+    }
 
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+    private User loadUserByUsername(String username) throws SQLException {
+        String query = SQL_USERS_WITH_ROLES + "WHERE u.username = ? ORDER BY u.user_id, r.role_id";
+
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement pstmt = connection.prepareStatement(query)) {
             pstmt.setString(1, username);
 
             try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    User user = mapResultSetToUser(rs);
-                    // Cargar roles para este usuario
-                    user.setRoles(getUserRoles(user.getUserId()));
-                    return user;
+                List<User> users = mapResultSetToUsersWithRoles(rs);
+                if (!users.isEmpty()) {
+                    return users.get(0);
                 }
             }
         } catch (SQLException e) {
@@ -88,148 +399,483 @@ public class UserDAO {
 
     // Crear un nuevo usuario
     public User createUser(User user) throws SQLException {
-        // Intenta el enfoque de Oracle primero
-        try {
-            String oracleQuery = "INSERT INTO users (username, email, password_hash, first_name, last_name, active) " +
-                    "VALUES (?, ?, ?, ?, ?, ?) RETURNING user_id, created_at, updated_at";
+        return context.write(CREATE_USER_METRICS, () -> {
+            SqlDialect dialect = context.getDialect();
 
-            try (PreparedStatement pstmt = connection.prepareStatement(oracleQuery)) {
-                pstmt.setString(1, user.getUsername());
-                pstmt.setString(2, user.getEmail());
-                pstmt.setString(3, user.getPasswordHash());
-                pstmt.setString(4, user.getFirstName());
-                pstmt.setString(5, user.getLastName());
-                pstmt.setInt(6, user.isActive() ? 1 : 0);
+            // Con roles, el usuario, sus roles y el marcador de user_roles van en una transacción
+            boolean withRoles = user.getRoles() != null && !user.getRoles().isEmpty();
 
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    if (rs.next()) {
-                        user.setUserId(rs.getLong("user_id"));
-                        user.setCreatedAt(rs.getTimestamp("created_at"));
-                        user.setUpdatedAt(rs.getTimestamp("updated_at"));
-
-                        // Si hay roles asignados, guardarlos
-                        if (user.getRoles() != null && !user.getRoles().isEmpty()) {
-                            for (Role role : user.getRoles()) {
-                                assignRoleToUser(user.getUserId(), role.getRoleId());
-                            }
-                            // Recargar roles
-                            user.setRoles(getUserRoles(user.getUserId()));
+            try (Connection connection = dataSource.getConnection();
+                    PreparedStatement pstmt = dialect.prepareInsertReturning(connection, SQL_INSERT_USER,
+                            SQL_INSERT_USER_RETURNING)) {
+                if (withRoles) {
+                    connection.setAutoCommit(false);
+                }
+                try {
+                    pstmt.setString(1, user.getUsername());
+                    pstmt.setString(2, user.getEmail());
+                    pstmt.setString(3, user.getPasswordHash());
+                    pstmt.setString(4, user.getFirstName());
+                    pstmt.setString(5, user.getLastName());
+                    pstmt.setInt(6, user.isActive() ? 1 : 0);
+
+                    // El INSERT devuelve el ID y las fechas en el mismo viaje
+                    try (ResultSet rs = dialect.executeInsertReturning(pstmt)) {
+                        if (!rs.next()) {
+                            return null;
+                        }
+                        user.setUserId(rs.getLong(1));
+                        user.setCreatedAt(rs.getTimestamp(2));
+                        user.setUpdatedAt(rs.getTimestamp(3));
+                    }
+
+                    // Si hay roles asignados, guardarlos
+                    if (withRoles) {
+                        for (Role role : user.getRoles()) {
+                            assignRoleToUser(connection, user.getUserId(), role.getRoleId());
                         }
+                        long version = UserRoleIndex.nextVersion(connection);
+                        // Recargar roles
+                        user.setRoles(getUserRoles(connection, user.getUserId()));
+                        connection.commit();
+                        roleIndex.setRoles(user.getUserId(), roleIdsOf(user.getRoles()));
+                        roleIndex.written(version);
+                    }
+
+                    return user;
+                } catch (SQLException | RuntimeException e) {
+                    if (withRoles) {
+                        connection.rollback();
+                    }
+                    throw e;
+                } finally {
+                    if (withRoles) {
+                        connection.setAutoCommit(true);
+                    }
+                }
+            } catch (SQLException e) {
+                LOGGER.log(Level.SEVERE, "Error al crear usuario", e);
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Crea usuarios por lotes con addBatch/executeBatch, confirmando cada bloque de
+     * {@code chunkSize} usuarios en su propia transacción. Las asignaciones de roles
+     * de cada bloque también se envían en un único lote.
+     *
+     * Si un bloque falla se deshace y sus usuarios se reintentan uno a uno, de modo
+     * que el resultado indica qué elementos se crearon y cuáles fallaron.
+     *
+     * @return un resultado por usuario, en el mismo orden de entrada
+     */
+    public List<BatchItemResult> createUsers(List<User> users, int chunkSize) throws SQLException {
+        return context.write(CREATE_USERS_METRICS, () -> {
+            List<BatchItemResult> results = new ArrayList<>(users.size());
 
-                        return user;
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(false);
+                try {
+                    for (int from = 0; from < users.size(); from += chunkSize) {
+                        int to = Math.min(from + chunkSize, users.size());
+                        createChunk(connection, users, from, to, results);
                     }
+                } catch (SQLException | RuntimeException e) {
+                    // Deshacer el bloque en curso; los anteriores ya están confirmados
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
                 }
             }
+
+            return results;
+        });
+    }
+
+    private void createChunk(Connection connection, List<User> users, int from, int to,
+            List<BatchItemResult> results) throws SQLException {
+        List<Integer> valid = new ArrayList<>(to - from);
+        BatchItemResult[] chunkResults = new BatchItemResult[to - from];
+        for (int i = from; i < to; i++) {
+            String error = validateForInsert(users.get(i));
+            if (error != null) {
+                chunkResults[i - from] = BatchItemResult.failed(i, error);
+            } else {
+                valid.add(i);
+            }
+        }
+
+        try {
+            if (!valid.isEmpty()) {
+                long[] ids = insertUsersBatch(connection, users, valid);
+                long version = insertUserRolesBatch(connection, users, valid, ids);
+                connection.commit();
+                for (int k = 0; k < valid.size(); k++) {
+                    int index = valid.get(k);
+                    users.get(index).setUserId(ids[k]);
+                    indexRoles(users.get(index));
+                    chunkResults[index - from] = BatchItemResult.created(index, ids[k]);
+                }
+                roleIndex.written(version);
+            }
         } catch (SQLException e) {
-            // Si falla con la sintaxis de Oracle, intenta con H2
-            LOGGER.log(Level.INFO, "Usando enfoque H2 para crear usuario después de error Oracle: " + e.getMessage());
+            connection.rollback();
+            LOGGER.log(Level.WARNING, "Falló el lote de usuarios [" + from + ", " + to
+                    + "), se reintenta elemento a elemento: " + e.getMessage());
+
+            for (int index : valid) {
+                chunkResults[index - from] = createSingleInBatch(connection, users, index);
+            }
+        }
+
+        for (BatchItemResult result : chunkResults) {
+            results.add(result);
+        }
+    }
 
-            String h2Query = "INSERT INTO users (username, email, password_hash, first_name, last_name, active) " +
-                    "VALUES (?, ?, ?, ?, ?, ?)";
+    private BatchItemResult createSingleInBatch(Connection connection, List<User> users, int index)
+            throws SQLException {
+        List<Integer> single = Collections.singletonList(index);
+        try {
+            long[] ids = insertUsersBatch(connection, users, single);
+            long version = insertUserRolesBatch(connection, users, single, ids);
+            connection.commit();
+            users.get(index).setUserId(ids[0]);
+            indexRoles(users.get(index));
+            roleIndex.written(version);
+            return BatchItemResult.created(index, ids[0]);
+        } catch (SQLException e) {
+            connection.rollback();
+            return BatchItemResult.failed(index, e.getMessage());
+        }
+    }
 
-            try (PreparedStatement pstmt = connection.prepareStatement(h2Query, Statement.RETURN_GENERATED_KEYS)) {
+    private long[] insertUsersBatch(Connection connection, List<User> users, List<Integer> indexes)
+            throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(SQL_INSERT_USER, new String[] { "user_id" })) {
+            for (int index : indexes) {
+                User user = users.get(index);
                 pstmt.setString(1, user.getUsername());
                 pstmt.setString(2, user.getEmail());
                 pstmt.setString(3, user.getPasswordHash());
                 pstmt.setString(4, user.getFirstName());
                 pstmt.setString(5, user.getLastName());
                 pstmt.setInt(6, user.isActive() ? 1 : 0);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
 
-                int rowsAffected = pstmt.executeUpdate();
-
-                if (rowsAffected > 0) {
-                    try (ResultSet rs = pstmt.getGeneratedKeys()) {
-                        if (rs.next()) {
-                            long userId = rs.getLong(1);
-                            user.setUserId(userId);
-
-                            // Obtener datos adicionales con una consulta separada
-                            try (PreparedStatement stmt = connection
-                                    .prepareStatement("SELECT created_at, updated_at FROM users WHERE user_id = ?")) {
-                                stmt.setLong(1, userId);
-                                try (ResultSet timeRs = stmt.executeQuery()) {
-                                    if (timeRs.next()) {
-                                        user.setCreatedAt(timeRs.getTimestamp("created_at"));
-                                        user.setUpdatedAt(timeRs.getTimestamp("updated_at"));
-                                    }
-                                }
-                            }
+            long[] ids = new long[indexes.size()];
+            int k = 0;
+            try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                while (rs.next() && k < ids.length) {
+                    ids[k++] = rs.getLong(1);
+                }
+            }
+            if (k != ids.length) {
+                throw new SQLException("El driver devolvió " + k + " claves generadas para " + ids.length + " usuarios");
+            }
+            return ids;
+        }
+    }
 
-                            // Si hay roles asignados, guardarlos
-                            if (user.getRoles() != null && !user.getRoles().isEmpty()) {
-                                for (Role role : user.getRoles()) {
-                                    assignRoleToUser(user.getUserId(), role.getRoleId());
-                                }
-                                // Recargar roles
-                                user.setRoles(getUserRoles(user.getUserId()));
-                            }
+    /**
+     * Inserta los roles de los usuarios en un solo lote.
+     *
+     * @return la nueva versión del marcador de user_roles, o 0 si no había roles
+     */
+    private long insertUserRolesBatch(Connection connection, List<User> users, List<Integer> indexes, long[] ids)
+            throws SQLException {
+        String query = "INSERT INTO user_roles (user_id, role_id) VALUES (?, ?)";
+        int pending = 0;
 
-                            return user;
-                        }
-                    }
+        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+            for (int k = 0; k < indexes.size(); k++) {
+                List<Role> roles = users.get(indexes.get(k)).getRoles();
+                if (roles == null) {
+                    continue;
                 }
+                for (Role role : roles) {
+                    pstmt.setLong(1, ids[k]);
+                    pstmt.setLong(2, role.getRoleId());
+                    pstmt.addBatch();
+                    pending++;
+                }
+            }
+            if (pending > 0) {
+                pstmt.executeBatch();
             }
         }
+        return pending > 0 ? UserRoleIndex.nextVersion(connection) : 0;
+    }
+
+    private void indexRoles(User user) {
+        if (user.getRoles() != null && !user.getRoles().isEmpty()) {
+            roleIndex.setRoles(user.getUserId(), roleIdsOf(user.getRoles()));
+        }
+    }
 
+    private static String validateForInsert(User user) {
+        if (user == null) {
+            return "Usuario vacío";
+        }
+        if (user.getUsername() == null || user.getEmail() == null || user.getPasswordHash() == null) {
+            return "username, email y passwordHash son obligatorios";
+        }
+        return validateRoles(user.getRoles());
+    }
+
+    private static String validateRoles(List<Role> roles) {
+        if (roles != null) {
+            for (Role role : roles) {
+                if (role == null || role.getRoleId() == null) {
+                    return "Todos los roles deben indicar roleId";
+                }
+            }
+        }
         return null;
     }
 
-    // Actualizar un usuario existente
+    /**
+     * Actualizar un usuario existente (datos y roles en una sola transacción)
+     *
+     * @throws IllegalArgumentException si algún rol no indica roleId
+     */
     public boolean updateUser(User user) throws SQLException {
-        String query = "UPDATE users SET username = ?, email = ?, password_hash = ?, " +
-                "first_name = ?, last_name = ?, active = ? " +
-                "WHERE user_id = ?";
+        return context.write(UPDATE_USER_METRICS, () -> {
+            // Validar antes de escribir nada
+            String error = validateRoles(user.getRoles());
+            if (error != null) {
+                throw new IllegalArgumentException(error);
+            }
 
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-            pstmt.setString(1, user.getUsername());
-            pstmt.setString(2, user.getEmail());
-            pstmt.setString(3, user.getPasswordHash());
-            pstmt.setString(4, user.getFirstName());
-            pstmt.setString(5, user.getLastName());
-            pstmt.setInt(6, user.isActive() ? 1 : 0);
-            pstmt.setLong(7, user.getUserId());
+            String query = "UPDATE users SET username = ?, email = ?, password_hash = ?, " +
+                    "first_name = ?, last_name = ?, active = ? " +
+                    "WHERE user_id = ?";
 
-            int rowsAffected = pstmt.executeUpdate();
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(false);
+
+                try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+                    pstmt.setString(1, user.getUsername());
+                    pstmt.setString(2, user.getEmail());
+                    pstmt.setString(3, user.getPasswordHash());
+                    pstmt.setString(4, user.getFirstName());
+                    pstmt.setString(5, user.getLastName());
+                    pstmt.setInt(6, user.isActive() ? 1 : 0);
+                    pstmt.setLong(7, user.getUserId());
 
-            // Actualizar roles si es necesario
-            if (rowsAffected > 0 && user.getRoles() != null) {
-                // Eliminar todos los roles actuales
-                removeAllRolesFromUser(user.getUserId());
+                    int rowsAffected = pstmt.executeUpdate();
 
-                // Asignar nuevos roles
-                for (Role role : user.getRoles()) {
-                    assignRoleToUser(user.getUserId(), role.getRoleId());
+                    // Sincronizar roles si es necesario (solo se escribe la diferencia)
+                    Set<Long> roleIds = null;
+                    long version = 0;
+                    if (rowsAffected > 0 && user.getRoles() != null) {
+                        roleIds = roleIdsOf(user.getRoles());
+                        version = syncUserRoles(connection, user.getUserId(), roleIds);
+                    }
+
+                    connection.commit();
+                    if (roleIds != null) {
+                        roleIndex.setRoles(user.getUserId(), roleIds);
+                        roleIndex.written(version);
+                    }
+                    return rowsAffected > 0;
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    LOGGER.log(Level.SEVERE, "Error al actualizar usuario ID: " + user.getUserId(), e);
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
                 }
+            } finally {
+                userCache.invalidate(user.getUserId());
             }
+        });
+    }
 
-            return rowsAffected > 0;
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Error al actualizar usuario ID: " + user.getUserId(), e);
-            throw e;
+    /**
+     * Reemplaza el conjunto de roles del usuario por {@code roleIds} (semántica de
+     * conjunto). Solo se borran y se insertan las diferencias, por lotes y en una
+     * única transacción.
+     *
+     * @return false si el usuario no existe
+     * @throws IllegalArgumentException si algún ID de rol es null
+     */
+    public boolean setUserRoles(long userId, Collection<Long> roleIds) throws SQLException {
+        return context.write(SET_USER_ROLES_METRICS, () -> {
+            for (Long roleId : roleIds) {
+                if (roleId == null) {
+                    throw new IllegalArgumentException("Todos los roles deben indicar roleId");
+                }
+            }
+
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(false);
+
+                try {
+                    // Bloquear la fila del usuario serializa las sincronizaciones concurrentes
+                    try (PreparedStatement pstmt = connection.prepareStatement(
+                            "SELECT user_id FROM users WHERE user_id = ? FOR UPDATE")) {
+                        pstmt.setLong(1, userId);
+                        try (ResultSet rs = pstmt.executeQuery()) {
+                            if (!rs.next()) {
+                                connection.rollback();
+                                return false;
+                            }
+                        }
+                    }
+
+                    Set<Long> desired = new LinkedHashSet<>(roleIds);
+                    long version = syncUserRoles(connection, userId, desired);
+                    connection.commit();
+                    roleIndex.setRoles(userId, desired);
+                    roleIndex.written(version);
+                    return true;
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    LOGGER.log(Level.SEVERE, "Error al sincronizar roles del usuario ID: " + userId, e);
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } finally {
+                userCache.invalidate(userId);
+            }
+        });
+    }
+
+    /**
+     * Compara los roles actuales con los deseados y aplica solo la diferencia.
+     * Debe llamarse dentro de una transacción.
+     *
+     * @return la nueva versión del marcador de user_roles, o 0 si no había cambios
+     */
+    private long syncUserRoles(Connection connection, long userId, Set<Long> desired) throws SQLException {
+        Set<Long> current = new HashSet<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT role_id FROM user_roles WHERE user_id = ?")) {
+            pstmt.setLong(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    current.add(rs.getLong(1));
+                }
+            }
         }
+
+        List<Long> toDelete = new ArrayList<>();
+        for (Long roleId : current) {
+            if (!desired.contains(roleId)) {
+                toDelete.add(roleId);
+            }
+        }
+        List<Long> toInsert = new ArrayList<>();
+        for (Long roleId : desired) {
+            if (!current.contains(roleId)) {
+                toInsert.add(roleId);
+            }
+        }
+
+        if (!toDelete.isEmpty()) {
+            try (PreparedStatement pstmt = connection.prepareStatement(
+                    "DELETE FROM user_roles WHERE user_id = ? AND role_id = ?")) {
+                for (Long roleId : toDelete) {
+                    pstmt.setLong(1, userId);
+                    pstmt.setLong(2, roleId);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+        }
+
+        if (!toInsert.isEmpty()) {
+            try (PreparedStatement pstmt = connection.prepareStatement(
+                    "INSERT INTO user_roles (user_id, role_id) VALUES (?, ?)")) {
+                for (Long roleId : toInsert) {
+                    pstmt.setLong(1, userId);
+                    pstmt.setLong(2, roleId);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+        }
+
+        return toDelete.isEmpty() && toInsert.isEmpty() ? 0 : UserRoleIndex.nextVersion(connection);
+    }
+
+    private static Set<Long> roleIdsOf(List<Role> roles) {
+        Set<Long> roleIds = new LinkedHashSet<>();
+        for (Role role : roles) {
+            roleIds.add(role.getRoleId());
+        }
+        return roleIds;
     }
 
     // Eliminar un usuario
     public boolean deleteUser(long userId) throws SQLException {
-        // Primero eliminar relaciones en user_roles
-        removeAllRolesFromUser(userId);
+        return context.write(DELETE_USER_METRICS, () -> {
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(false);
 
-        // Luego eliminar el usuario
-        String query = "DELETE FROM users WHERE user_id = ?";
+                try {
+                    // Primero eliminar relaciones en user_roles
+                    long version = removeAllRolesFromUser(connection, userId) > 0
+                            ? UserRoleIndex.nextVersion(connection) : 0;
 
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-            pstmt.setLong(1, userId);
+                    // Luego eliminar el usuario
+                    String query = "DELETE FROM users WHERE user_id = ?";
 
-            int rowsAffected = pstmt.executeUpdate();
-            return rowsAffected > 0;
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Error al eliminar usuario ID: " + userId, e);
-            throw e;
-        }
+                    try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+                        pstmt.setLong(1, userId);
+
+                        int rowsAffected = pstmt.executeUpdate();
+                        connection.commit();
+                        userCache.invalidate(userId);
+                        roleIndex.removeUser(userId);
+                        roleIndex.written(version);
+                        return rowsAffected > 0;
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    LOGGER.log(Level.SEVERE, "Error al eliminar usuario ID: " + userId, e);
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            }
+        });
     }
 
     // Asignar un rol a un usuario
     public boolean assignRoleToUser(long userId, long roleId) throws SQLException {
+        return context.write(ASSIGN_ROLE_TO_USER_METRICS, () -> {
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(false);
+
+                try {
+                    boolean assigned = assignRoleToUser(connection, userId, roleId);
+                    long version = assigned ? UserRoleIndex.nextVersion(connection) : 0;
+                    connection.commit();
+                    if (assigned) {
+                        roleIndex.assign(userId, roleId);
+                        roleIndex.written(version);
+                    }
+                    return assigned;
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } finally {
+                userCache.invalidate(userId);
+            }
+        });
+    }
+
+    private boolean assignRoleToUser(Connection connection, long userId, long roleId) throws SQLException {
         String query = "INSERT INTO user_roles (user_id, role_id) VALUES (?, ?)";
 
         try (PreparedStatement pstmt = connection.prepareStatement(query)) {
@@ -246,29 +892,46 @@ public class UserDAO {
 
     // Eliminar un rol de un usuario
     public boolean removeRoleFromUser(long userId, long roleId) throws SQLException {
-        String query = "DELETE FROM user_roles WHERE user_id = ? AND role_id = ?";
+        return context.write(REMOVE_ROLE_FROM_USER_METRICS, () -> {
+            String query = "DELETE FROM user_roles WHERE user_id = ? AND role_id = ?";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-            pstmt.setLong(1, userId);
-            pstmt.setLong(2, roleId);
+            try (Connection connection = dataSource.getConnection();
+                    PreparedStatement pstmt = connection.prepareStatement(query)) {
+                connection.setAutoCommit(false);
 
-            int rowsAffected = pstmt.executeUpdate();
-            return rowsAffected > 0;
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Error al eliminar rol ID: " + roleId + " de usuario ID: " + userId, e);
-            throw e;
-        }
+                try {
+                    pstmt.setLong(1, userId);
+                    pstmt.setLong(2, roleId);
+
+                    int rowsAffected = pstmt.executeUpdate();
+                    long version = rowsAffected > 0 ? UserRoleIndex.nextVersion(connection) : 0;
+                    connection.commit();
+                    roleIndex.remove(userId, roleId);
+                    roleIndex.written(version);
+                    return rowsAffected > 0;
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                LOGGER.log(Level.SEVERE, "Error al eliminar rol ID: " + roleId + " de usuario ID: " + userId, e);
+                throw e;
+            } finally {
+                userCache.invalidate(userId);
+            }
+        });
     }
 
-    // Eliminar todos los roles de un usuario
-    private boolean removeAllRolesFromUser(long userId) throws SQLException {
+    // Eliminar todos los roles de un usuario; devuelve cuántos tenía
+    private int removeAllRolesFromUser(Connection connection, long userId) throws SQLException {
         String query = "DELETE FROM user_roles WHERE user_id = ?";
 
         try (PreparedStatement pstmt = connection.prepareStatement(query)) {
             pstmt.setLong(1, userId);
 
-            int rowsAffected = pstmt.executeUpdate();
-            return true;
+            return pstmt.executeUpdate();
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Error al eliminar todos los roles del usuario ID: " + userId, e);
             throw e;
@@ -276,7 +939,7 @@ public class UserDAO {
     }
 
     // Obtener roles de un usuario
-    private List<Role> getUserRoles(long userId) throws SQLException {
+    private List<Role> getUserRoles(Connection connection, long userId) throws SQLException {
         List<Role> roles = new ArrayList<>();
         String query = "SELECT r.* FROM roles r " +
                 "JOIN user_roles ur ON r.role_id = ur.role_id " +
@@ -304,6 +967,53 @@ public class UserDAO {
         return roles;
     }
 
+    private List<User> mapResultSetToUsersWithRoles(ResultSet rs) throws SQLException {
+        List<User> users = new ArrayList<>();
+        forEachUserWithRoles(rs, UserFields.ALL, users::add);
+        return users;
+    }
+
+    /**
+     * Agrupa las filas de SQL_USERS_WITH_ROLES (ordenadas por user_id) en usuarios
+     * con su lista de roles y entrega cada usuario al consumidor en cuanto empieza
+     * el siguiente. Cada rol distinto se instancia una sola vez y se comparte entre
+     * todos los usuarios que lo tienen.
+     */
+    private int forEachUserWithRoles(ResultSet rs, UserFields fields, Consumer<? super User> consumer)
+            throws SQLException {
+        Map<Long, Role> rolesById = new HashMap<>();
+        User current = null;
+        int count = 0;
+
+        while (rs.next()) {
+            long userId = rs.getLong("user_id");
+            if (current == null || current.getUserId() != userId) {
+                if (current != null) {
+                    consumer.accept(current);
+                    count++;
+                }
+                current = fields.mapUser(rs);
+                current.setRoles(new ArrayList<>());
+            }
+
+            long roleId = rs.getLong("r_role_id");
+            if (!rs.wasNull()) {
+                Role role = rolesById.get(roleId);
+                if (role == null) {
+                    role = fields.mapRole(rs, roleId);
+                    rolesById.put(roleId, role);
+                }
+                current.getRoles().add(role);
+            }
+        }
+
+        if (current != null) {
+            consumer.accept(current);
+            count++;
+        }
+        return count;
+    }
+
     // Método auxiliar para mapear ResultSet a objeto User
     private User mapResultSetToUser(ResultSet rs) throws SQLException {
         return new User(
@@ -317,4 +1027,4 @@ public class UserDAO {
                 rs.getTimestamp("created_at"),
                 rs.getTimestamp("updated_at"));
     }
-}
\ No newline at end of file
+}
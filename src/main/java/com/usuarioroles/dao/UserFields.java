@@ -0,0 +1,303 @@
+package com.usuarioroles.dao;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.EnumSet;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.usuarioroles.model.Role;
+import com.usuarioroles.model.User;
+
+/**
+ * Campos de usuario pedidos con {@code ?fields=} (p. ej.
+ * {@code fields=userId,username,roles.roleName}).
+ *
+ * La selección se aplica en toda la cadena: los DAO solo consultan las columnas
+ * pedidas (y no unen los roles si no se piden), el mapeo solo lee esas columnas y
+ * {@link #typeAdapter(Gson)} solo escribe esas propiedades. {@code roles} pide
+ * los roles completos y {@code roles.<campo>} solo algunos de sus campos.
+ * userId se incluye siempre porque es el cursor de la paginación.
+ */
+public final class UserFields {
+
+    /**
+     * Propiedades de User con su columna en la tabla users.
+     */
+    public enum Field {
+        USER_ID("userId", "user_id"),
+        USERNAME("username", "username"),
+        EMAIL("email", "email"),
+        PASSWORD_HASH("passwordHash", "password_hash"),
+        FIRST_NAME("firstName", "first_name"),
+        LAST_NAME("lastName", "last_name"),
+        ACTIVE("active", "active"),
+        CREATED_AT("createdAt", "created_at"),
+        UPDATED_AT("updatedAt", "updated_at");
+
+        final String property;
+        final String column;
+
+        Field(String property, String column) {
+            this.property = property;
+            this.column = column;
+        }
+    }
+
+    /**
+     * Propiedades de Role con su columna en la tabla roles.
+     */
+    public enum RoleField {
+        ROLE_ID("roleId", "role_id"),
+        ROLE_NAME("roleName", "role_name"),
+        DESCRIPTION("description", "description"),
+        CREATED_AT("createdAt", "created_at"),
+        UPDATED_AT("updatedAt", "updated_at");
+
+        final String property;
+        final String column;
+
+        RoleField(String property, String column) {
+            this.property = property;
+            this.column = column;
+        }
+    }
+
+    /**
+     * Todos los campos, con los roles completos: la respuesta sin ?fields=.
+     */
+    public static final UserFields ALL = new UserFields(EnumSet.allOf(Field.class), EnumSet.allOf(RoleField.class));
+
+    private final EnumSet<Field> fields;
+    // Vacío si no se piden los roles
+    private final EnumSet<RoleField> roleFields;
+
+    private UserFields(EnumSet<Field> fields, EnumSet<RoleField> roleFields) {
+        this.fields = fields;
+        this.roleFields = roleFields;
+    }
+
+    /**
+     * Interpreta el parámetro fields; null o vacío equivale a {@link #ALL}.
+     *
+     * @throws IllegalArgumentException si algún campo no existe
+     */
+    public static UserFields parse(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return ALL;
+        }
+        EnumSet<Field> fields = EnumSet.of(Field.USER_ID);
+        EnumSet<RoleField> roleFields = EnumSet.noneOf(RoleField.class);
+        for (String part : value.split(",")) {
+            String name = part.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if ("roles".equals(name)) {
+                roleFields.addAll(EnumSet.allOf(RoleField.class));
+            } else if (name.startsWith("roles.")) {
+                roleFields.add(roleField(name.substring("roles.".length())));
+            } else {
+                fields.add(field(name));
+            }
+        }
+        return new UserFields(fields, roleFields);
+    }
+
+    private static Field field(String property) {
+        for (Field field : Field.values()) {
+            if (field.property.equals(property)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Campo de usuario desconocido: " + property);
+    }
+
+    private static RoleField roleField(String property) {
+        for (RoleField field : RoleField.values()) {
+            if (field.property.equals(property)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Campo de rol desconocido: " + property);
+    }
+
+    public boolean includes(Field field) {
+        return fields.contains(field);
+    }
+
+    public boolean includesRoles() {
+        return !roleFields.isEmpty();
+    }
+
+    /**
+     * true si solo se pide userId, que puede resolverse sin leer la tabla users.
+     */
+    public boolean isUserIdOnly() {
+        return fields.size() == 1 && roleFields.isEmpty();
+    }
+
+    /**
+     * Columnas de users separadas por comas, con el alias de tabla indicado.
+     */
+    String userColumns(String alias) {
+        StringBuilder sb = new StringBuilder();
+        for (Field field : fields) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(alias).append('.').append(field.column);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Columnas de roles (tabla r) con prefijo r_; role_id siempre, para agrupar.
+     */
+    String roleColumns() {
+        StringBuilder sb = new StringBuilder("r.role_id AS r_role_id");
+        for (RoleField field : roleFields) {
+            if (field != RoleField.ROLE_ID) {
+                sb.append(", r.").append(field.column).append(" AS r_").append(field.column);
+            }
+        }
+        return sb.toString();
+    }
+
+    User mapUser(ResultSet rs) throws SQLException {
+        User user = new User();
+        user.setUserId(rs.getLong("user_id"));
+        if (fields.contains(Field.USERNAME)) {
+            user.setUsername(rs.getString("username"));
+        }
+        if (fields.contains(Field.EMAIL)) {
+            user.setEmail(rs.getString("email"));
+        }
+        if (fields.contains(Field.PASSWORD_HASH)) {
+            user.setPasswordHash(rs.getString("password_hash"));
+        }
+        if (fields.contains(Field.FIRST_NAME)) {
+            user.setFirstName(rs.getString("first_name"));
+        }
+        if (fields.contains(Field.LAST_NAME)) {
+            user.setLastName(rs.getString("last_name"));
+        }
+        if (fields.contains(Field.ACTIVE)) {
+            user.setActive(rs.getInt("active") == 1);
+        }
+        if (fields.contains(Field.CREATED_AT)) {
+            user.setCreatedAt(rs.getTimestamp("created_at"));
+        }
+        if (fields.contains(Field.UPDATED_AT)) {
+            user.setUpdatedAt(rs.getTimestamp("updated_at"));
+        }
+        return user;
+    }
+
+    Role mapRole(ResultSet rs, long roleId) throws SQLException {
+        Role role = new Role();
+        role.setRoleId(roleId);
+        if (roleFields.contains(RoleField.ROLE_NAME)) {
+            role.setRoleName(rs.getString("r_role_name"));
+        }
+        if (roleFields.contains(RoleField.DESCRIPTION)) {
+            role.setDescription(rs.getString("r_description"));
+        }
+        if (roleFields.contains(RoleField.CREATED_AT)) {
+            role.setCreatedAt(rs.getTimestamp("r_created_at"));
+        }
+        if (roleFields.contains(RoleField.UPDATED_AT)) {
+            role.setUpdatedAt(rs.getTimestamp("r_updated_at"));
+        }
+        return role;
+    }
+
+    /**
+     * Serializador de User que solo escribe los campos seleccionados, con el
+     * formato de fechas y el tratamiento de nulos del Gson indicado.
+     */
+    public TypeAdapter<User> typeAdapter(Gson gson) {
+        TypeAdapter<Timestamp> timestamps = gson.getAdapter(Timestamp.class);
+        return new TypeAdapter<User>() {
+            @Override
+            public void write(JsonWriter out, User user) throws IOException {
+                out.beginObject();
+                for (Field field : fields) {
+                    out.name(field.property);
+                    switch (field) {
+                        case USER_ID: out.value(user.getUserId()); break;
+                        case USERNAME: out.value(user.getUsername()); break;
+                        case EMAIL: out.value(user.getEmail()); break;
+                        case PASSWORD_HASH: out.value(user.getPasswordHash()); break;
+                        case FIRST_NAME: out.value(user.getFirstName()); break;
+                        case LAST_NAME: out.value(user.getLastName()); break;
+                        case ACTIVE: out.value(user.isActive()); break;
+                        case CREATED_AT: timestamps.write(out, user.getCreatedAt()); break;
+                        default: timestamps.write(out, user.getUpdatedAt()); break;
+                    }
+                }
+                if (includesRoles() && user.getRoles() != null) {
+                    out.name("roles").beginArray();
+                    for (Role role : user.getRoles()) {
+                        writeRole(out, role);
+                    }
+                    out.endArray();
+                }
+                out.endObject();
+            }
+
+            private void writeRole(JsonWriter out, Role role) throws IOException {
+                out.beginObject();
+                for (RoleField field : roleFields) {
+                    out.name(field.property);
+                    switch (field) {
+                        case ROLE_ID: out.value(role.getRoleId()); break;
+                        case ROLE_NAME: out.value(role.getRoleName()); break;
+                        case DESCRIPTION: out.value(role.getDescription()); break;
+                        case CREATED_AT: timestamps.write(out, role.getCreatedAt()); break;
+                        default: timestamps.write(out, role.getUpdatedAt()); break;
+                    }
+                }
+                out.endObject();
+            }
+
+            @Override
+            public User read(JsonReader in) {
+                throw new UnsupportedOperationException("Solo serialización");
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof UserFields)) {
+            return false;
+        }
+        UserFields other = (UserFields) o;
+        return fields.equals(other.fields) && roleFields.equals(other.roleFields);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * fields.hashCode() + roleFields.hashCode();
+    }
+
+    /**
+     * Forma canónica del parámetro, apta como parte de una clave de caché.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Field field : fields) {
+            sb.append(sb.length() > 0 ? "," : "").append(field.property);
+        }
+        for (RoleField field : roleFields) {
+            sb.append(",roles.").append(field.property);
+        }
+        return sb.toString();
+    }
+}
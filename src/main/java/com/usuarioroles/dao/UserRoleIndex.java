@@ -0,0 +1,889 @@
+package com.usuarioroles.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.LongStream;
+
+import javax.sql.DataSource;
+
+import com.usuarioroles.util.CompressedBitmap;
+
+/**
+ * Índice en memoria de user_roles, en las dos direcciones.
+ *
+ * Por usuario: cada usuario con roles ocupa una entrada de una tabla hash de
+ * direccionamiento abierto con claves long, cuyo valor es el int[] ordenado de sus
+ * IDs de rol. No hay objetos Long, nodos de HashMap ni conjuntos por usuario, y
+ * "¿tiene el usuario X el rol Y?" es un sondeo en la tabla más una búsqueda binaria.
+ *
+ * Por rol (índice invertido): cada rol tiene un {@link CompressedBitmap} con los IDs
+ * de sus usuarios, con el que se listan y cuentan los miembros de un rol y se
+ * combinan roles (todos de, alguno de, ninguno de) sin consultar la base de datos.
+ * Por eso los IDs de usuario y de rol deben caber en un int no negativo.
+ *
+ * Se carga de forma perezosa con una única consulta; las escrituras de
+ * UserDAO y RoleDAO lo actualizan tras confirmar la transacción. Las escrituras que
+ * llegan mientras se carga se guardan y se reaplican sobre el resultado de la
+ * carga (todas son idempotentes).
+ *
+ * Como otras instancias de la función pueden modificar la tabla, toda escritura en
+ * user_roles incrementa en la misma transacción el marcador user_roles_version
+ * (ver {@link #nextVersion(Connection)}). Pasado el TTL desde la última
+ * comprobación, el índice lee el marcador (una fila por clave primaria) antes de
+ * volver a fiarse de su contenido: si coincide con la versión cargada sigue
+ * vigente; si no, se recarga en segundo plano, y hasta que termina la recarga
+ * las comprobaciones de roles y las consultas de miembros leen user_roles
+ * directamente (ver {@link #assignedRoles} y
+ * {@link #members(DataSource, long[], long[], long[], long, int)}). Los cambios
+ * hechos a mano en user_roles sin incrementar el marcador se recogen al superar la
+ * edad máxima.
+ */
+public class UserRoleIndex {
+    private static final Logger LOGGER = Logger.getLogger(UserRoleIndex.class.getName());
+    private static final String SQL_LOAD = "SELECT user_id, role_id FROM user_roles ORDER BY user_id, role_id";
+    private static final String SQL_ROLES_OF_USER = "SELECT role_id FROM user_roles WHERE user_id = ?";
+    private static final String SQL_ROWS_OF_ROLES = "SELECT user_id, role_id FROM user_roles WHERE role_id IN ";
+    private static final String SQL_GET_VERSION = "SELECT version FROM user_roles_version WHERE id = 1";
+    private static final String SQL_BUMP_VERSION = "UPDATE user_roles_version SET version = version + 1 WHERE id = 1";
+    private static final int[] NO_ROLES = new int[0];
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final long ttlNanos;
+    private final long maxAgeNanos;
+    // Recargas en segundo plano; como mucho una a la vez (ver refreshing)
+    private final ExecutorService refresher;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Protegidos por lock
+    private Table table;
+    private long loadedAt;
+    private long checkedAt;
+    // Valor del marcador que refleja la tabla
+    private long loadedVersion;
+    // Versiones escritas desde esta instancia posteriores a loadedVersion, aún no consecutivas
+    private final TreeSet<Long> writtenVersions = new TreeSet<>();
+    // El marcador ha cambiado y la tabla no lo refleja
+    private boolean stale;
+    private boolean refreshing;
+    // Escrituras recibidas durante una carga; null si no hay carga en curso
+    private List<Consumer<Table>> pending;
+
+    public UserRoleIndex(long ttlMillis) {
+        this(ttlMillis, 0);
+    }
+
+    /**
+     * @param ttlMillis   tiempo durante el que el índice se usa sin volver a leer el marcador
+     * @param maxAgeMillis edad a partir de la cual se recarga en segundo plano aunque
+     *                     el marcador no haya cambiado (0: sin límite)
+     */
+    public UserRoleIndex(long ttlMillis, long maxAgeMillis) {
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.maxAgeNanos = maxAgeMillis * 1_000_000L;
+        // Un solo hilo daemon, que termina si pasa un minuto sin recargas
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "user-role-index-refresh-" + THREADS.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        this.refresher = executor;
+    }
+
+    /**
+     * true si el índice está cargado y se comprobó contra el marcador hace menos del TTL.
+     */
+    public boolean isCurrent() {
+        lock.readLock().lock();
+        try {
+            return table != null && !stale && System.nanoTime() - checkedAt <= ttlNanos;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Indica si el usuario tiene asignado el rol, o null si el índice no está cargado.
+     */
+    Boolean hasRole(long userId, long roleId) {
+        lock.readLock().lock();
+        try {
+            if (table == null) {
+                return null;
+            }
+            return contains(table.get(userId), roleId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Indica si un array ordenado de IDs de rol contiene el rol.
+     */
+    static boolean contains(int[] roles, long roleId) {
+        return roles != null && roleId == (int) roleId && Arrays.binarySearch(roles, (int) roleId) >= 0;
+    }
+
+    /**
+     * IDs de rol del usuario en orden ascendente (vacío si no tiene), o null si el
+     * índice no está cargado. El array es compartido y no debe modificarse.
+     */
+    int[] rolesOf(long userId) {
+        lock.readLock().lock();
+        try {
+            if (table == null) {
+                return null;
+            }
+            int[] roles = table.get(userId);
+            return roles == null ? NO_ROLES : roles;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Miembros de la combinación de roles: usuarios con todos los roles de
+     * {@code all}, con alguno de {@code any} (si no está vacío) y con ninguno de
+     * {@code none}. Devuelve el total y los primeros {@code limit} IDs mayores que
+     * {@code after}, o null si el índice no está cargado.
+     *
+     * @throws IllegalArgumentException si all y any están vacíos
+     */
+    Members members(long[] all, long[] any, long[] none, long after, int limit) {
+        checkRoles(all, any);
+        lock.readLock().lock();
+        try {
+            if (table == null) {
+                return null;
+            }
+            return page(table, all, any, none, after, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Como {@link #members(long[], long[], long[], long, int)}, desde el índice si
+     * está vigente o, mientras se recarga, con una consulta directa de las filas de
+     * user_roles de los roles indicados.
+     */
+    Members members(DataSource dataSource, long[] all, long[] any, long[] none, long after, int limit)
+            throws SQLException {
+        checkRoles(all, any);
+        Members members = ensureCurrent(dataSource) ? members(all, any, none, after, limit) : null;
+        if (members != null) {
+            return members;
+        }
+
+        long[] roleIds = LongStream.concat(LongStream.concat(Arrays.stream(all), Arrays.stream(any)),
+                Arrays.stream(none)).distinct().toArray();
+        StringBuilder sql = new StringBuilder(SQL_ROWS_OF_ROLES).append('(');
+        for (int i = 0; i < roleIds.length; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(") ORDER BY user_id");
+
+        Loader loader = new Loader();
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement pstmt = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < roleIds.length; i++) {
+                pstmt.setLong(i + 1, roleIds[i]);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    loader.add(rs.getLong(1), rs.getLong(2));
+                }
+            }
+        }
+        return page(loader.finish(), all, any, none, after, limit);
+    }
+
+    private static void checkRoles(long[] all, long[] any) {
+        if (all.length == 0 && any.length == 0) {
+            throw new IllegalArgumentException("Indique al menos un rol en all o any");
+        }
+    }
+
+    private static Members page(Table table, long[] all, long[] any, long[] none, long after, int limit) {
+        CompressedBitmap result = table.combine(all, any, none);
+        int[] userIds = new int[(int) Math.min(limit, result.cardinality())];
+        int[] n = { 0 };
+        result.forEachAfter(after, userIds.length, userId -> userIds[n[0]++] = userId);
+        return new Members(result.cardinality(), n[0] == userIds.length ? userIds : Arrays.copyOf(userIds, n[0]));
+    }
+
+    /**
+     * IDs de rol asignados al usuario en orden ascendente: del índice si está
+     * vigente o, mientras se recarga, con una consulta directa a user_roles. El
+     * array es compartido y no debe modificarse.
+     */
+    int[] assignedRoles(DataSource dataSource, long userId) throws SQLException {
+        int[] roles = ensureCurrent(dataSource) ? rolesOf(userId) : null;
+        if (roles != null) {
+            return roles;
+        }
+
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement pstmt = connection.prepareStatement(SQL_ROLES_OF_USER)) {
+            pstmt.setLong(1, userId);
+            int[] buffer = new int[8];
+            int n = 0;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    if (n == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, n << 1);
+                    }
+                    buffer[n++] = toRoleId(rs.getLong(1));
+                }
+            }
+            return n == 0 ? NO_ROLES : sortedDistinct(buffer, n);
+        }
+    }
+
+    /**
+     * Deja el índice cargado y comprueba si está vigente:
+     * <ul>
+     * <li>sin cargar, se carga con una sola consulta (los llamantes concurrentes
+     * esperan a esa primera carga en el monitor del índice);</li>
+     * <li>comprobado hace menos del TTL, está vigente;</li>
+     * <li>si no, se lee el marcador user_roles_version. Si ha cambiado, o el índice
+     * supera la edad máxima, se recarga en el hilo de recargas del índice;
+     * mientras tanto se sigue sirviendo la tabla actual.</li>
+     * </ul>
+     *
+     * @return true si el índice refleja el marcador actual; false si está
+     *         desactualizado y se está recargando
+     */
+    boolean ensureCurrent(DataSource dataSource) throws SQLException {
+        boolean loaded;
+        lock.readLock().lock();
+        try {
+            loaded = table != null;
+            if (loaded && stale) {
+                return false;
+            }
+            if (loaded && System.nanoTime() - checkedAt <= ttlNanos) {
+                return true;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (!loaded) {
+            synchronized (this) {
+                if (!isLoaded()) {
+                    load(dataSource);
+                }
+            }
+            return true;
+        }
+
+        long now = System.nanoTime();
+        long version = readVersion(dataSource);
+        boolean current;
+        boolean refresh;
+        lock.writeLock().lock();
+        try {
+            if (table == null) {
+                return false;
+            }
+            // Un marcador menor indica que la lectura es anterior a escrituras ya aplicadas
+            current = version <= loadedVersion;
+            if (current) {
+                checkedAt = Math.max(checkedAt, now);
+            } else {
+                stale = true;
+            }
+            refresh = !refreshing && (!current || (maxAgeNanos > 0 && now - loadedAt > maxAgeNanos));
+            if (refresh) {
+                refreshing = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (refresh) {
+            refreshInBackground(dataSource);
+        }
+        return current;
+    }
+
+    private boolean isLoaded() {
+        lock.readLock().lock();
+        try {
+            return table != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void refreshInBackground(DataSource dataSource) {
+        try {
+            refresher.execute(() -> {
+                try {
+                    synchronized (this) {
+                        load(dataSource);
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    // Ya registrado en load(); la próxima comprobación lo reintenta
+                } finally {
+                    refreshed();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Índice cerrado: se sigue respondiendo con consultas directas
+            refreshed();
+        }
+    }
+
+    private void refreshed() {
+        lock.writeLock().lock();
+        try {
+            refreshing = false;
+            stale = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Detiene el hilo de recargas en segundo plano; una recarga en curso termina.
+     */
+    public void shutdown() {
+        refresher.shutdown();
+    }
+
+    /**
+     * Carga el índice completo: primero el marcador y después user_roles, de modo
+     * que la tabla incluye al menos todas las escrituras hasta esa versión.
+     */
+    private void load(DataSource dataSource) throws SQLException {
+        Loader loader = beginLoad();
+        try (Connection connection = dataSource.getConnection()) {
+            loader.version = readVersion(connection);
+            try (PreparedStatement pstmt = connection.prepareStatement(SQL_LOAD)) {
+                pstmt.setFetchSize(1000);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        loader.add(rs.getLong(1), rs.getLong(2));
+                    }
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            abortLoad();
+            LOGGER.log(Level.SEVERE, "Error al cargar el índice de roles de usuario", e);
+            throw e;
+        }
+        finishLoad(loader);
+    }
+
+    private static long readVersion(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            return readVersion(connection);
+        }
+    }
+
+    private static long readVersion(Connection connection) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(SQL_GET_VERSION);
+                ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Incrementa el marcador de user_roles y devuelve su nuevo valor. Debe llamarse
+     * dentro de la transacción que modifica user_roles, y el valor devuelto pasarse
+     * a {@link #written(long)} tras confirmarla.
+     */
+    static long nextVersion(Connection connection) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(SQL_BUMP_VERSION)) {
+            pstmt.executeUpdate();
+        }
+        // La fila queda bloqueada por la transacción, así que este es el valor propio
+        return readVersion(connection);
+    }
+
+    /**
+     * Empieza una carga completa. Debe llamarse antes de consultar user_roles, para
+     * que ninguna escritura confirmada durante la consulta se pierda.
+     */
+    Loader beginLoad() {
+        lock.writeLock().lock();
+        try {
+            pending = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return new Loader();
+    }
+
+    /**
+     * Instala el resultado de la carga tras reaplicar las escrituras recibidas mientras tanto.
+     */
+    void finishLoad(Loader loader) {
+        Table loaded = loader.finish();
+        lock.writeLock().lock();
+        try {
+            if (pending != null) {
+                for (Consumer<Table> op : pending) {
+                    op.accept(loaded);
+                }
+            }
+            pending = null;
+            table = loaded;
+            loadedAt = loader.startedAt;
+            checkedAt = loader.startedAt;
+            loadedVersion = loader.version;
+            stale = false;
+            advanceVersion();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Registra que esta instancia ha confirmado una escritura en user_roles con la
+     * versión del marcador indicada, una vez aplicada al índice. Si es la siguiente
+     * a la cargada, el índice sigue vigente sin recargarse; si entre medias hay
+     * versiones de otras instancias, la próxima comprobación lo recargará. Una
+     * versión 0 (ninguna escritura) no tiene efecto.
+     */
+    void written(long version) {
+        lock.writeLock().lock();
+        try {
+            if (table != null || pending != null) {
+                writtenVersions.add(version);
+                advanceVersion();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    long getLoadedVersion() {
+        lock.readLock().lock();
+        try {
+            return loadedVersion;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Debe llamarse con el bloqueo de escritura
+    private void advanceVersion() {
+        while (writtenVersions.remove(loadedVersion + 1)) {
+            loadedVersion++;
+        }
+        writtenVersions.headSet(loadedVersion, true).clear();
+    }
+
+    void abortLoad() {
+        lock.writeLock().lock();
+        try {
+            pending = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void assign(long userId, long roleId) {
+        int role = toRoleId(roleId);
+        apply(t -> {
+            int[] roles = t.get(userId);
+            if (roles == null) {
+                t.put(userId, new int[] { role });
+                return;
+            }
+            int pos = Arrays.binarySearch(roles, role);
+            if (pos < 0) {
+                int at = -pos - 1;
+                int[] updated = new int[roles.length + 1];
+                System.arraycopy(roles, 0, updated, 0, at);
+                updated[at] = role;
+                System.arraycopy(roles, at, updated, at + 1, roles.length - at);
+                t.put(userId, updated);
+            }
+        });
+    }
+
+    void remove(long userId, long roleId) {
+        if (roleId != (int) roleId) {
+            return;
+        }
+        int role = (int) roleId;
+        apply(t -> {
+            int[] roles = t.get(userId);
+            if (roles != null) {
+                t.put(userId, without(roles, role));
+            }
+        });
+    }
+
+    /**
+     * Reemplaza el conjunto de roles del usuario.
+     */
+    void setRoles(long userId, Collection<Long> roleIds) {
+        int[] roles = new int[roleIds.size()];
+        int n = 0;
+        for (Long roleId : roleIds) {
+            roles[n++] = toRoleId(roleId);
+        }
+        int[] sorted = sortedDistinct(roles, n);
+        apply(t -> t.put(userId, sorted));
+    }
+
+    void removeUser(long userId) {
+        apply(t -> t.remove(userId));
+    }
+
+    /**
+     * Quita el rol a todos sus usuarios, recorriendo solo los del bitmap del rol.
+     */
+    void removeRole(long roleId) {
+        if (roleId != (int) roleId) {
+            return;
+        }
+        int role = (int) roleId;
+        apply(t -> t.removeRole(role));
+    }
+
+    public void invalidate() {
+        lock.writeLock().lock();
+        try {
+            table = null;
+            pending = null;
+            stale = false;
+            writtenVersions.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Usuarios con al menos un rol en el índice (0 si no está cargado).
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return table == null ? 0 : table.size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void apply(Consumer<Table> op) {
+        lock.writeLock().lock();
+        try {
+            if (table != null) {
+                op.accept(table);
+            }
+            if (pending != null) {
+                pending.add(op);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static int toUserId(long userId) {
+        if (userId != (int) userId || userId < 0) {
+            throw new IllegalArgumentException("ID de usuario fuera de rango para el índice: " + userId);
+        }
+        return (int) userId;
+    }
+
+    private static int toRoleId(long roleId) {
+        if (roleId != (int) roleId) {
+            throw new IllegalArgumentException("ID de rol fuera de rango para el índice: " + roleId);
+        }
+        return (int) roleId;
+    }
+
+    private static int[] without(int[] roles, int role) {
+        int pos = Arrays.binarySearch(roles, role);
+        if (pos < 0) {
+            return roles;
+        }
+        int[] updated = new int[roles.length - 1];
+        System.arraycopy(roles, 0, updated, 0, pos);
+        System.arraycopy(roles, pos + 1, updated, pos, roles.length - pos - 1);
+        return updated;
+    }
+
+    private static int[] sortedDistinct(int[] values, int length) {
+        Arrays.sort(values, 0, length);
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            if (n == 0 || values[i] != values[n - 1]) {
+                values[n++] = values[i];
+            }
+        }
+        return n == values.length ? values : Arrays.copyOf(values, n);
+    }
+
+    /**
+     * Resultado de {@link #members}: total de usuarios y una página de sus IDs.
+     */
+    static final class Members {
+        final long count;
+        final int[] userIds;
+
+        Members(long count, int[] userIds) {
+            this.count = count;
+            this.userIds = userIds;
+        }
+    }
+
+    /**
+     * Acumula las filas (user_id, role_id) de una carga, ordenadas por user_id.
+     */
+    final class Loader {
+        // Inicio de la carga y versión del marcador leída antes de consultar user_roles
+        private final long startedAt = System.nanoTime();
+        long version;
+        private final Table loaded = new Table();
+        private long currentUser;
+        private int[] buffer = new int[8];
+        private int count;
+
+        void add(long userId, long roleId) {
+            if (count > 0 && userId != currentUser) {
+                flush();
+            }
+            currentUser = userId;
+            if (count == buffer.length) {
+                buffer = Arrays.copyOf(buffer, count << 1);
+            }
+            buffer[count++] = toRoleId(roleId);
+        }
+
+        private void flush() {
+            int[] roles = sortedDistinct(Arrays.copyOf(buffer, count), count);
+            int[] existing = loaded.get(currentUser);
+            if (existing != null) {
+                // Filas no agrupadas por usuario: se combinan
+                int[] merged = Arrays.copyOf(existing, existing.length + roles.length);
+                System.arraycopy(roles, 0, merged, existing.length, roles.length);
+                roles = sortedDistinct(merged, merged.length);
+            }
+            loaded.put(currentUser, roles);
+            count = 0;
+        }
+
+        Table finish() {
+            if (count > 0) {
+                flush();
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * Tabla hash con sondeo lineal de user_id a int[] de roles, más el bitmap de
+     * usuarios de cada rol. Una ranura está libre cuando su valor es null; los
+     * borrados desplazan hacia atrás las entradas siguientes, así que no hay lápidas.
+     */
+    static final class Table {
+        private static final CompressedBitmap EMPTY = new CompressedBitmap();
+
+        private long[] keys = new long[16];
+        private int[][] values = new int[16][];
+        private int size;
+        private final Map<Integer, CompressedBitmap> usersByRole = new HashMap<>();
+
+        int[] get(long userId) {
+            int mask = keys.length - 1;
+            for (int i = slot(userId, mask); values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == userId) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Asocia los roles al usuario; un array vacío elimina la entrada. Los
+         * bitmaps de los roles se actualizan con la diferencia.
+         */
+        void put(long userId, int[] roles) {
+            int[] previous = get(userId);
+            if (previous == null) {
+                previous = NO_ROLES;
+            }
+            int user = toUserId(userId);
+            for (int role : previous) {
+                if (Arrays.binarySearch(roles, role) < 0) {
+                    removeMember(role, user);
+                }
+            }
+            for (int role : roles) {
+                if (Arrays.binarySearch(previous, role) < 0) {
+                    usersByRole.computeIfAbsent(role, r -> new CompressedBitmap()).add(user);
+                }
+            }
+            if (roles.length == 0) {
+                delete(userId);
+            } else {
+                store(userId, roles);
+            }
+        }
+
+        void remove(long userId) {
+            int[] previous = get(userId);
+            if (previous == null) {
+                return;
+            }
+            for (int role : previous) {
+                removeMember(role, (int) userId);
+            }
+            delete(userId);
+        }
+
+        void removeRole(int role) {
+            CompressedBitmap members = usersByRole.remove(role);
+            if (members == null) {
+                return;
+            }
+            members.forEach(userId -> {
+                int[] updated = without(get(userId), role);
+                if (updated.length == 0) {
+                    delete(userId);
+                } else {
+                    store(userId, updated);
+                }
+            });
+        }
+
+        /**
+         * Combina los bitmaps de los roles; puede devolver uno del propio índice,
+         * así que el resultado solo debe leerse mientras se mantiene el bloqueo.
+         */
+        CompressedBitmap combine(long[] all, long[] any, long[] none) {
+            CompressedBitmap result = null;
+            if (all.length > 0) {
+                // Se empieza por el rol con menos usuarios para acotar las intersecciones
+                CompressedBitmap[] bitmaps = bitmaps(all);
+                Arrays.sort(bitmaps, Comparator.comparingLong(CompressedBitmap::cardinality));
+                result = bitmaps[0];
+                for (int i = 1; i < bitmaps.length && !result.isEmpty(); i++) {
+                    result = CompressedBitmap.and(result, bitmaps[i]);
+                }
+            }
+            if (any.length > 0) {
+                CompressedBitmap union = null;
+                for (CompressedBitmap bitmap : bitmaps(any)) {
+                    union = union == null ? bitmap : CompressedBitmap.or(union, bitmap);
+                }
+                result = result == null ? union : CompressedBitmap.and(result, union);
+            }
+            for (CompressedBitmap bitmap : bitmaps(none)) {
+                if (result.isEmpty()) {
+                    break;
+                }
+                result = CompressedBitmap.andNot(result, bitmap);
+            }
+            return result;
+        }
+
+        private CompressedBitmap[] bitmaps(long[] roleIds) {
+            CompressedBitmap[] bitmaps = new CompressedBitmap[roleIds.length];
+            for (int i = 0; i < roleIds.length; i++) {
+                CompressedBitmap bitmap = roleIds[i] == (int) roleIds[i] ? usersByRole.get((int) roleIds[i]) : null;
+                bitmaps[i] = bitmap == null ? EMPTY : bitmap;
+            }
+            return bitmaps;
+        }
+
+        private void removeMember(int role, int userId) {
+            CompressedBitmap members = usersByRole.get(role);
+            if (members != null) {
+                members.remove(userId);
+                if (members.isEmpty()) {
+                    usersByRole.remove(role);
+                }
+            }
+        }
+
+        private void store(long userId, int[] roles) {
+            int mask = keys.length - 1;
+            int i = slot(userId, mask);
+            while (values[i] != null) {
+                if (keys[i] == userId) {
+                    values[i] = roles;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = userId;
+            values[i] = roles;
+            if (++size * 2 > keys.length) {
+                resize(keys.length << 1);
+            }
+        }
+
+        private void delete(long userId) {
+            int mask = keys.length - 1;
+            int i = slot(userId, mask);
+            while (values[i] != null && keys[i] != userId) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] == null) {
+                return;
+            }
+            // Desplazamiento hacia atrás: cada entrada siguiente del grupo se mueve
+            // al hueco si este queda entre su ranura ideal y su posición actual
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (values[j] == null) {
+                    break;
+                }
+                int ideal = slot(keys[j], mask);
+                if (((j - ideal) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    i = j;
+                }
+            }
+            values[i] = null;
+            size--;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            int[][] oldValues = values;
+            keys = new long[capacity];
+            values = new int[capacity][];
+            size = 0;
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != null) {
+                    store(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int slot(long userId, int mask) {
+            return Long.hashCode(userId * 0x9E3779B97F4A7C15L) & mask;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.usuarioroles.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias con cubetas fijas, sin bloqueos y sin asignar memoria
+ * al registrar.
+ *
+ * Los límites siguen la serie 1-2,5-5 desde 50 µs hasta 10 s, más una cubeta
+ * final sin límite. Los percentiles se estiman al leer, interpolando dentro de
+ * la cubeta que los contiene, así que su precisión es la de las cubetas.
+ */
+public class LatencyHistogram {
+    /** Límites superiores (inclusive) de cada cubeta, en nanosegundos. */
+    static final long[] BOUNDS_NANOS = {
+            50_000L, 100_000L, 250_000L, 500_000L,
+            1_000_000L, 2_500_000L, 5_000_000L,
+            10_000_000L, 25_000_000L, 50_000_000L,
+            100_000_000L, 250_000_000L, 500_000_000L,
+            1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L };
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int i = 0;
+        while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Copia coherente (aproximadamente) de los contadores para informes.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        return new Snapshot(counts, total, sumNanos.sum());
+    }
+
+    public static int bucketCount() {
+        return BOUNDS_NANOS.length + 1;
+    }
+
+    /**
+     * Límite superior de la cubeta {@code i} en nanosegundos, o
+     * Long.MAX_VALUE para la última.
+     */
+    public static long upperBoundNanos(int i) {
+        return i < BOUNDS_NANOS.length ? BOUNDS_NANOS[i] : Long.MAX_VALUE;
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sumNanos;
+
+        Snapshot(long[] counts, long count, long sumNanos) {
+            this.counts = counts;
+            this.count = count;
+            this.sumNanos = sumNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSumNanos() {
+            return sumNanos;
+        }
+
+        public long getBucketCount(int i) {
+            return counts[i];
+        }
+
+        /**
+         * Percentil estimado en nanosegundos ({@code quantile} entre 0 y 1).
+         */
+        public long percentileNanos(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            double rank = quantile * count;
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    continue;
+                }
+                if (cumulative + counts[i] >= rank) {
+                    long lower = i == 0 ? 0 : BOUNDS_NANOS[i - 1];
+                    if (i == BOUNDS_NANOS.length) {
+                        return lower;
+                    }
+                    double fraction = (rank - cumulative) / counts[i];
+                    return lower + (long) ((BOUNDS_NANOS[i] - lower) * fraction);
+                }
+                cumulative += counts[i];
+            }
+            return BOUNDS_NANOS[BOUNDS_NANOS.length - 1];
+        }
+    }
+}
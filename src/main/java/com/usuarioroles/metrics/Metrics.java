@@ -0,0 +1,42 @@
+package com.usuarioroles.metrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registro de métricas de la aplicación. Las clases guardan las
+ * OperationMetrics que usan en constantes, de modo que registrar no requiere
+ * buscar en el mapa.
+ */
+public final class Metrics {
+    private static final ConcurrentMap<String, OperationMetrics> FUNCTIONS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, OperationMetrics> DAO_METHODS = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Métricas de la función HTTP con el nombre de {@code @FunctionName}.
+     */
+    public static OperationMetrics function(String name) {
+        return FUNCTIONS.computeIfAbsent(name, key -> new OperationMetrics(key, null));
+    }
+
+    /**
+     * Métricas de un método de DAO, con nombre "Clase.método". Su tiempo fuera
+     * de la base de datos cuenta como mapeo en la traza de la petición.
+     */
+    public static OperationMetrics dao(String name) {
+        return DAO_METHODS.computeIfAbsent(name, key -> new OperationMetrics(key, RequestTrace.Phase.MAPPING));
+    }
+
+    public static Collection<OperationMetrics> functions() {
+        return Collections.unmodifiableCollection(FUNCTIONS.values());
+    }
+
+    public static Collection<OperationMetrics> daoMethods() {
+        return Collections.unmodifiableCollection(DAO_METHODS.values());
+    }
+}
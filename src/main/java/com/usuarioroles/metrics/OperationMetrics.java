@@ -0,0 +1,134 @@
+package com.usuarioroles.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+
+/**
+ * Latencia y resultados de una operación (una función HTTP o un método de DAO).
+ * Registrar no bloquea ni asigna memoria. Si la operación tiene una fase de
+ * traza, {@link #start()} y {@link #record(long)} la abren y cierran en la
+ * {@link RequestTrace} de la petición en curso.
+ *
+ * Las funciones y los DAO no llaman a esos métodos directamente, sino que
+ * envuelven cada operación con {@link #time(HttpRequestMessage, Handler)} o
+ * {@link #time(Call)}.
+ */
+public class OperationMetrics {
+    private static final int MAX_STATUS = 600;
+
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLongArray statuses = new AtomicLongArray(MAX_STATUS);
+    private final LongAdder errors = new LongAdder();
+    private final RequestTrace.Phase phase;
+
+    OperationMetrics(String name, RequestTrace.Phase phase) {
+        this.name = name;
+        this.phase = phase;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Manejador de una función HTTP.
+     */
+    public interface Handler<T> {
+        HttpResponseMessage handle(HttpRequestMessage<T> request);
+    }
+
+    /**
+     * Llamada de un DAO.
+     */
+    public interface Call<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /**
+     * Invoca una función HTTP dentro de su {@link RequestTrace} y registra su
+     * latencia y código de estado.
+     */
+    public <T> HttpResponseMessage time(HttpRequestMessage<T> request, Handler<T> handler) {
+        long start = System.nanoTime();
+        HttpResponseMessage response = null;
+        HttpRequestMessage<T> traced = RequestTrace.start(name, request);
+        try {
+            response = handler.handle(traced);
+            return response;
+        } finally {
+            record(start, response);
+            RequestTrace.finish(response);
+        }
+    }
+
+    /**
+     * Ejecuta una llamada de DAO y registra su latencia y, si lanza una
+     * excepción, el error.
+     */
+    public <T, E extends Exception> T time(Call<T, E> call) throws E {
+        long start = start();
+        try {
+            return call.call();
+        } catch (Exception e) {
+            error();
+            throw e;
+        } finally {
+            record(start);
+        }
+    }
+
+    /**
+     * Registra una invocación de función que empezó en {@code startNanos}
+     * (System.nanoTime). Si no hay respuesta (excepción) cuenta como 500.
+     */
+    public void record(long startNanos, HttpResponseMessage response) {
+        latency.record(System.nanoTime() - startNanos);
+        int status = response == null ? 500 : response.getStatusCode();
+        statuses.incrementAndGet(status > 0 && status < MAX_STATUS ? status : 0);
+    }
+
+    /**
+     * Marca el inicio de una llamada y devuelve el instante para
+     * {@link #record(long)}.
+     */
+    public long start() {
+        if (phase != null) {
+            RequestTrace.enterCurrent(phase);
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Registra una llamada que empezó en {@code startNanos} (System.nanoTime).
+     */
+    public void record(long startNanos) {
+        latency.record(System.nanoTime() - startNanos);
+        if (phase != null) {
+            RequestTrace.exitCurrent();
+        }
+    }
+
+    public void error() {
+        errors.increment();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getStatusCount(int status) {
+        return statuses.get(status);
+    }
+
+    public int maxStatus() {
+        return MAX_STATUS;
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+}
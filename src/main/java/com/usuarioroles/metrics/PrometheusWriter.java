@@ -0,0 +1,140 @@
+package com.usuarioroles.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Construye la salida en el formato de texto de Prometheus (versión 0.0.4).
+ */
+public class PrometheusWriter {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = { 0.5, 0.95, 0.99 };
+
+    private final StringBuilder out = new StringBuilder(16 * 1024);
+
+    /**
+     * Histograma de latencias por operación, más un gauge con los percentiles
+     * estimados (p50, p95, p99) de cada una.
+     */
+    public PrometheusWriter latencies(String name, String help, String label, Collection<OperationMetrics> operations) {
+        List<OperationMetrics> sorted = sorted(operations);
+        List<LatencyHistogram.Snapshot> snapshots = new ArrayList<>(sorted.size());
+        for (OperationMetrics op : sorted) {
+            snapshots.add(op.getLatency().snapshot());
+        }
+
+        header(name, help, "histogram");
+        for (int k = 0; k < sorted.size(); k++) {
+            String labels = label + "=\"" + escape(sorted.get(k).getName()) + "\"";
+            LatencyHistogram.Snapshot snapshot = snapshots.get(k);
+            long cumulative = 0;
+            for (int i = 0; i < LatencyHistogram.bucketCount(); i++) {
+                cumulative += snapshot.getBucketCount(i);
+                long bound = LatencyHistogram.upperBoundNanos(i);
+                String le = bound == Long.MAX_VALUE ? "+Inf" : seconds(bound);
+                sample(name + "_bucket", labels + ",le=\"" + le + "\"", Long.toString(cumulative));
+            }
+            sample(name + "_sum", labels, seconds(snapshot.getSumNanos()));
+            sample(name + "_count", labels, Long.toString(cumulative));
+        }
+
+        String quantiles = name.replace("_seconds", "_quantile_seconds");
+        header(quantiles, help + " (percentiles estimados)", "gauge");
+        for (int k = 0; k < sorted.size(); k++) {
+            String labels = label + "=\"" + escape(sorted.get(k).getName()) + "\"";
+            for (double q : QUANTILES) {
+                sample(quantiles, labels + ",quantile=\"" + q + "\"",
+                        seconds(snapshots.get(k).percentileNanos(q)));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Contador de respuestas por operación y código HTTP.
+     */
+    public PrometheusWriter statuses(String name, String help, String label, Collection<OperationMetrics> operations) {
+        header(name, help, "counter");
+        for (OperationMetrics op : sorted(operations)) {
+            for (int status = 0; status < op.maxStatus(); status++) {
+                long count = op.getStatusCount(status);
+                if (count > 0) {
+                    sample(name, label + "=\"" + escape(op.getName()) + "\",status=\"" + status + "\"",
+                            Long.toString(count));
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Contador de errores (excepciones) por operación.
+     */
+    public PrometheusWriter errors(String name, String help, String label, Collection<OperationMetrics> operations) {
+        header(name, help, "counter");
+        for (OperationMetrics op : sorted(operations)) {
+            sample(name, label + "=\"" + escape(op.getName()) + "\"", Long.toString(op.getErrors()));
+        }
+        return this;
+    }
+
+    /**
+     * Contador con un valor por cada valor de la etiqueta.
+     */
+    public PrometheusWriter counters(String name, String help, String label, Map<String, Long> values) {
+        header(name, help, "counter");
+        for (Map.Entry<String, Long> entry : new TreeMap<>(values).entrySet()) {
+            sample(name, label + "=\"" + escape(entry.getKey()) + "\"", Long.toString(entry.getValue()));
+        }
+        return this;
+    }
+
+    public PrometheusWriter counter(String name, String help, long value) {
+        header(name, help, "counter");
+        sample(name, null, Long.toString(value));
+        return this;
+    }
+
+    public PrometheusWriter gauge(String name, String help, double value) {
+        header(name, help, "gauge");
+        sample(name, null, Double.toString(value));
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private void header(String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private void sample(String name, String labels, String value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static List<OperationMetrics> sorted(Collection<OperationMetrics> operations) {
+        List<OperationMetrics> sorted = new ArrayList<>(operations);
+        sorted.sort(Comparator.comparing(OperationMetrics::getName));
+        return sorted;
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,358 @@
+package com.usuarioroles.metrics;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.microsoft.azure.functions.HttpMethod;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.microsoft.azure.functions.HttpStatusType;
+import com.usuarioroles.util.AppSettings;
+
+/**
+ * Traza de una petición HTTP: reparte su tiempo entre base de datos, mapeo de
+ * filas en los DAO, serialización JSON, compresión y construcción de la respuesta.
+ *
+ * La traza vive en un ThreadLocal mientras se ejecuta la función; la abre y
+ * cierra {@link OperationMetrics#time(HttpRequestMessage, OperationMetrics.Handler)}
+ * alrededor de cada handler. Cada fase se
+ * abre con {@link #enter(Phase)} y se cierra con {@link #exit()}; las fases se
+ * anidan y el tiempo se cuenta de forma exclusiva, de modo que el tiempo de
+ * base de datos dentro de un DAO no se cuenta también como mapeo. Lo que no cae
+ * en ninguna fase se atribuye al propio handler.
+ *
+ * Al construir la respuesta se añade la cabecera Server-Timing y al terminar se
+ * escribe una línea JSON con el desglose. Solo se trazan las peticiones con la
+ * cabecera {@code X-Trace} o una de cada TRACE_SAMPLE_EVERY (0 desactiva el
+ * muestreo); en las demás el coste es una lectura del ThreadLocal por fase.
+ */
+public final class RequestTrace {
+    private static final Logger LOGGER = Logger.getLogger(RequestTrace.class.getName());
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+    private static final int SAMPLE_EVERY = AppSettings.getInt("TRACE_SAMPLE_EVERY", 0);
+    private static final String TRACE_HEADER = "x-trace";
+    private static final int MAX_DEPTH = 16;
+
+    /**
+     * Fases de una petición, con el nombre que se usa en Server-Timing.
+     */
+    public enum Phase {
+        HANDLER("handler"),
+        DATABASE("db"),
+        MAPPING("map"),
+        SERIALIZATION("json"),
+        COMPRESSION("compress"),
+        BUILD("build");
+
+        private final String metricName;
+
+        Phase(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public String getMetricName() {
+            return metricName;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final String id;
+    private final String function;
+    private final long startNanos;
+    private final long[] nanos = new long[PHASES.length];
+    private final int[] counts = new int[PHASES.length];
+    private final Phase[] stack = new Phase[MAX_DEPTH];
+    private int depth;
+    // Fases abiertas por encima de MAX_DEPTH, que no se apilan
+    private int overflow;
+    private long mark;
+
+    private RequestTrace(String id, String function) {
+        this.id = id;
+        this.function = function;
+        this.startNanos = System.nanoTime();
+        this.mark = startNanos;
+        this.stack[0] = Phase.HANDLER;
+    }
+
+    /**
+     * Empieza la traza de la función si la petición se muestrea y devuelve la
+     * petición que debe recibir el handler: la misma si no se traza, o una que
+     * añade Server-Timing a la respuesta que construya.
+     */
+    public static <T> HttpRequestMessage<T> start(String function, HttpRequestMessage<T> request) {
+        if (!isSampled(request)) {
+            return request;
+        }
+        RequestTrace trace = new RequestTrace(Long.toHexString(ThreadLocalRandom.current().nextLong()), function);
+        CURRENT.set(trace);
+        return new TracedRequest<>(request, trace);
+    }
+
+    /**
+     * Termina la traza del hilo actual, si la hay, y escribe su línea JSON.
+     */
+    public static void finish(HttpResponseMessage response) {
+        RequestTrace trace = CURRENT.get();
+        if (trace == null) {
+            return;
+        }
+        CURRENT.remove();
+        trace.close();
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, trace.toJson(response == null ? 500 : response.getStatusCode()));
+        }
+    }
+
+    /**
+     * Traza del hilo actual, o null si la petición no se está trazando.
+     */
+    public static RequestTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Abre una fase en la traza del hilo actual, si la hay.
+     */
+    public static void enterCurrent(Phase phase) {
+        RequestTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.enter(phase);
+        }
+    }
+
+    /**
+     * Cierra la última fase abierta en la traza del hilo actual, si la hay.
+     */
+    public static void exitCurrent() {
+        RequestTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.exit();
+        }
+    }
+
+    private static boolean isSampled(HttpRequestMessage<?> request) {
+        Map<String, String> headers = request.getHeaders();
+        if (headers != null) {
+            String value = headers.get(TRACE_HEADER);
+            if (value == null) {
+                value = headers.get("X-Trace");
+            }
+            if (value != null) {
+                return !"0".equals(value);
+            }
+        }
+        return SAMPLE_EVERY > 0 && ThreadLocalRandom.current().nextInt(SAMPLE_EVERY) == 0;
+    }
+
+    /**
+     * Abre una fase; el tiempo hasta el {@link #exit()} correspondiente se le
+     * atribuye a ella, salvo el de las fases que se abran dentro.
+     */
+    public void enter(Phase phase) {
+        counts[phase.ordinal()]++;
+        resume(phase);
+    }
+
+    /**
+     * Abre una fase sin contarla como una llamada nueva, p. ej. al leer filas de
+     * una consulta que ya se contó al ejecutarla.
+     */
+    public void resume(Phase phase) {
+        if (depth + 1 >= MAX_DEPTH) {
+            overflow++;
+            return;
+        }
+        long now = System.nanoTime();
+        nanos[stack[depth].ordinal()] += now - mark;
+        mark = now;
+        stack[++depth] = phase;
+    }
+
+    /**
+     * Cierra la última fase abierta.
+     */
+    public void exit() {
+        if (overflow > 0) {
+            overflow--;
+            return;
+        }
+        if (depth == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        nanos[stack[depth--].ordinal()] += now - mark;
+        mark = now;
+    }
+
+    private void close() {
+        while (depth > 0) {
+            exit();
+        }
+        long now = System.nanoTime();
+        nanos[Phase.HANDLER.ordinal()] += now - mark;
+        mark = now;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Tiempo exclusivo acumulado en la fase hasta la última transición.
+     */
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * Veces que se ha entrado en la fase con {@link #enter(Phase)}: sentencias
+     * ejecutadas para DATABASE y llamadas a DAO para MAPPING.
+     */
+    public int getCount(Phase phase) {
+        return counts[phase.ordinal()];
+    }
+
+    /**
+     * Valor de la cabecera Server-Timing con el desglose hasta este momento.
+     */
+    public String serverTiming() {
+        long now = System.nanoTime();
+        StringBuilder sb = new StringBuilder(128);
+        for (Phase phase : PHASES) {
+            long value = nanos[phase.ordinal()];
+            if (phase == stack[depth]) {
+                value += now - mark;
+            }
+            if (value > 0 || phase == Phase.DATABASE) {
+                appendMillis(sb.append(phase.metricName).append(";dur="), value).append(", ");
+            }
+        }
+        appendMillis(sb.append("total;dur="), now - startNanos);
+        return sb.toString();
+    }
+
+    private String toJson(int status) {
+        StringBuilder sb = new StringBuilder(192);
+        sb.append("{\"trace\":\"").append(id)
+                .append("\",\"function\":\"").append(function)
+                .append("\",\"status\":").append(status)
+                .append(",\"totalMs\":");
+        appendMillis(sb, mark - startNanos).append(",\"spans\":{");
+        for (int i = 0; i < PHASES.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            appendMillis(sb.append('"').append(PHASES[i].metricName).append("\":"), nanos[i]);
+        }
+        return sb.append("},\"dbCalls\":").append(counts[Phase.DATABASE.ordinal()])
+                .append(",\"daoCalls\":").append(counts[Phase.MAPPING.ordinal()])
+                .append('}').toString();
+    }
+
+    private static StringBuilder appendMillis(StringBuilder sb, long nanos) {
+        // Milisegundos con tres decimales, sin String.format
+        long micros = nanos / 1_000;
+        sb.append(micros / 1_000).append('.');
+        long fraction = micros % 1_000;
+        if (fraction < 100) {
+            sb.append('0');
+        }
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction);
+    }
+
+    /**
+     * Petición que delega en la original y cuyas respuestas llevan Server-Timing.
+     */
+    private static final class TracedRequest<T> implements HttpRequestMessage<T> {
+        private final HttpRequestMessage<T> request;
+        private final RequestTrace trace;
+
+        TracedRequest(HttpRequestMessage<T> request, RequestTrace trace) {
+            this.request = request;
+            this.trace = trace;
+        }
+
+        @Override
+        public URI getUri() {
+            return request.getUri();
+        }
+
+        @Override
+        public HttpMethod getHttpMethod() {
+            return request.getHttpMethod();
+        }
+
+        @Override
+        public Map<String, String> getHeaders() {
+            return request.getHeaders();
+        }
+
+        @Override
+        public Map<String, String> getQueryParameters() {
+            return request.getQueryParameters();
+        }
+
+        @Override
+        public T getBody() {
+            return request.getBody();
+        }
+
+        @Override
+        public HttpResponseMessage.Builder createResponseBuilder(HttpStatus status) {
+            return new TracedBuilder(request.createResponseBuilder(status), trace);
+        }
+
+        @Override
+        public HttpResponseMessage.Builder createResponseBuilder(HttpStatusType status) {
+            return new TracedBuilder(request.createResponseBuilder(status), trace);
+        }
+    }
+
+    private static final class TracedBuilder implements HttpResponseMessage.Builder {
+        private final HttpResponseMessage.Builder builder;
+        private final RequestTrace trace;
+
+        TracedBuilder(HttpResponseMessage.Builder builder, RequestTrace trace) {
+            this.builder = builder;
+            this.trace = trace;
+        }
+
+        @Override
+        public HttpResponseMessage.Builder status(HttpStatusType status) {
+            builder.status(status);
+            return this;
+        }
+
+        @Override
+        public HttpResponseMessage.Builder header(String key, String value) {
+            builder.header(key, value);
+            return this;
+        }
+
+        @Override
+        public HttpResponseMessage.Builder body(Object body) {
+            builder.body(body);
+            return this;
+        }
+
+        @Override
+        public HttpResponseMessage build() {
+            trace.enter(Phase.BUILD);
+            try {
+                builder.header("Server-Timing", trace.serverTiming());
+                return builder.build();
+            } finally {
+                trace.exit();
+            }
+        }
+    }
+}
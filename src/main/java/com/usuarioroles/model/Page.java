@@ -0,0 +1,46 @@
+package com.usuarioroles.model;
+
+import java.util.List;
+
+/**
+ * Página de resultados con paginación por cursor (keyset).
+ * {@code next} es null cuando no hay más elementos.
+ */
+public class Page<T> {
+    private List<T> items;
+    private String next;
+
+    // Constructores
+    public Page() {
+    }
+
+    public Page(List<T> items, String next) {
+        this.items = items;
+        this.next = next;
+    }
+
+    // Getters y Setters
+    public List<T> getItems() {
+        return items;
+    }
+
+    public void setItems(List<T> items) {
+        this.items = items;
+    }
+
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
+
+    @Override
+    public String toString() {
+        return "Page{" +
+                "items=" + (items == null ? 0 : items.size()) +
+                ", next='" + next + '\'' +
+                '}';
+    }
+}
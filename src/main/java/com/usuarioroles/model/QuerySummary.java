@@ -0,0 +1,67 @@
+package com.usuarioroles.model;
+
+/**
+ * Resumen de las ejecuciones de una sentencia SQL normalizada, para el informe
+ * de consultas más costosas.
+ */
+public class QuerySummary {
+    private String sql;
+    private long executions;
+    private double totalMs;
+    private double avgMs;
+    private double maxMs;
+    private long rows;
+    private long errors;
+
+    // Constructores
+    public QuerySummary() {
+    }
+
+    public QuerySummary(String sql, long executions, long totalNanos, long maxNanos, long rows, long errors) {
+        this.sql = sql;
+        this.executions = executions;
+        this.totalMs = totalNanos / 1e6;
+        this.avgMs = executions == 0 ? 0 : totalMs / executions;
+        this.maxMs = maxNanos / 1e6;
+        this.rows = rows;
+        this.errors = errors;
+    }
+
+    // Getters
+    public String getSql() {
+        return sql;
+    }
+
+    public long getExecutions() {
+        return executions;
+    }
+
+    public double getTotalMs() {
+        return totalMs;
+    }
+
+    public double getAvgMs() {
+        return avgMs;
+    }
+
+    public double getMaxMs() {
+        return maxMs;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    @Override
+    public String toString() {
+        return "QuerySummary{" +
+                "sql='" + sql + '\'' +
+                ", executions=" + executions +
+                ", totalMs=" + totalMs +
+                '}';
+    }
+}
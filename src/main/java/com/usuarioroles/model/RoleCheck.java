@@ -0,0 +1,54 @@
+package com.usuarioroles.model;
+
+/**
+ * Comprobación de si un usuario tiene asignado un rol.
+ */
+public class RoleCheck {
+    private Long userId;
+    private Long roleId;
+    private Boolean hasRole;
+
+    // Constructores
+    public RoleCheck() {
+    }
+
+    public RoleCheck(Long userId, Long roleId, Boolean hasRole) {
+        this.userId = userId;
+        this.roleId = roleId;
+        this.hasRole = hasRole;
+    }
+
+    // Getters y Setters
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public Long getRoleId() {
+        return roleId;
+    }
+
+    public void setRoleId(Long roleId) {
+        this.roleId = roleId;
+    }
+
+    public Boolean getHasRole() {
+        return hasRole;
+    }
+
+    public void setHasRole(Boolean hasRole) {
+        this.hasRole = hasRole;
+    }
+
+    @Override
+    public String toString() {
+        return "RoleCheck{" +
+                "userId=" + userId +
+                ", roleId=" + roleId +
+                ", hasRole=" + hasRole +
+                '}';
+    }
+}
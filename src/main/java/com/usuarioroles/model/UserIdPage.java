@@ -0,0 +1,57 @@
+package com.usuarioroles.model;
+
+import java.util.List;
+
+/**
+ * Página de IDs de usuario de una consulta por roles, con el total de usuarios
+ * que cumplen la consulta. {@code next} es null cuando no hay más elementos.
+ */
+public class UserIdPage {
+    private long count;
+    private List<Long> items;
+    private String next;
+
+    // Constructores
+    public UserIdPage() {
+    }
+
+    public UserIdPage(long count, List<Long> items, String next) {
+        this.count = count;
+        this.items = items;
+        this.next = next;
+    }
+
+    // Getters y Setters
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public List<Long> getItems() {
+        return items;
+    }
+
+    public void setItems(List<Long> items) {
+        this.items = items;
+    }
+
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
+
+    @Override
+    public String toString() {
+        return "UserIdPage{" +
+                "count=" + count +
+                ", items=" + items +
+                ", next='" + next + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,57 @@
+package com.usuarioroles.util;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lectura de la configuración de la aplicación.
+ *
+ * Los valores se buscan primero como propiedad del sistema (-Dnombre=valor) y
+ * luego como variable de entorno (App Settings de Azure Functions). Si no existe
+ * o no es válido se usa el valor por defecto.
+ */
+public final class AppSettings {
+    private static final Logger LOGGER = Logger.getLogger(AppSettings.class.getName());
+
+    private AppSettings() {
+    }
+
+    public static String getString(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.isEmpty()) {
+            value = System.getenv(name);
+        }
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Valor inválido para " + name + ": " + value + ", se usa " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Valor inválido para " + name + ": " + value + ", se usa " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
@@ -0,0 +1,563 @@
+package com.usuarioroles.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Conjunto de enteros no negativos comprimido al estilo Roaring.
+ *
+ * Los valores se reparten por sus 16 bits altos en contenedores de hasta 65536
+ * valores. Un contenedor con pocos valores (hasta {@value #ARRAY_MAX}) es un char[]
+ * ordenado; uno más denso es un mapa de 1024 longs (8 KB). Así un rol con pocos
+ * usuarios ocupa unos bytes por usuario y uno con millones ocupa un bit por usuario,
+ * y las intersecciones, uniones y diferencias se hacen contenedor a contenedor
+ * (por palabras de 64 bits en los densos) sin recorrer valores individuales.
+ *
+ * No es seguro para uso concurrente: quien lo comparta debe sincronizar el acceso.
+ */
+public final class CompressedBitmap {
+    static final int ARRAY_MAX = 4096;
+
+    // Claves (16 bits altos) ordenadas y su contenedor, en las posiciones [0, size)
+    private char[] keys;
+    private Container[] containers;
+    private int size;
+
+    public CompressedBitmap() {
+        this(4);
+    }
+
+    private CompressedBitmap(int capacity) {
+        keys = new char[capacity];
+        containers = new Container[capacity];
+    }
+
+    /**
+     * @return true si el valor no estaba
+     */
+    public boolean add(int value) {
+        checkValue(value);
+        char key = (char) (value >>> 16);
+        int pos = indexOf(key);
+        if (pos < 0) {
+            pos = -pos - 1;
+            insertAt(pos, key, new ArrayContainer());
+        }
+        Container container = containers[pos];
+        int before = container.cardinality();
+        containers[pos] = container.add((char) value);
+        return containers[pos].cardinality() != before;
+    }
+
+    /**
+     * @return true si el valor estaba
+     */
+    public boolean remove(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int pos = indexOf((char) (value >>> 16));
+        if (pos < 0) {
+            return false;
+        }
+        Container container = containers[pos];
+        int before = container.cardinality();
+        Container updated = container.remove((char) value);
+        if (updated.cardinality() == 0) {
+            removeAt(pos);
+        } else {
+            containers[pos] = updated;
+        }
+        return updated.cardinality() != before;
+    }
+
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int pos = indexOf((char) (value >>> 16));
+        return pos >= 0 && containers[pos].contains((char) value);
+    }
+
+    public long cardinality() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += containers[i].cardinality();
+        }
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public CompressedBitmap copy() {
+        CompressedBitmap copy = new CompressedBitmap(Math.max(size, 4));
+        for (int i = 0; i < size; i++) {
+            copy.keys[i] = keys[i];
+            copy.containers[i] = containers[i].copy();
+        }
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Intersección, como un bitmap nuevo.
+     */
+    public static CompressedBitmap and(CompressedBitmap a, CompressedBitmap b) {
+        CompressedBitmap result = new CompressedBitmap(Math.max(Math.min(a.size, b.size), 4));
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                result.appendIfNotEmpty(a.keys[i], a.containers[i].and(b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Unión, como un bitmap nuevo.
+     */
+    public static CompressedBitmap or(CompressedBitmap a, CompressedBitmap b) {
+        CompressedBitmap result = new CompressedBitmap(Math.max(a.size + b.size, 4));
+        int i = 0;
+        int j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                result.appendIfNotEmpty(a.keys[i], a.containers[i].copy());
+                i++;
+            } else if (i == a.size || a.keys[i] > b.keys[j]) {
+                result.appendIfNotEmpty(b.keys[j], b.containers[j].copy());
+                j++;
+            } else {
+                result.appendIfNotEmpty(a.keys[i], a.containers[i].or(b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Diferencia a \ b, como un bitmap nuevo.
+     */
+    public static CompressedBitmap andNot(CompressedBitmap a, CompressedBitmap b) {
+        CompressedBitmap result = new CompressedBitmap(Math.max(a.size, 4));
+        int j = 0;
+        for (int i = 0; i < a.size; i++) {
+            while (j < b.size && b.keys[j] < a.keys[i]) {
+                j++;
+            }
+            if (j < b.size && b.keys[j] == a.keys[i]) {
+                result.appendIfNotEmpty(a.keys[i], a.containers[i].andNot(b.containers[j]));
+            } else {
+                result.appendIfNotEmpty(a.keys[i], a.containers[i].copy());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tamaño de la intersección sin construirla.
+     */
+    public static long andCardinality(CompressedBitmap a, CompressedBitmap b) {
+        long total = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                total += a.containers[i].andCardinality(b.containers[j]);
+                i++;
+                j++;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Entrega en orden ascendente hasta {@code limit} valores mayores que {@code after}.
+     *
+     * @return número de valores entregados
+     */
+    public int forEachAfter(long after, int limit, IntConsumer consumer) {
+        if (limit <= 0 || after >= Integer.MAX_VALUE) {
+            return 0;
+        }
+        int from = after < 0 ? 0 : (int) after + 1;
+        char fromKey = (char) (from >>> 16);
+        int pos = indexOf(fromKey);
+        if (pos < 0) {
+            pos = -pos - 1;
+        }
+        int delivered = 0;
+        for (int i = pos; i < size && delivered < limit; i++) {
+            int high = keys[i] << 16;
+            char low = keys[i] == fromKey ? (char) from : 0;
+            delivered += containers[i].forEachFrom(low, high, limit - delivered, consumer);
+        }
+        return delivered;
+    }
+
+    public void forEach(IntConsumer consumer) {
+        forEachAfter(-1, Integer.MAX_VALUE, consumer);
+    }
+
+    /**
+     * Bytes aproximados que ocupan los contenedores.
+     */
+    public long sizeInBytes() {
+        long total = size * 2L;
+        for (int i = 0; i < size; i++) {
+            total += containers[i].sizeInBytes();
+        }
+        return total;
+    }
+
+    private static void checkValue(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Valor negativo en el bitmap: " + value);
+        }
+    }
+
+    private int indexOf(char key) {
+        // Búsqueda binaria sobre las claves en uso
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else if (keys[mid] > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void insertAt(int pos, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+            containers = Arrays.copyOf(containers, size << 1);
+        }
+        System.arraycopy(keys, pos, keys, pos + 1, size - pos);
+        System.arraycopy(containers, pos, containers, pos + 1, size - pos);
+        keys[pos] = key;
+        containers[pos] = container;
+        size++;
+    }
+
+    private void removeAt(int pos) {
+        System.arraycopy(keys, pos + 1, keys, pos, size - pos - 1);
+        System.arraycopy(containers, pos + 1, containers, pos, size - pos - 1);
+        containers[--size] = null;
+    }
+
+    private void appendIfNotEmpty(char key, Container container) {
+        if (container.cardinality() > 0) {
+            insertAt(size, key, container);
+        }
+    }
+
+    /**
+     * Valores que comparten los 16 bits altos. Las operaciones que cambian de
+     * representación devuelven el contenedor resultante.
+     */
+    private abstract static class Container {
+        abstract int cardinality();
+
+        abstract boolean contains(char value);
+
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract Container copy();
+
+        abstract int forEachFrom(char from, int high, int limit, IntConsumer consumer);
+
+        abstract long sizeInBytes();
+
+        abstract BitmapContainer toBitmap();
+
+        Container and(Container other) {
+            if (this instanceof ArrayContainer) {
+                return ((ArrayContainer) this).filter(other, true);
+            }
+            if (other instanceof ArrayContainer) {
+                return ((ArrayContainer) other).filter(this, true);
+            }
+            return ((BitmapContainer) this).combine((BitmapContainer) other, Op.AND);
+        }
+
+        Container or(Container other) {
+            if (this instanceof ArrayContainer && other instanceof ArrayContainer) {
+                return ((ArrayContainer) this).union((ArrayContainer) other);
+            }
+            return toBitmap().combine(other.toBitmap(), Op.OR);
+        }
+
+        Container andNot(Container other) {
+            if (this instanceof ArrayContainer) {
+                return ((ArrayContainer) this).filter(other, false);
+            }
+            return ((BitmapContainer) this).combine(other.toBitmap(), Op.AND_NOT);
+        }
+
+        long andCardinality(Container other) {
+            if (this instanceof BitmapContainer && other instanceof BitmapContainer) {
+                long[] a = ((BitmapContainer) this).words;
+                long[] b = ((BitmapContainer) other).words;
+                long total = 0;
+                for (int k = 0; k < a.length; k++) {
+                    total += Long.bitCount(a[k] & b[k]);
+                }
+                return total;
+            }
+            return and(other).cardinality();
+        }
+    }
+
+    private enum Op {
+        AND, OR, AND_NOT
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        Container add(char value) {
+            int pos = Arrays.binarySearch(values, 0, cardinality, value);
+            if (pos >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_MAX) {
+                return toBitmap().add(value);
+            }
+            pos = -pos - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(cardinality << 1, ARRAY_MAX));
+            }
+            System.arraycopy(values, pos, values, pos + 1, cardinality - pos);
+            values[pos] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int pos = Arrays.binarySearch(values, 0, cardinality, value);
+            if (pos >= 0) {
+                System.arraycopy(values, pos + 1, values, pos, cardinality - pos - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+        }
+
+        @Override
+        int forEachFrom(char from, int high, int limit, IntConsumer consumer) {
+            int pos = Arrays.binarySearch(values, 0, cardinality, from);
+            if (pos < 0) {
+                pos = -pos - 1;
+            }
+            int delivered = 0;
+            for (int i = pos; i < cardinality && delivered < limit; i++) {
+                consumer.accept(high | values[i]);
+                delivered++;
+            }
+            return delivered;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return values.length * 2L;
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.words[values[i] >>> 6] |= 1L << values[i];
+            }
+            bitmap.cardinality = cardinality;
+            return bitmap;
+        }
+
+        /**
+         * Valores propios que están (keep = true) o no están (keep = false) en other.
+         */
+        ArrayContainer filter(Container other, boolean keep) {
+            char[] result = new char[Math.max(cardinality, 1)];
+            int n = 0;
+            for (int i = 0; i < cardinality; i++) {
+                if (other.contains(values[i]) == keep) {
+                    result[n++] = values[i];
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        Container union(ArrayContainer other) {
+            char[] result = new char[cardinality + other.cardinality];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < cardinality || j < other.cardinality) {
+                if (j == other.cardinality || (i < cardinality && values[i] < other.values[j])) {
+                    result[n++] = values[i++];
+                } else if (i == cardinality || values[i] > other.values[j]) {
+                    result[n++] = other.values[j++];
+                } else {
+                    result[n++] = values[i++];
+                    j++;
+                }
+            }
+            if (n > ARRAY_MAX) {
+                return new ArrayContainer(result, n).toBitmap();
+            }
+            return new ArrayContainer(result, n);
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words = new long[1024];
+        private int cardinality;
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        Container add(char value) {
+            long before = words[value >>> 6];
+            words[value >>> 6] = before | (1L << value);
+            if (before != words[value >>> 6]) {
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            long before = words[value >>> 6];
+            words[value >>> 6] = before & ~(1L << value);
+            if (before != words[value >>> 6]) {
+                cardinality--;
+                if (cardinality <= ARRAY_MAX) {
+                    return toArray();
+                }
+            }
+            return this;
+        }
+
+        @Override
+        Container copy() {
+            BitmapContainer copy = new BitmapContainer();
+            System.arraycopy(words, 0, copy.words, 0, words.length);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        @Override
+        int forEachFrom(char from, int high, int limit, IntConsumer consumer) {
+            int delivered = 0;
+            int k = from >>> 6;
+            long word = words[k] & (-1L << from);
+            while (delivered < limit) {
+                while (word == 0) {
+                    if (++k == words.length) {
+                        return delivered;
+                    }
+                    word = words[k];
+                }
+                consumer.accept(high | (k << 6) | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+                delivered++;
+            }
+            return delivered;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return words.length * 8L;
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            return this;
+        }
+
+        Container combine(BitmapContainer other, Op op) {
+            BitmapContainer result = new BitmapContainer();
+            int total = 0;
+            for (int k = 0; k < words.length; k++) {
+                long word;
+                switch (op) {
+                    case AND: word = words[k] & other.words[k]; break;
+                    case OR: word = words[k] | other.words[k]; break;
+                    default: word = words[k] & ~other.words[k]; break;
+                }
+                result.words[k] = word;
+                total += Long.bitCount(word);
+            }
+            result.cardinality = total;
+            return total <= ARRAY_MAX ? result.toArray() : result;
+        }
+
+        private ArrayContainer toArray() {
+            char[] values = new char[Math.max(cardinality, 1)];
+            int n = 0;
+            for (int k = 0; k < words.length; k++) {
+                long word = words[k];
+                while (word != 0) {
+                    values[n++] = (char) ((k << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+    }
+}
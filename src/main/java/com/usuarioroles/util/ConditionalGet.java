@@ -0,0 +1,154 @@
+package com.usuarioroles.util;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.usuarioroles.model.Role;
+import com.usuarioroles.model.User;
+
+/**
+ * ETag, If-None-Match y Cache-Control para las lecturas que los clientes
+ * consultan periódicamente.
+ *
+ * La versión de un recurso es una huella de 64 bits (FNV-1a) de los campos que
+ * se serializan, calculada sobre los objetos que ya están en memoria (catálogo de
+ * roles o caché de usuarios), así que comprobar If-None-Match no requiere
+ * serializar la respuesta. La huella depende solo del contenido, de modo que
+ * todas las instancias de la función generan el mismo ETag para los mismos datos.
+ * Los ETag son débiles porque el mismo contenido puede enviarse con distinta
+ * codificación.
+ */
+public final class ConditionalGet {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int MAX_AGE_SECONDS = AppSettings.getInt("HTTP_CACHE_MAX_AGE_SECONDS", 0);
+
+    /**
+     * Valor de Cache-Control: sin max-age el cliente revalida siempre con el ETag.
+     */
+    public static final String CACHE_CONTROL = MAX_AGE_SECONDS > 0
+            ? "private, max-age=" + MAX_AGE_SECONDS + ", must-revalidate"
+            : "private, no-cache";
+
+    private ConditionalGet() {
+    }
+
+    public static String etag(long version) {
+        StringBuilder sb = new StringBuilder(21).append("W/\"");
+        String hex = Long.toHexString(version);
+        for (int i = hex.length(); i < 16; i++) {
+            sb.append('0');
+        }
+        return sb.append(hex).append('"').toString();
+    }
+
+    /**
+     * Indica si el If-None-Match de la petición incluye el ETag (comparación
+     * débil, admite listas y "*").
+     */
+    public static boolean isNotModified(HttpRequestMessage<?> request, String etag) {
+        Map<String, String> headers = request.getHeaders();
+        if (headers == null) {
+            return false;
+        }
+        String header = headers.get("if-none-match");
+        if (header == null) {
+            header = headers.get("If-None-Match");
+        }
+        if (header == null) {
+            return false;
+        }
+        String opaque = opaque(etag);
+        for (String candidate : header.split(",")) {
+            String value = candidate.trim();
+            if ("*".equals(value) || opaque.equals(opaque(value))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Respuesta 304 sin cuerpo.
+     */
+    public static HttpResponseMessage notModified(HttpRequestMessage<?> request, String etag) {
+        return request.createResponseBuilder(HttpStatus.NOT_MODIFIED)
+                .header("ETag", etag)
+                .header("Cache-Control", CACHE_CONTROL)
+                .build();
+    }
+
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    public static long versionOf(Role role) {
+        long hash = FNV_OFFSET;
+        hash = mix(hash, role.getRoleId());
+        hash = mix(hash, role.getRoleName());
+        hash = mix(hash, role.getDescription());
+        hash = mix(hash, role.getCreatedAt());
+        return mix(hash, role.getUpdatedAt());
+    }
+
+    /**
+     * Versión de una colección ordenada de roles.
+     */
+    public static long versionOf(Collection<Role> roles) {
+        long hash = mix(FNV_OFFSET, roles.size());
+        for (Role role : roles) {
+            hash = mix(hash, versionOf(role));
+        }
+        return hash;
+    }
+
+    public static long versionOf(User user) {
+        long hash = FNV_OFFSET;
+        hash = mix(hash, user.getUserId());
+        hash = mix(hash, user.getUsername());
+        hash = mix(hash, user.getEmail());
+        hash = mix(hash, user.getPasswordHash());
+        hash = mix(hash, user.getFirstName());
+        hash = mix(hash, user.getLastName());
+        hash = mix(hash, user.isActive() ? 1 : 0);
+        hash = mix(hash, user.getCreatedAt());
+        hash = mix(hash, user.getUpdatedAt());
+        List<Role> roles = user.getRoles();
+        return roles == null ? mix(hash, -1) : mix(hash, versionOf(roles));
+    }
+
+    private static long mix(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, Long value) {
+        return value == null ? mix(hash, Long.MIN_VALUE) : mix(hash, value.longValue());
+    }
+
+    private static long mix(long hash, Timestamp value) {
+        return value == null ? mix(hash, Long.MIN_VALUE)
+                : mix(mix(hash, value.getTime()), value.getNanos());
+    }
+
+    private static long mix(long hash, String value) {
+        if (value == null) {
+            return mix(hash, Long.MIN_VALUE);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        // Separador para que ("ab", "c") y ("a", "bc") no coincidan
+        return mix(hash, value.length());
+    }
+}
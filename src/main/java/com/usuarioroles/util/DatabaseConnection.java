@@ -1,110 +1,107 @@
 package com.usuarioroles.util;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.sql.DataSource;
+
+import oracle.ucp.jdbc.JDBCConnectionPoolStatistics;
+import oracle.ucp.jdbc.PoolDataSource;
+import oracle.ucp.jdbc.PoolDataSourceFactory;
+
+import com.usuarioroles.util.jdbc.InstrumentedDataSource;
+import com.usuarioroles.util.jdbc.StatementCachingDataSource;
+
+/**
+ * Pool de conexiones JDBC compartido por todas las funciones.
+ *
+ * Cada operación de los DAO toma una conexión del pool con {@link #getConnection()}
+ * y la devuelve al cerrarla (try-with-resources). El pool se configura con las
+ * siguientes variables:
+ * <ul>
+ * <li>DB_URL, DB_USER, DB_PASSWORD, DB_CONNECTION_FACTORY</li>
+ * <li>DB_POOL_MIN_SIZE, DB_POOL_MAX_SIZE, DB_POOL_INITIAL_SIZE</li>
+ * <li>DB_POOL_BORROW_TIMEOUT_SECONDS: espera máxima para obtener una conexión</li>
+ * <li>DB_POOL_LEAK_TIMEOUT_SECONDS: una conexión prestada sin actividad durante
+ * este tiempo se considera fugada y se recupera</li>
+ * <li>DB_POOL_MAX_BORROW_SECONDS: tiempo máximo que una conexión puede estar prestada</li>
+ * <li>DB_POOL_INACTIVE_TIMEOUT_SECONDS: cierre de conexiones ociosas por encima del mínimo</li>
+ * <li>DB_SLOW_QUERY_MS: las sentencias que tardan más se registran con el tipo de
+ * sus parámetros (negativo lo desactiva)</li>
+ * <li>DB_SLOW_QUERY_LOG_VALUES: registrar también los valores de los parámetros
+ * (solo para depuración; por defecto false)</li>
+ * <li>DB_STATEMENT_CACHE_SIZE: sentencias preparadas cacheadas por conexión física
+ * (0 desactiva la caché)</li>
+ * </ul>
+ */
 public class DatabaseConnection {
     private static final Logger LOGGER = Logger.getLogger(DatabaseConnection.class.getName());
+    private static final String POOL_NAME = "usuarioroles-pool";
+    private static final String VALIDATION_SQL = "SELECT 1 FROM DUAL";
     private static DatabaseConnection instance;
-    private Connection connection;
+    private final PoolDataSource dataSource;
+    private final InstrumentedDataSource instrumentedDataSource;
 
     private DatabaseConnection() {
         try {
-            // Cargar driver H2
-            Class.forName("org.h2.Driver");
-            LOGGER.log(Level.INFO, "Driver H2 cargado correctamente");
-            
-            // URL para H2 en memoria
-            String url = "jdbc:h2:mem:usuarioroles;DB_CLOSE_DELAY=-1";
-            String user = "jhermida";
-            String password = "j1s0n2108*";
-            
-            LOGGER.log(Level.INFO, "Conectando a H2 en memoria con URL: " + url);
-            connection = DriverManager.getConnection(url, user, password);
-            LOGGER.log(Level.INFO, "Conexión a H2 establecida correctamente");
-            
-            initializeDatabase();
-            
-        } catch (ClassNotFoundException e) {
-            LOGGER.log(Level.SEVERE, "Driver H2 no encontrado", e);
-            throw new RuntimeException("Driver H2 no encontrado", e);
+            String url = AppSettings.getString("DB_URL", "jdbc:h2:mem:usuarioroles;DB_CLOSE_DELAY=-1");
+            String user = AppSettings.getString("DB_USER", "jhermida");
+            String password = AppSettings.getString("DB_PASSWORD", "j1s0n2108*");
+            String factory = AppSettings.getString("DB_CONNECTION_FACTORY", "org.h2.jdbcx.JdbcDataSource");
+
+            int minSize = AppSettings.getInt("DB_POOL_MIN_SIZE", 2);
+            int maxSize = AppSettings.getInt("DB_POOL_MAX_SIZE", 20);
+
+            dataSource = PoolDataSourceFactory.getPoolDataSource();
+            dataSource.setConnectionPoolName(POOL_NAME);
+            // Las conexiones físicas se crean a través de la caché de sentencias
+            dataSource.setConnectionFactoryClassName(StatementCachingDataSource.class.getName());
+            dataSource.setConnectionFactoryProperty("targetDataSource", factory);
+            dataSource.setConnectionFactoryProperty("statementCacheSize",
+                    String.valueOf(AppSettings.getInt("DB_STATEMENT_CACHE_SIZE",
+                            StatementCachingDataSource.DEFAULT_CACHE_SIZE)));
+            dataSource.setURL(url);
+            dataSource.setUser(user);
+            dataSource.setPassword(password);
+            dataSource.setInitialPoolSize(AppSettings.getInt("DB_POOL_INITIAL_SIZE", minSize));
+            dataSource.setMinPoolSize(minSize);
+            dataSource.setMaxPoolSize(maxSize);
+            dataSource.setValidateConnectionOnBorrow(true);
+            dataSource.setSQLForValidateConnection(VALIDATION_SQL);
+            dataSource.setConnectionWaitTimeout(AppSettings.getInt("DB_POOL_BORROW_TIMEOUT_SECONDS", 5));
+            dataSource.setAbandonedConnectionTimeout(AppSettings.getInt("DB_POOL_LEAK_TIMEOUT_SECONDS", 60));
+            dataSource.setTimeToLiveConnectionTimeout(AppSettings.getInt("DB_POOL_MAX_BORROW_SECONDS", 300));
+            dataSource.setInactiveConnectionTimeout(AppSettings.getInt("DB_POOL_INACTIVE_TIMEOUT_SECONDS", 300));
+            dataSource.setTimeoutCheckInterval(AppSettings.getInt("DB_POOL_CHECK_INTERVAL_SECONDS", 30));
+
+            LOGGER.log(Level.INFO, "Pool de conexiones creado para URL: " + url
+                    + " (min=" + minSize + ", max=" + maxSize + ")");
+
+            instrumentedDataSource = new InstrumentedDataSource(dataSource,
+                    AppSettings.getLong("DB_SLOW_QUERY_MS", 200),
+                    AppSettings.getBoolean("DB_SLOW_QUERY_LOG_VALUES", false));
+
+            initializeDatabase(dataSource);
+
         } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Error al conectar a la base de datos H2", e);
-            throw new RuntimeException("Error de conexión a H2", e);
-        } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, "Error general", e);
-            throw new RuntimeException("Error general: " + e.getMessage(), e);
+            LOGGER.log(Level.SEVERE, "Error al crear el pool de conexiones", e);
+            throw new RuntimeException("Error al crear el pool de conexiones", e);
         }
     }
-    
-    private void initializeDatabase() {
+
+    /**
+     * Aplica las migraciones pendientes (esquema, índices y datos de ejemplo) en
+     * la base de datos indicada. Ver {@link SchemaMigrator}.
+     */
+    public static void initializeDatabase(DataSource dataSource) {
         try {
             LOGGER.log(Level.INFO, "Inicializando esquema de base de datos");
-            
-            try (java.sql.Statement stmt = connection.createStatement()) {
-                // Crear tabla de usuarios
-                stmt.execute("CREATE TABLE users (" +
-                        "user_id INT AUTO_INCREMENT PRIMARY KEY, " +
-                        "username VARCHAR(100) NOT NULL, " +
-                        "email VARCHAR(255) NOT NULL, " +
-                        "password_hash VARCHAR(255) NOT NULL, " +
-                        "first_name VARCHAR(100), " +
-                        "last_name VARCHAR(100), " +
-                        "active BOOLEAN DEFAULT TRUE, " +
-                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
-                        "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
-                
-                // Crear tabla de roles
-                stmt.execute("CREATE TABLE roles (" +
-                        "role_id INT AUTO_INCREMENT PRIMARY KEY, " +
-                        "role_name VARCHAR(100) NOT NULL, " +
-                        "description VARCHAR(255), " +
-                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
-                        "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
-                
-                // Crear tabla de relación usuario-rol
-                stmt.execute("CREATE TABLE user_roles (" +
-                        "user_id INT NOT NULL, " +
-                        "role_id INT NOT NULL, " +
-                        "assigned_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
-                        "PRIMARY KEY (user_id, role_id), " +
-                        "FOREIGN KEY (user_id) REFERENCES users(user_id), " +
-                        "FOREIGN KEY (role_id) REFERENCES roles(role_id))");
-                
-                // Insertar datos de ejemplo
-                LOGGER.log(Level.INFO, "Insertando datos de ejemplo");
-                
-                // Usuarios de ejemplo
-                stmt.execute("INSERT INTO users (username, email, password_hash, first_name, last_name) " +
-                        "VALUES ('admin', 'admin@example.com', 'hashed_password', 'Admin', 'User')");
-                
-                stmt.execute("INSERT INTO users (username, email, password_hash, first_name, last_name) " +
-                        "VALUES ('user1', 'user1@example.com', 'hashed_password', 'Regular', 'User')");
-                
-                stmt.execute("INSERT INTO users (username, email, password_hash, first_name, last_name) " +
-                        "VALUES ('manager', 'manager@example.com', 'hashed_password', 'Manager', 'User')");
-                
-                // Roles de ejemplo
-                stmt.execute("INSERT INTO roles (role_name, description) " +
-                        "VALUES ('ADMIN', 'Administrator role with full access')");
-                
-                stmt.execute("INSERT INTO roles (role_name, description) " +
-                        "VALUES ('USER', 'Regular user with limited access')");
-                
-                stmt.execute("INSERT INTO roles (role_name, description) " +
-                        "VALUES ('MANAGER', 'Manager with department access')");
-                
-                // Asignaciones usuario-rol
-                stmt.execute("INSERT INTO user_roles (user_id, role_id) VALUES (1, 1)");
-                stmt.execute("INSERT INTO user_roles (user_id, role_id) VALUES (2, 2)");
-                stmt.execute("INSERT INTO user_roles (user_id, role_id) VALUES (3, 3)");
-            }
-            
-            LOGGER.log(Level.INFO, "Base de datos inicializada correctamente");
-            
+            int applied = SchemaMigrator.migrate(dataSource);
+            LOGGER.log(Level.INFO, "Base de datos inicializada correctamente (" + applied
+                    + " migraciones aplicadas)");
+
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Error al inicializar la base de datos", e);
             throw new RuntimeException("Error al inicializar la base de datos", e);
@@ -118,28 +115,31 @@ public class DatabaseConnection {
         return instance;
     }
 
-    public Connection getConnection() {
-        try {
-            if (connection == null || connection.isClosed()) {
-                instance = new DatabaseConnection();
-            }
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Error al verificar el estado de la conexión", e);
-            throw new RuntimeException("Error al verificar la conexión", e);
-        }
-        return connection;
+    /**
+     * DataSource del pool con instrumentación de las sentencias SQL.
+     */
+    public DataSource getDataSource() {
+        return instrumentedDataSource;
     }
 
-    public void closeConnection() {
-        if (connection != null) {
-            try {
-                connection.close();
-                LOGGER.log(Level.INFO, "Conexión cerrada exitosamente");
-            } catch (SQLException e) {
-                LOGGER.log(Level.WARNING, "Error al cerrar la conexión", e);
-            }
-        }
+    /**
+     * Toma una conexión del pool. El llamador debe cerrarla para devolverla.
+     */
+    public Connection getConnection() throws SQLException {
+        return instrumentedDataSource.getConnection();
     }
 
-    
-}
\ No newline at end of file
+    public JDBCConnectionPoolStatistics getStatistics() {
+        return dataSource.getStatistics();
+    }
+
+    public void closePool() {
+        try {
+            oracle.ucp.admin.UniversalConnectionPoolManagerImpl.getUniversalConnectionPoolManager()
+                    .destroyConnectionPool(POOL_NAME);
+            LOGGER.log(Level.INFO, "Pool de conexiones cerrado exitosamente");
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Error al cerrar el pool de conexiones", e);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.usuarioroles.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.usuarioroles.metrics.RequestTrace;
+
+/**
+ * Escritura en streaming de respuestas JSON.
+ *
+ * Los elementos se serializan uno a uno con el {@link JsonWriter} de Gson sobre un
+ * buffer de bytes reutilizado por hilo, de modo que no se materializa la lista
+ * completa ni un String intermedio con todo el JSON. El único objeto proporcional
+ * al tamaño de la respuesta es el byte[] final que se entrega como cuerpo.
+ *
+ * Uso típico:
+ * <pre>
+ * try (JsonResponseWriter out = JsonResponseWriter.open(gson)) {
+ *     out.beginArray();
+ *     dao.streamX(item -&gt; out.write(item, X.class));
+ *     out.endArray();
+ *     return out.toByteArray();
+ * }
+ * </pre>
+ */
+public final class JsonResponseWriter implements AutoCloseable {
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    // Los buffers que crecen por encima de este tamaño no se conservan entre peticiones
+    private static final int MAX_RETAINED_BUFFER_SIZE =
+            AppSettings.getInt("JSON_MAX_RETAINED_BUFFER_BYTES", 4 * 1024 * 1024);
+
+    private static final ThreadLocal<ReusableBuffer> BUFFERS =
+            ThreadLocal.withInitial(() -> new ReusableBuffer(INITIAL_BUFFER_SIZE));
+
+    private final Gson gson;
+    private final ReusableBuffer buffer;
+    private final JsonWriter writer;
+    private final RequestTrace trace;
+
+    private JsonResponseWriter(Gson gson, ReusableBuffer buffer) {
+        this.gson = gson;
+        this.buffer = buffer;
+        this.trace = RequestTrace.current();
+        this.writer = new JsonWriter(new Utf8Writer(buffer));
+        this.writer.setSerializeNulls(gson.serializeNulls());
+    }
+
+    /**
+     * Abre un escritor sobre el buffer del hilo actual.
+     */
+    public static JsonResponseWriter open(Gson gson) {
+        ReusableBuffer buffer = BUFFERS.get();
+        if (buffer.inUse) {
+            // Uso anidado en el mismo hilo: se trabaja con un buffer temporal
+            buffer = new ReusableBuffer(INITIAL_BUFFER_SIZE);
+        }
+        buffer.reset();
+        buffer.inUse = true;
+        return new JsonResponseWriter(gson, buffer);
+    }
+
+    public JsonWriter json() {
+        return writer;
+    }
+
+    public void beginArray() {
+        try {
+            writer.beginArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void endArray() {
+        try {
+            writer.endArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Serializa un elemento directamente en el buffer.
+     */
+    public void write(Object value, Type type) {
+        if (trace == null) {
+            gson.toJson(value, type, writer);
+            return;
+        }
+        trace.enter(RequestTrace.Phase.SERIALIZATION);
+        try {
+            gson.toJson(value, type, writer);
+        } finally {
+            trace.exit();
+        }
+    }
+
+    /**
+     * Serializa un objeto a String con Gson, contando el tiempo como
+     * serialización en la traza de la petición en curso.
+     */
+    public static String toJson(Gson gson, Object value) {
+        RequestTrace trace = RequestTrace.current();
+        if (trace == null) {
+            return gson.toJson(value);
+        }
+        trace.enter(RequestTrace.Phase.SERIALIZATION);
+        try {
+            return gson.toJson(value);
+        } finally {
+            trace.exit();
+        }
+    }
+
+    /**
+     * Copia el JSON escrito hasta ahora en un nuevo array.
+     */
+    public byte[] toByteArray() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Bytes escritos hasta ahora (sin contar lo pendiente en el writer).
+     */
+    public int size() {
+        return buffer.size();
+    }
+
+    @Override
+    public void close() {
+        buffer.inUse = false;
+        if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE && BUFFERS.get() == buffer) {
+            BUFFERS.remove();
+        }
+    }
+
+    /**
+     * Array de bytes creciente, sin sincronización (a diferencia de
+     * ByteArrayOutputStream), que conserva su capacidad entre peticiones.
+     */
+    private static final class ReusableBuffer {
+        private byte[] buf;
+        private int count;
+        private boolean inUse;
+
+        ReusableBuffer(int size) {
+            buf = new byte[size];
+        }
+
+        void write(int b) {
+            if (count == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length << 1);
+            }
+            buf[count++] = (byte) b;
+        }
+
+        void reset() {
+            count = 0;
+        }
+
+        int size() {
+            return count;
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+    }
+
+    /**
+     * Codificador UTF-8 directo al buffer. OutputStreamWriter crea un CharBuffer y
+     * un array temporal por cada escritura, lo que multiplica las asignaciones por
+     * elemento serializado.
+     */
+    private static final class Utf8Writer extends Writer {
+        private final ReusableBuffer out;
+        private char pendingHighSurrogate;
+
+        Utf8Writer(ReusableBuffer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int c) {
+            writeChar((char) c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                writeChar(cbuf[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                writeChar(str.charAt(i));
+            }
+        }
+
+        private void writeChar(char c) {
+            if (pendingHighSurrogate != 0) {
+                char high = pendingHighSurrogate;
+                pendingHighSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    writeCodePoint(Character.toCodePoint(high, c));
+                    return;
+                }
+                out.write('?');
+            }
+            if (c < 0x80) {
+                out.write(c);
+            } else if (c < 0x800) {
+                out.write(0xC0 | (c >> 6));
+                out.write(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)) {
+                pendingHighSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                out.write('?');
+            } else {
+                out.write(0xE0 | (c >> 12));
+                out.write(0x80 | ((c >> 6) & 0x3F));
+                out.write(0x80 | (c & 0x3F));
+            }
+        }
+
+        private void writeCodePoint(int codePoint) {
+            out.write(0xF0 | (codePoint >> 18));
+            out.write(0x80 | ((codePoint >> 12) & 0x3F));
+            out.write(0x80 | ((codePoint >> 6) & 0x3F));
+            out.write(0x80 | (codePoint & 0x3F));
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
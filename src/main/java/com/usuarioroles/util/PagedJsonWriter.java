@@ -0,0 +1,64 @@
+package com.usuarioroles.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Escribe una página {"items": [...], "next": ...} a medida que llegan las filas.
+ *
+ * Se le deben entregar hasta {@code limit + 1} elementos: los primeros {@code limit}
+ * se serializan y el sobrante solo indica que existe una página siguiente, igual
+ * que {@link Pagination#toPage}.
+ */
+public final class PagedJsonWriter<T> implements Consumer<T> {
+    private final JsonResponseWriter out;
+    private final Type itemType;
+    private final int limit;
+    private final ToLongFunction<T> idOf;
+    private int written;
+    private long lastId;
+    private boolean hasMore;
+
+    public PagedJsonWriter(JsonResponseWriter out, Type itemType, int limit, ToLongFunction<T> idOf) {
+        this.out = out;
+        this.itemType = itemType;
+        this.limit = limit;
+        this.idOf = idOf;
+        try {
+            out.json().beginObject().name("items").beginArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void accept(T item) {
+        if (written >= limit) {
+            hasMore = true;
+            return;
+        }
+        out.write(item, itemType);
+        lastId = idOf.applyAsLong(item);
+        written++;
+    }
+
+    /**
+     * Cierra el array y escribe el cursor de la página siguiente.
+     */
+    public void finish() {
+        try {
+            out.json().endArray().name("next");
+            if (hasMore) {
+                out.json().value(Pagination.encodeCursor(lastId));
+            } else {
+                out.json().nullValue();
+            }
+            out.json().endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.usuarioroles.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+import com.usuarioroles.model.Page;
+
+/**
+ * Utilidades para la paginación por cursor (keyset) de los listados.
+ *
+ * El cursor es opaco para el cliente: codifica el último ID devuelto, de modo que
+ * la siguiente página se obtiene con {@code WHERE id > ?} sobre la clave primaria
+ * y cuesta lo mismo que la primera, sin importar la profundidad.
+ */
+public final class Pagination {
+    public static final String LIMIT_PARAM = "limit";
+    public static final String CURSOR_PARAM = "cursor";
+
+    private static final String CURSOR_PREFIX = "v1:";
+    private static final int DEFAULT_LIMIT = AppSettings.getInt("PAGE_DEFAULT_LIMIT", 100);
+    private static final int MAX_LIMIT = AppSettings.getInt("PAGE_MAX_LIMIT", 1000);
+
+    private Pagination() {
+    }
+
+    public static String encodeCursor(long lastId) {
+        byte[] raw = (CURSOR_PREFIX + lastId).getBytes(StandardCharsets.US_ASCII);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+    }
+
+    /**
+     * Devuelve el último ID codificado en el cursor, o 0 si no hay cursor.
+     *
+     * @throws IllegalArgumentException si el cursor no es válido
+     */
+    public static long decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cursor inválido", e);
+        }
+        if (!raw.startsWith(CURSOR_PREFIX)) {
+            throw new IllegalArgumentException("Cursor inválido");
+        }
+        try {
+            long lastId = Long.parseLong(raw.substring(CURSOR_PREFIX.length()));
+            if (lastId < 0) {
+                throw new IllegalArgumentException("Cursor inválido");
+            }
+            return lastId;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cursor inválido", e);
+        }
+    }
+
+    /**
+     * Lee el parámetro limit, aplicando el valor por defecto y el máximo configurados.
+     *
+     * @throws IllegalArgumentException si el límite no es un entero positivo
+     */
+    public static int parseLimit(Map<String, String> queryParameters) {
+        String value = queryParameters == null ? null : queryParameters.get(LIMIT_PARAM);
+        if (value == null || value.isEmpty()) {
+            return DEFAULT_LIMIT;
+        }
+        int limit;
+        try {
+            limit = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Límite inválido: " + value, e);
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Límite inválido: " + value);
+        }
+        return Math.min(limit, MAX_LIMIT);
+    }
+
+    /**
+     * Construye la página a partir de hasta {@code limit + 1} filas leídas: la fila
+     * sobrante solo indica que existe una página siguiente.
+     */
+    public static <T> Page<T> toPage(List<T> rows, int limit, ToLongFunction<T> idOf) {
+        if (rows.size() <= limit) {
+            return new Page<>(rows, null);
+        }
+        List<T> items = rows.subList(0, limit);
+        return new Page<>(items, encodeCursor(idOf.applyAsLong(items.get(limit - 1))));
+    }
+
+    public static long parseCursor(Map<String, String> queryParameters) {
+        return decodeCursor(queryParameters == null ? null : queryParameters.get(CURSOR_PARAM));
+    }
+}
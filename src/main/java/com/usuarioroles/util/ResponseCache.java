@@ -0,0 +1,129 @@
+package com.usuarioroles.util;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caché de los cuerpos ya serializados de las respuestas de listas muy leídas.
+ *
+ * Cada entrada se guarda con la clave del endpoint y sus parámetros y con la
+ * versión de datos de {@link com.usuarioroles.dao.DaoContext} que había antes de
+ * consultar la base de datos; solo se sirve mientras esa versión no cambie (los
+ * métodos de escritura de los DAO la incrementan) y, como otras instancias de la
+ * función también escriben, durante un TTL como máximo. Una respuesta repetida se
+ * sirve con una búsqueda en el mapa, sin consultar, serializar ni comprimir.
+ *
+ * Los cuerpos se guardan ya codificados, por lo que la clave debe incluir la
+ * codificación negociada (ver {@link #key(String, ResponseCompression.Encoding)}).
+ * Los arrays devueltos se comparten entre peticiones y no deben modificarse.
+ */
+public class ResponseCache {
+    private static ResponseCache instance;
+
+    private final int maxEntries;
+    private final int maxEntryBytes;
+    private final long ttlNanos;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public ResponseCache(int maxEntries, int maxEntryBytes, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.maxEntryBytes = maxEntryBytes;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+    }
+
+    /**
+     * Caché de la aplicación, configurada con RESPONSE_CACHE_MAX_ENTRIES,
+     * RESPONSE_CACHE_MAX_ENTRY_BYTES y RESPONSE_CACHE_TTL_SECONDS.
+     */
+    public static synchronized ResponseCache getInstance() {
+        if (instance == null) {
+            instance = new ResponseCache(AppSettings.getInt("RESPONSE_CACHE_MAX_ENTRIES", 1000),
+                    AppSettings.getInt("RESPONSE_CACHE_MAX_ENTRY_BYTES", 1024 * 1024),
+                    AppSettings.getLong("RESPONSE_CACHE_TTL_SECONDS", 30) * 1000L);
+        }
+        return instance;
+    }
+
+    /**
+     * Clave de una ruta con sus parámetros para la codificación indicada.
+     */
+    public static String key(String route, ResponseCompression.Encoding encoding) {
+        return encoding == ResponseCompression.Encoding.IDENTITY ? route : route + '|' + encoding.getHeaderValue();
+    }
+
+    /**
+     * Cuerpo guardado para la clave con la versión indicada, o null.
+     */
+    public ResponseCompression.Body get(String key, long version) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.version != version || System.nanoTime() - entry.loadedAt > ttlNanos) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.body;
+    }
+
+    /**
+     * Guarda el cuerpo generado a partir de los datos de la versión indicada,
+     * que debe leerse antes de consultar la base de datos.
+     */
+    public void put(String key, long version, ResponseCompression.Body body) {
+        if (body.getBytes().length > maxEntryBytes) {
+            return;
+        }
+        if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+            evict(version);
+        }
+        entries.merge(key, new Entry(version, body, System.nanoTime()),
+                (old, updated) -> old.version > updated.version ? old : updated);
+    }
+
+    /**
+     * Libera espacio quitando primero las entradas de versiones anteriores y, si
+     * no hay, una entrada cualquiera.
+     */
+    private void evict(long version) {
+        boolean removed = entries.values().removeIf(entry -> entry.version < version);
+        if (!removed) {
+            Iterator<String> keys = entries.keySet().iterator();
+            if (keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private static final class Entry {
+        final long version;
+        final ResponseCompression.Body body;
+        final long loadedAt;
+
+        Entry(long version, ResponseCompression.Body body, long loadedAt) {
+            this.version = version;
+            this.body = body;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
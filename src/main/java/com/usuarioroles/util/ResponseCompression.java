@@ -0,0 +1,227 @@
+package com.usuarioroles.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.usuarioroles.metrics.RequestTrace;
+
+/**
+ * Compresión gzip/deflate de los cuerpos JSON según el Accept-Encoding de la
+ * petición.
+ *
+ * Solo se comprimen los cuerpos de al menos COMPRESSION_MIN_BYTES (1 KB por
+ * defecto): por debajo, la cabecera y el coste de CPU no compensan. El nivel se
+ * configura con COMPRESSION_LEVEL (1-9, 6 por defecto); el benchmark
+ * CompressionBenchmark del perfil jmh muestra el compromiso entre CPU y bytes.
+ *
+ * Cada hilo reutiliza sus Deflater, su CRC32 y su buffer de salida, como los
+ * buffers de {@link JsonResponseWriter}, de modo que comprimir solo asigna el
+ * array final.
+ */
+public final class ResponseCompression {
+    private static final int MIN_BYTES = AppSettings.getInt("COMPRESSION_MIN_BYTES", 1024);
+    private static final int LEVEL = AppSettings.getInt("COMPRESSION_LEVEL", 6);
+    private static final int MAX_RETAINED_BUFFER_SIZE =
+            AppSettings.getInt("JSON_MAX_RETAINED_BUFFER_BYTES", 4 * 1024 * 1024);
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private static final ThreadLocal<Compressor> COMPRESSORS = ThreadLocal.withInitial(Compressor::new);
+
+    /**
+     * Codificaciones de contenido soportadas.
+     */
+    public enum Encoding {
+        IDENTITY("identity"),
+        GZIP("gzip"),
+        DEFLATE("deflate");
+
+        private final String headerValue;
+
+        Encoding(String headerValue) {
+            this.headerValue = headerValue;
+        }
+
+        public String getHeaderValue() {
+            return headerValue;
+        }
+    }
+
+    /**
+     * Cuerpo de respuesta ya codificado. Los bytes se comparten (p. ej. desde
+     * {@link ResponseCache}) y no deben modificarse.
+     */
+    public static final class Body {
+        private final byte[] bytes;
+        private final Encoding encoding;
+
+        public Body(byte[] bytes, Encoding encoding) {
+            this.bytes = bytes;
+            this.encoding = encoding;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public Encoding getEncoding() {
+            return encoding;
+        }
+    }
+
+    private ResponseCompression() {
+    }
+
+    /**
+     * Codificación preferida por el cliente según Accept-Encoding (valores q
+     * incluidos); gzip gana a deflate en caso de empate.
+     */
+    public static Encoding negotiate(HttpRequestMessage<?> request) {
+        Map<String, String> headers = request.getHeaders();
+        if (headers == null) {
+            return Encoding.IDENTITY;
+        }
+        String header = headers.get("accept-encoding");
+        if (header == null) {
+            header = headers.get("Accept-Encoding");
+        }
+        if (header == null || header.isEmpty()) {
+            return Encoding.IDENTITY;
+        }
+
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String part : header.split(",")) {
+            String[] tokens = part.split(";");
+            String coding = tokens[0].trim().toLowerCase();
+            double q = 1;
+            for (int i = 1; i < tokens.length; i++) {
+                String param = tokens[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if ("gzip".equals(coding) || "x-gzip".equals(coding)) {
+                gzip = q;
+            } else if ("deflate".equals(coding)) {
+                deflate = q;
+            } else if ("*".equals(coding)) {
+                any = q;
+            }
+        }
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return Encoding.GZIP;
+        }
+        return deflate > 0 ? Encoding.DEFLATE : Encoding.IDENTITY;
+    }
+
+    /**
+     * Codifica el JSON con la codificación negociada si alcanza el umbral; si no,
+     * lo devuelve sin comprimir.
+     */
+    public static Body encode(byte[] json, Encoding encoding) {
+        if (encoding == Encoding.IDENTITY || json.length < MIN_BYTES) {
+            return new Body(json, Encoding.IDENTITY);
+        }
+        RequestTrace trace = RequestTrace.current();
+        if (trace == null) {
+            return new Body(compress(json, encoding, LEVEL), encoding);
+        }
+        trace.enter(RequestTrace.Phase.COMPRESSION);
+        try {
+            return new Body(compress(json, encoding, LEVEL), encoding);
+        } finally {
+            trace.exit();
+        }
+    }
+
+    /**
+     * Añade el cuerpo y las cabeceras Content-Encoding y Vary a la respuesta.
+     */
+    public static HttpResponseMessage.Builder body(HttpResponseMessage.Builder builder, Body body) {
+        builder.header("Vary", "Accept-Encoding");
+        if (body.encoding != Encoding.IDENTITY) {
+            builder.header("Content-Encoding", body.encoding.headerValue);
+        }
+        return builder.body(body.bytes);
+    }
+
+    /**
+     * Comprime con el nivel indicado (1-9) usando el compresor del hilo.
+     */
+    public static byte[] compress(byte[] data, Encoding encoding, int level) {
+        Compressor compressor = COMPRESSORS.get();
+        byte[] result = compressor.compress(data, encoding, level);
+        if (compressor.buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+            compressor.release();
+            COMPRESSORS.remove();
+        }
+        return result;
+    }
+
+    private static final class Compressor {
+        // gzip lleva su propia cabecera y cola; deflate en HTTP es el formato zlib
+        private final Deflater raw = new Deflater(LEVEL, true);
+        private final Deflater zlib = new Deflater(LEVEL, false);
+        private final CRC32 crc = new CRC32();
+        private byte[] buffer = new byte[8 * 1024];
+
+        byte[] compress(byte[] data, Encoding encoding, int level) {
+            boolean gzip = encoding == Encoding.GZIP;
+            Deflater deflater = gzip ? raw : zlib;
+            deflater.reset();
+            deflater.setLevel(level);
+            deflater.setInput(data);
+            deflater.finish();
+
+            int count = 0;
+            if (gzip) {
+                System.arraycopy(GZIP_HEADER, 0, buffer, 0, GZIP_HEADER.length);
+                count = GZIP_HEADER.length;
+            }
+            while (!deflater.finished()) {
+                if (count == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length << 1);
+                }
+                count += deflater.deflate(buffer, count, buffer.length - count);
+            }
+            if (gzip) {
+                crc.reset();
+                crc.update(data, 0, data.length);
+                if (count + 8 > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, count + 8);
+                }
+                count = writeIntLE(buffer, count, (int) crc.getValue());
+                count = writeIntLE(buffer, count, data.length);
+            }
+            return Arrays.copyOf(buffer, count);
+        }
+
+        void release() {
+            raw.end();
+            zlib.end();
+        }
+
+        private static int writeIntLE(byte[] out, int offset, int value) {
+            out[offset] = (byte) value;
+            out[offset + 1] = (byte) (value >>> 8);
+            out[offset + 2] = (byte) (value >>> 16);
+            out[offset + 3] = (byte) (value >>> 24);
+            return offset + 4;
+        }
+    }
+}
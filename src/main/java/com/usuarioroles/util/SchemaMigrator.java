@@ -0,0 +1,237 @@
+package com.usuarioroles.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import javax.sql.DataSource;
+
+/**
+ * Aplica las migraciones de esquema versionadas de {@code db/migration}.
+ *
+ * Los scripts se listan en orden en {@code db/migration/migrations.txt} y se
+ * llaman V&lt;versión&gt;__&lt;descripción&gt;.sql. Cada script se aplica una sola
+ * vez y se registra en la tabla schema_version junto con su checksum.
+ *
+ * H2 y Oracle confirman implícitamente cada sentencia DDL, así que un script no
+ * es atómico: si falla a medias, lo ya creado se queda sin fila en
+ * schema_version, y dos instancias que arrancan a la vez pueden ejecutar el mismo
+ * script. Por eso los scripts deben poder repetirse sin error (CREATE ... IF NOT
+ * EXISTS, INSERT ... WHERE NOT EXISTS): tras un fallo, el siguiente arranque
+ * vuelve a aplicar el script completo. Si al registrar una versión otra instancia
+ * ya la ha registrado, se da por aplicada y se continúa.
+ */
+public final class SchemaMigrator {
+    private static final Logger LOGGER = Logger.getLogger(SchemaMigrator.class.getName());
+    private static final String LOCATION = "db/migration/";
+    private static final String INDEX = LOCATION + "migrations.txt";
+    private static final Pattern SCRIPT_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+
+    private static final String SQL_CREATE_VERSION_TABLE = "CREATE TABLE schema_version (" +
+            "version INT NOT NULL PRIMARY KEY, " +
+            "description VARCHAR(200) NOT NULL, " +
+            "checksum BIGINT NOT NULL, " +
+            "applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)";
+    private static final String SQL_GET_VERSIONS = "SELECT version, checksum FROM schema_version";
+    private static final String SQL_INSERT_VERSION =
+            "INSERT INTO schema_version (version, description, checksum) VALUES (?, ?, ?)";
+
+    private SchemaMigrator() {
+    }
+
+    /**
+     * Aplica todas las migraciones pendientes.
+     */
+    public static int migrate(DataSource dataSource) throws SQLException {
+        return migrate(dataSource, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Aplica las migraciones pendientes hasta la versión indicada (incluida) y
+     * devuelve cuántas se han aplicado.
+     */
+    public static int migrate(DataSource dataSource, int targetVersion) throws SQLException {
+        List<Migration> migrations = loadMigrations();
+        int applied = 0;
+
+        try (Connection connection = dataSource.getConnection()) {
+            ensureVersionTable(connection);
+            Map<Integer, Long> done = appliedVersions(connection);
+
+            for (Migration migration : migrations) {
+                if (migration.version > targetVersion) {
+                    break;
+                }
+                Long checksum = done.get(migration.version);
+                if (checksum != null) {
+                    if (checksum != migration.checksum) {
+                        LOGGER.log(Level.WARNING, "El script " + migration.script
+                                + " ha cambiado después de aplicarse");
+                    }
+                    continue;
+                }
+                if (apply(connection, migration)) {
+                    applied++;
+                }
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Aplica un script y registra su versión; devuelve false si otra instancia la
+     * ha registrado mientras tanto.
+     */
+    private static boolean apply(Connection connection, Migration migration) throws SQLException {
+        LOGGER.log(Level.INFO, "Aplicando migración " + migration.script);
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement stmt = connection.createStatement()) {
+            for (String sql : migration.statements) {
+                stmt.execute(sql);
+            }
+            try (PreparedStatement insert = connection.prepareStatement(SQL_INSERT_VERSION)) {
+                insert.setInt(1, migration.version);
+                insert.setString(2, migration.description);
+                insert.setLong(3, migration.checksum);
+                insert.executeUpdate();
+            }
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            connection.rollback();
+            if (appliedVersions(connection).containsKey(migration.version)) {
+                LOGGER.log(Level.INFO, "La migración " + migration.script + " la ha aplicado otra instancia");
+                return false;
+            }
+            LOGGER.log(Level.SEVERE, "Error al aplicar la migración " + migration.script, e);
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static void ensureVersionTable(Connection connection) throws SQLException {
+        DatabaseMetaData meta = connection.getMetaData();
+        for (String name : new String[] { "SCHEMA_VERSION", "schema_version" }) {
+            try (ResultSet rs = meta.getTables(null, null, name, new String[] { "TABLE" })) {
+                if (rs.next()) {
+                    return;
+                }
+            }
+        }
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(SQL_CREATE_VERSION_TABLE);
+        } catch (SQLException e) {
+            // Otra instancia puede haberla creado a la vez
+            try (Statement check = connection.createStatement()) {
+                check.executeQuery(SQL_GET_VERSIONS).close();
+            } catch (SQLException ignored) {
+                throw e;
+            }
+        }
+    }
+
+    private static Map<Integer, Long> appliedVersions(Connection connection) throws SQLException {
+        Map<Integer, Long> versions = new HashMap<>();
+        try (PreparedStatement stmt = connection.prepareStatement(SQL_GET_VERSIONS);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                versions.put(rs.getInt(1), rs.getLong(2));
+            }
+        }
+        return versions;
+    }
+
+    private static List<Migration> loadMigrations() {
+        List<Migration> migrations = new ArrayList<>();
+        int lastVersion = 0;
+        for (String script : readLines(INDEX)) {
+            Matcher m = SCRIPT_NAME.matcher(script);
+            if (!m.matches()) {
+                throw new IllegalStateException("Nombre de migración inválido: " + script);
+            }
+            int version = Integer.parseInt(m.group(1));
+            if (version <= lastVersion) {
+                throw new IllegalStateException("Migraciones fuera de orden: " + script);
+            }
+            lastVersion = version;
+            migrations.add(new Migration(version, m.group(2), script, readLines(LOCATION + script)));
+        }
+        return migrations;
+    }
+
+    /**
+     * Lee un recurso como líneas, sin líneas vacías ni comentarios.
+     */
+    private static List<String> readLines(String resource) {
+        InputStream in = SchemaMigrator.class.getClassLoader().getResourceAsStream(resource);
+        if (in == null) {
+            throw new IllegalStateException("No se encuentra el recurso " + resource);
+        }
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.trim();
+                if (!trimmed.isEmpty() && !trimmed.startsWith("#") && !trimmed.startsWith("--")) {
+                    lines.add(trimmed);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Error al leer " + resource, e);
+        }
+        return lines;
+    }
+
+    private static final class Migration {
+        final int version;
+        final String description;
+        final String script;
+        final List<String> statements = new ArrayList<>();
+        final long checksum;
+
+        Migration(int version, String description, String script, List<String> lines) {
+            this.version = version;
+            this.description = description;
+            this.script = script;
+
+            // Las sentencias terminan en ';' al final de una línea
+            CRC32 crc = new CRC32();
+            StringBuilder current = new StringBuilder();
+            for (String line : lines) {
+                crc.update(line.getBytes(StandardCharsets.UTF_8));
+                if (current.length() > 0) {
+                    current.append(' ');
+                }
+                current.append(line);
+                if (line.endsWith(";")) {
+                    current.setLength(current.length() - 1);
+                    statements.add(current.toString());
+                    current.setLength(0);
+                }
+            }
+            if (current.length() > 0) {
+                statements.add(current.toString());
+            }
+            this.checksum = crc.getValue();
+        }
+    }
+}
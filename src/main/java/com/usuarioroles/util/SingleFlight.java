@@ -0,0 +1,181 @@
+package com.usuarioroles.util;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Agrupa las lecturas concurrentes de una misma clave en una sola carga: el
+ * primer llamante consulta la base de datos y los que piden la misma clave
+ * mientras tanto esperan y reciben su resultado (o su error).
+ *
+ * Cada carga lleva la versión de datos de {@link com.usuarioroles.dao.DaoContext}
+ * que había al empezar, y solo se comparte con llamantes que ven esa misma
+ * versión: tras una escritura en esta instancia, las peticiones nuevas lanzan su
+ * propia carga. Con una ventana mayor que cero, el resultado de una carga
+ * terminada se sigue compartiendo durante esa ventana; con cero solo se
+ * comparten las cargas en curso y no se guarda nada.
+ *
+ * Los valores se entregan a todos los llamantes y no deben modificarse.
+ */
+public class SingleFlight<K, V> {
+    // Tamaño a partir del cual se purgan las cargas terminadas fuera de la ventana
+    private static final int SWEEP_THRESHOLD = 1024;
+
+    /**
+     * Carga de un valor desde la base de datos.
+     */
+    public interface Loader<V> {
+        V load() throws SQLException;
+    }
+
+    private final String name;
+    private final long windowNanos;
+    private final ConcurrentMap<K, Call<V>> calls = new ConcurrentHashMap<>();
+
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+
+    public SingleFlight(String name, long windowMillis) {
+        this.name = name;
+        this.windowNanos = windowMillis * 1_000_000L;
+    }
+
+    /**
+     * Valor de la clave: el de una carga en curso (o terminada dentro de la
+     * ventana) con la misma versión de datos, o el de una carga nueva con
+     * {@code loader}.
+     */
+    public V execute(K key, long version, Loader<V> loader) throws SQLException {
+        while (true) {
+            Call<V> call = calls.get(key);
+            if (call != null) {
+                if (call.version == version && call.isLive(windowNanos)) {
+                    shared.increment();
+                    return call.await();
+                }
+                calls.remove(key, call);
+            }
+
+            Call<V> own = new Call<>(version);
+            if (calls.putIfAbsent(key, own) == null) {
+                loads.increment();
+                return run(key, own, loader);
+            }
+        }
+    }
+
+    private V run(K key, Call<V> own, Loader<V> loader) throws SQLException {
+        V value;
+        try {
+            value = loader.load();
+        } catch (SQLException | RuntimeException | Error e) {
+            // Un error no se comparte con peticiones posteriores
+            calls.remove(key, own);
+            own.fail(e);
+            throw e;
+        }
+        own.complete(value);
+        if (windowNanos <= 0) {
+            calls.remove(key, own);
+        } else if (calls.size() > SWEEP_THRESHOLD) {
+            sweep();
+        }
+        return value;
+    }
+
+    private void sweep() {
+        Iterator<Call<V>> it = calls.values().iterator();
+        while (it.hasNext()) {
+            if (!it.next().isLive(windowNanos)) {
+                it.remove();
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Cargas ejecutadas contra la base de datos.
+     */
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    /**
+     * Peticiones resueltas con el resultado de la carga de otra petición.
+     */
+    public long getShared() {
+        return shared.sum();
+    }
+
+    /**
+     * Una carga, en curso o terminada.
+     */
+    private static final class Call<V> {
+        final long version;
+        private final CountDownLatch done = new CountDownLatch(1);
+        // Publicados por done.countDown()
+        private V value;
+        private Throwable error;
+        private volatile long finishedAt;
+        private volatile boolean finished;
+
+        Call(long version) {
+            this.version = version;
+        }
+
+        boolean isLive(long windowNanos) {
+            return !finished || System.nanoTime() - finishedAt <= windowNanos;
+        }
+
+        void complete(V value) {
+            this.value = value;
+            finish();
+        }
+
+        void fail(Throwable error) {
+            this.error = error;
+            finish();
+        }
+
+        private void finish() {
+            finishedAt = System.nanoTime();
+            finished = true;
+            done.countDown();
+        }
+
+        V await() throws SQLException {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // La carga no se cancela: se espera a su resultado y se conserva la interrupción
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (error instanceof SQLException) {
+                SQLException e = (SQLException) error;
+                throw new SQLException(e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+            }
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            return value;
+        }
+    }
+}
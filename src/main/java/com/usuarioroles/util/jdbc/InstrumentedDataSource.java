@@ -0,0 +1,296 @@
+package com.usuarioroles.util.jdbc;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import com.usuarioroles.metrics.RequestTrace;
+
+/**
+ * DataSource que mide cada ejecución de SQL de las conexiones que entrega.
+ *
+ * Las conexiones y sentencias se envuelven en proxies, y los ResultSet en un
+ * {@link CountingResultSet}, que:
+ * <ul>
+ * <li>cronometran cada execute* y lo acumulan en {@link QueryStats} por SQL
+ * normalizado, contando también las filas leídas de cada ResultSet;</li>
+ * <li>guardan los parámetros enlazados (set*) para poder registrarlos cuando la
+ * ejecución supera el umbral de consulta lenta; por defecto solo se registra su
+ * tipo y longitud, no su valor;</li>
+ * <li>atribuyen la ejecución y la lectura de filas a la fase de base de datos de
+ * la {@link RequestTrace} de la petición, si se está trazando.</li>
+ * </ul>
+ * Los envoltorios solo añaden un par de lecturas de System.nanoTime y contadores sin
+ * bloqueo por ejecución, por lo que la instrumentación está siempre activa.
+ */
+public class InstrumentedDataSource implements DataSource {
+    private static final Logger LOGGER = Logger.getLogger(InstrumentedDataSource.class.getName());
+    private static final ClassLoader LOADER = InstrumentedDataSource.class.getClassLoader();
+    private static final int MAX_LOGGED_PARAMETER_LENGTH = 100;
+
+    private final DataSource delegate;
+    private final long slowQueryNanos;
+    private final boolean logParameterValues;
+
+    /**
+     * Registra las consultas lentas con el tipo de cada parámetro, sin su valor.
+     *
+     * @param slowQueryMillis umbral a partir del cual se registra la sentencia
+     *                        con sus parámetros; negativo para desactivarlo
+     */
+    public InstrumentedDataSource(DataSource delegate, long slowQueryMillis) {
+        this(delegate, slowQueryMillis, false);
+    }
+
+    /**
+     * @param slowQueryMillis    umbral a partir del cual se registra la sentencia
+     *                           con sus parámetros; negativo para desactivarlo
+     * @param logParameterValues registrar los valores de los parámetros en claro
+     *                           (solo para depuración) en lugar de su tipo
+     */
+    public InstrumentedDataSource(DataSource delegate, long slowQueryMillis, boolean logParameterValues) {
+        this.delegate = delegate;
+        this.slowQueryNanos = slowQueryMillis < 0 ? Long.MAX_VALUE : slowQueryMillis * 1_000_000L;
+        this.logParameterValues = logParameterValues;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrapConnection(delegate.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrapConnection(delegate.getConnection(username, password));
+    }
+
+    private Connection wrapConnection(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(LOADER, new Class<?>[] { Connection.class },
+                new ConnectionHandler(connection));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private final class ConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+
+        ConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            Object result = InstrumentedDataSource.invoke(connection, method, args);
+            if (result instanceof Statement) {
+                String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                return Proxy.newProxyInstance(LOADER, new Class<?>[] { method.getReturnType() },
+                        new StatementHandler((Statement) result, sql, proxy));
+            }
+            return result;
+        }
+    }
+
+    private final class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        private final String sql;
+        private final Object connectionProxy;
+        private Object[] parameters;
+        private int parameterCount;
+        private int batchSize;
+
+        StatementHandler(Statement statement, String sql, Object connectionProxy) {
+            this.statement = statement;
+            this.sql = sql;
+            this.connectionProxy = connectionProxy;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                return execute(method, args);
+            }
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                bind((Integer) args[0], "setNull".equals(name) ? null : args[1]);
+            } else if ("addBatch".equals(name)) {
+                batchSize++;
+            } else if ("clearBatch".equals(name)) {
+                batchSize = 0;
+            } else if ("clearParameters".equals(name) && parameters != null) {
+                Arrays.fill(parameters, null);
+                parameterCount = 0;
+            } else if ("getConnection".equals(name)) {
+                return connectionProxy;
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+
+            Object result = InstrumentedDataSource.invoke(statement, method, args);
+            if (result instanceof ResultSet && "getGeneratedKeys".equals(name)) {
+                return wrapResultSet((ResultSet) result, QueryStats.forSql(sql == null ? "<generated keys>" : sql));
+            }
+            return result;
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            // Con Statement la SQL llega en execute(sql)
+            String text = sql != null ? sql
+                    : args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : "<batch>";
+            QueryStats.Entry entry = QueryStats.forSql(text);
+            RequestTrace trace = RequestTrace.current();
+            if (trace != null) {
+                trace.enter(RequestTrace.Phase.DATABASE);
+            }
+
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                Object result = InstrumentedDataSource.invoke(statement, method, args);
+                failed = false;
+                if (result instanceof ResultSet) {
+                    return wrapResultSet((ResultSet) result, entry);
+                }
+                return result;
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                if (trace != null) {
+                    trace.exit();
+                }
+                entry.recordExecution(elapsed, failed);
+                if (elapsed >= slowQueryNanos) {
+                    logSlow(text, elapsed, failed);
+                }
+                if (method.getName().equals("executeBatch")) {
+                    batchSize = 0;
+                }
+            }
+        }
+
+        private void bind(int index, Object value) {
+            if (parameters == null || parameters.length < index) {
+                parameters = Arrays.copyOf(parameters == null ? new Object[0] : parameters, Math.max(index, 8));
+            }
+            parameters[index - 1] = value;
+            parameterCount = Math.max(parameterCount, index);
+        }
+
+        private void logSlow(String text, long elapsed, boolean failed) {
+            StringBuilder message = new StringBuilder(text.length() + 64);
+            message.append("Consulta lenta (").append(elapsed / 1_000_000).append(" ms");
+            if (failed) {
+                message.append(", con error");
+            }
+            if (batchSize > 0) {
+                message.append(", lote de ").append(batchSize);
+            }
+            message.append("): ").append(text);
+            if (parameterCount > 0) {
+                message.append(" [");
+                for (int i = 0; i < parameterCount; i++) {
+                    if (i > 0) {
+                        message.append(", ");
+                    }
+                    message.append(i + 1).append('=').append(format(parameters[i]));
+                }
+                message.append(']');
+            }
+            LOGGER.log(Level.WARNING, message.toString());
+        }
+    }
+
+    private String format(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        if (!logParameterValues) {
+            return redact(value);
+        }
+        String text = value instanceof String ? "'" + value + "'" : String.valueOf(value);
+        return text.length() > MAX_LOGGED_PARAMETER_LENGTH
+                ? text.substring(0, MAX_LOGGED_PARAMETER_LENGTH) + "..."
+                : text;
+    }
+
+    /**
+     * Tipo (y longitud, si la tiene) del parámetro, sin su valor: los parámetros
+     * pueden ser correos, hashes de contraseña u otros datos personales.
+     */
+    static String redact(Object value) {
+        if (value instanceof String) {
+            return "String(" + ((String) value).length() + ")";
+        }
+        if (value instanceof byte[]) {
+            return "byte[" + ((byte[]) value).length + "]";
+        }
+        return value.getClass().getSimpleName();
+    }
+
+    private static ResultSet wrapResultSet(ResultSet resultSet, QueryStats.Entry entry) {
+        return new CountingResultSet(resultSet, entry);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return delegate.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        delegate.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        delegate.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return delegate.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return delegate.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || delegate.isWrapperFor(iface);
+    }
+}
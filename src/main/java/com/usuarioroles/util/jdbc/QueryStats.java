@@ -0,0 +1,165 @@
+package com.usuarioroles.util.jdbc;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Estadísticas acumuladas por sentencia SQL normalizada: ejecuciones, tiempo
+ * total y máximo, filas leídas y errores.
+ *
+ * La normalización (literales sustituidos por '?' y espacios colapsados) solo se
+ * calcula la primera vez que se ve un texto SQL; después se reutiliza la entrada.
+ * El número de sentencias distintas está acotado para que SQL generado con
+ * literales no haga crecer la memoria sin límite.
+ */
+public final class QueryStats {
+    static final int MAX_STATEMENTS = 1000;
+    private static final String OVERFLOW = "<otras sentencias>";
+
+    private static final ConcurrentMap<String, Entry> BY_SQL = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Entry> BY_NORMALIZED = new ConcurrentHashMap<>();
+
+    private QueryStats() {
+    }
+
+    /**
+     * Entrada donde acumular las ejecuciones de {@code sql}.
+     */
+    public static Entry forSql(String sql) {
+        Entry entry = BY_SQL.get(sql);
+        if (entry != null) {
+            return entry;
+        }
+        String normalized = normalize(sql);
+        if (BY_NORMALIZED.size() >= MAX_STATEMENTS && !BY_NORMALIZED.containsKey(normalized)) {
+            normalized = OVERFLOW;
+        }
+        entry = BY_NORMALIZED.computeIfAbsent(normalized, Entry::new);
+        if (BY_SQL.size() < MAX_STATEMENTS * 4) {
+            BY_SQL.putIfAbsent(sql, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Las {@code limit} sentencias con más tiempo total acumulado.
+     */
+    public static List<Entry> top(int limit) {
+        List<Entry> entries = new ArrayList<>(BY_NORMALIZED.values());
+        entries.sort(Comparator.comparingLong(Entry::getTotalNanos).reversed());
+        return entries.size() > limit ? new ArrayList<>(entries.subList(0, limit)) : entries;
+    }
+
+    public static void reset() {
+        BY_SQL.clear();
+        BY_NORMALIZED.clear();
+    }
+
+    /**
+     * Sustituye los literales numéricos y de texto por '?' y colapsa los espacios.
+     */
+    static String normalize(String sql) {
+        StringBuilder out = new StringBuilder(sql.length());
+        int n = sql.length();
+        boolean space = false;
+        for (int i = 0; i < n; i++) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = out.length() > 0;
+                continue;
+            }
+            if (space) {
+                out.append(' ');
+                space = false;
+            }
+            if (c == '\'') {
+                // Literal de texto, con '' como comilla escapada
+                i++;
+                while (i < n) {
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < n && sql.charAt(i + 1) == '\'') {
+                            i++;
+                        } else {
+                            break;
+                        }
+                    }
+                    i++;
+                }
+                out.append('?');
+            } else if (Character.isDigit(c) && !partOfIdentifier(out)) {
+                while (i + 1 < n && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.')) {
+                    i++;
+                }
+                out.append('?');
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    private static boolean partOfIdentifier(StringBuilder out) {
+        if (out.length() == 0) {
+            return false;
+        }
+        char prev = out.charAt(out.length() - 1);
+        return Character.isLetterOrDigit(prev) || prev == '_';
+    }
+
+    public static final class Entry {
+        private final String sql;
+        private final LongAdder executions = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        Entry(String sql) {
+            this.sql = sql;
+        }
+
+        void recordExecution(long nanos, boolean failed) {
+            executions.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            if (failed) {
+                errors.increment();
+            }
+        }
+
+        void recordRows(long count) {
+            if (count > 0) {
+                rows.add(count);
+            }
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public long getExecutions() {
+            return executions.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+    }
+}
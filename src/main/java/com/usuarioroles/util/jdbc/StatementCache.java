@@ -0,0 +1,253 @@
+package com.usuarioroles.util.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caché de PreparedStatement de una conexión física, indexada por texto SQL.
+ *
+ * Cada conexión física del pool tiene su propia caché LRU acotada. Cuando un DAO
+ * llama a prepareStatement recibe un manejador sobre la sentencia ya preparada y,
+ * al cerrarlo, la sentencia vuelve a la caché en lugar de cerrarse, de modo que el
+ * driver no vuelve a analizar ni planificar la misma consulta en cada petición.
+ * Si la misma SQL se prepara dos veces a la vez en la conexión, la segunda es una
+ * sentencia normal que sí se cierra.
+ *
+ * Las estadísticas son globales para todas las conexiones.
+ */
+public class StatementCache {
+    private static final Logger LOGGER = Logger.getLogger(StatementCache.class.getName());
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder EVICTIONS = new LongAdder();
+
+    private final Connection connection;
+    private final int maxSize;
+    private final Map<Key, Entry> entries;
+
+    public StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Devuelve una sentencia preparada para la SQL indicada. {@code keyColumns} y
+     * {@code autoGeneratedKeys} se corresponden con las variantes de
+     * Connection.prepareStatement; forman parte de la clave de la caché.
+     */
+    public synchronized PreparedStatement prepare(String sql, int autoGeneratedKeys, String[] keyColumns)
+            throws SQLException {
+        Key key = new Key(sql, autoGeneratedKeys, keyColumns);
+        Entry entry = entries.get(key);
+
+        if (entry != null && !entry.inUse && !entry.statement.isClosed()) {
+            HITS.increment();
+            entry.inUse = true;
+            return handle(entry);
+        }
+
+        MISSES.increment();
+        PreparedStatement statement = prepareOnConnection(key);
+        if (entry != null && entry.inUse) {
+            // La sentencia en caché está en uso (uso anidado): se entrega una sin cachear
+            return statement;
+        }
+        if (entry != null) {
+            entries.remove(key);
+        }
+
+        Entry created = new Entry(key, statement);
+        created.inUse = true;
+        entries.put(key, created);
+        evictIfNeeded();
+        return handle(created);
+    }
+
+    /**
+     * Cierra todas las sentencias cacheadas (la conexión física se va a cerrar).
+     */
+    public synchronized void closeAll() {
+        for (Entry entry : entries.values()) {
+            closeQuietly(entry.statement);
+        }
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public static long getHits() {
+        return HITS.sum();
+    }
+
+    public static long getMisses() {
+        return MISSES.sum();
+    }
+
+    public static long getEvictions() {
+        return EVICTIONS.sum();
+    }
+
+    public static double getHitRate() {
+        long hits = HITS.sum();
+        long total = hits + MISSES.sum();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    private PreparedStatement prepareOnConnection(Key key) throws SQLException {
+        if (key.keyColumns != null) {
+            return connection.prepareStatement(key.sql, key.keyColumns);
+        }
+        if (key.autoGeneratedKeys >= 0) {
+            return connection.prepareStatement(key.sql, key.autoGeneratedKeys);
+        }
+        return connection.prepareStatement(key.sql);
+    }
+
+    private void evictIfNeeded() {
+        if (entries.size() <= maxSize) {
+            return;
+        }
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > maxSize && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            EVICTIONS.increment();
+            if (eldest.inUse) {
+                eldest.closeOnRelease = true;
+            } else {
+                closeQuietly(eldest.statement);
+            }
+        }
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.inUse = false;
+        if (entry.closeOnRelease) {
+            closeQuietly(entry.statement);
+            return;
+        }
+        try {
+            entry.statement.clearParameters();
+            entry.statement.clearBatch();
+            entry.statement.clearWarnings();
+        } catch (SQLException e) {
+            // La sentencia no se puede reutilizar: se descarta
+            entries.remove(entry.key);
+            closeQuietly(entry.statement);
+        }
+    }
+
+    private PreparedStatement handle(Entry entry) {
+        return (PreparedStatement) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, new Handle(entry));
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            LOGGER.log(Level.FINE, "Error al cerrar sentencia cacheada", e);
+        }
+    }
+
+    /**
+     * Manejador entregado al DAO: delega en la sentencia cacheada y, al cerrarse,
+     * la devuelve a la caché.
+     */
+    private final class Handle implements InvocationHandler {
+        private final Entry entry;
+        private boolean closed;
+
+        Handle(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        release(entry);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || entry.statement.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + entry.key.sql + "]";
+                default:
+                    if (closed) {
+                        throw new SQLException("La sentencia está cerrada");
+                    }
+                    try {
+                        return method.invoke(entry.statement, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+
+    private static final class Entry {
+        final Key key;
+        final PreparedStatement statement;
+        boolean inUse;
+        boolean closeOnRelease;
+
+        Entry(Key key, PreparedStatement statement) {
+            this.key = key;
+            this.statement = statement;
+        }
+    }
+
+    private static final class Key {
+        final String sql;
+        final int autoGeneratedKeys;
+        final String[] keyColumns;
+        final int hash;
+
+        Key(String sql, int autoGeneratedKeys, String[] keyColumns) {
+            this.sql = sql;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+            this.keyColumns = keyColumns;
+            this.hash = Objects.hash(sql, autoGeneratedKeys, Arrays.hashCode(keyColumns));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return autoGeneratedKeys == other.autoGeneratedKeys
+                    && sql.equals(other.sql)
+                    && Arrays.equals(keyColumns, other.keyColumns);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
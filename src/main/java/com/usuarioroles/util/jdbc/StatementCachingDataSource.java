@@ -0,0 +1,204 @@
+package com.usuarioroles.util.jdbc;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * DataSource que envuelve cada conexión física en una {@link StatementCache}.
+ *
+ * Está pensado para usarse como "connection factory" del pool UCP: el pool crea
+ * la instancia con el constructor sin argumentos, le pasa URL, usuario y
+ * contraseña, y la clase del DataSource real mediante la propiedad
+ * {@code targetDataSource}. Como la caché vive en la conexión física, sobrevive a
+ * los préstamos y devoluciones del pool y los DAO la usan sin cambios al llamar a
+ * prepareStatement.
+ */
+public class StatementCachingDataSource implements DataSource {
+    public static final int DEFAULT_CACHE_SIZE = 50;
+
+    private String targetDataSource = "org.h2.jdbcx.JdbcDataSource";
+    private String url;
+    private String user;
+    private String password;
+    private int loginTimeout;
+    private int cacheSize = DEFAULT_CACHE_SIZE;
+    private DataSource target;
+
+    public StatementCachingDataSource() {
+    }
+
+    public StatementCachingDataSource(DataSource target, int cacheSize) {
+        this.target = target;
+        this.cacheSize = cacheSize;
+    }
+
+    public void setTargetDataSource(String targetDataSource) {
+        this.targetDataSource = targetDataSource;
+    }
+
+    public void setStatementCacheSize(String cacheSize) {
+        this.cacheSize = Integer.parseInt(cacheSize.trim());
+    }
+
+    public void setURL(String url) {
+        this.url = url;
+    }
+
+    public void setUser(String user) {
+        this.user = user;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(target().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrap(target().getConnection(username, password));
+    }
+
+    private Connection wrap(Connection connection) {
+        if (cacheSize <= 0) {
+            return connection;
+        }
+        return (Connection) Proxy.newProxyInstance(StatementCachingDataSource.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new CachingConnection(connection, new StatementCache(connection, cacheSize)));
+    }
+
+    /**
+     * Crea el DataSource real a partir de la configuración recibida del pool.
+     */
+    private synchronized DataSource target() throws SQLException {
+        if (target != null) {
+            return target;
+        }
+        try {
+            DataSource created = (DataSource) Class.forName(targetDataSource)
+                    .getDeclaredConstructor().newInstance();
+            setProperty(created, url, "setURL", "setUrl");
+            setProperty(created, user, "setUser");
+            setProperty(created, password, "setPassword");
+            if (loginTimeout > 0) {
+                created.setLoginTimeout(loginTimeout);
+            }
+            target = created;
+            return target;
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new SQLException("No se pudo crear el DataSource " + targetDataSource, e);
+        }
+    }
+
+    private static void setProperty(Object bean, String value, String... setters)
+            throws ReflectiveOperationException {
+        if (value == null) {
+            return;
+        }
+        for (String setter : setters) {
+            try {
+                bean.getClass().getMethod(setter, String.class).invoke(bean, value);
+                return;
+            } catch (NoSuchMethodException e) {
+                // Se prueba el siguiente nombre
+            }
+        }
+        throw new NoSuchMethodException(bean.getClass().getName() + "." + setters[0]);
+    }
+
+    /**
+     * Conexión física con caché de sentencias. Solo las variantes de
+     * prepareStatement que usan los DAO pasan por la caché.
+     */
+    private static final class CachingConnection implements InvocationHandler {
+        private final Connection connection;
+        private final StatementCache cache;
+
+        CachingConnection(Connection connection, StatementCache cache) {
+            this.connection = connection;
+            this.cache = cache;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("prepareStatement".equals(name)) {
+                Class<?>[] types = method.getParameterTypes();
+                if (types.length == 1) {
+                    return cache.prepare((String) args[0], -1, null);
+                }
+                if (types.length == 2 && types[1] == int.class) {
+                    return cache.prepare((String) args[0], (Integer) args[1], null);
+                }
+                if (types.length == 2 && types[1] == String[].class) {
+                    return cache.prepare((String) args[0], -1, ((String[]) args[1]).clone());
+                }
+            } else if ("close".equals(name)) {
+                cache.closeAll();
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return target().getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        target().setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        this.loginTimeout = seconds;
+        if (target != null) {
+            target.setLoginTimeout(seconds);
+        }
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return loginTimeout;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return Logger.getLogger(StatementCachingDataSource.class.getPackage().getName());
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return target().unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || target().isWrapperFor(iface);
+    }
+}
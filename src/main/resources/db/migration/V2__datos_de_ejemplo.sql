@@ -0,0 +1,35 @@
+-- Usuarios, roles y asignaciones de ejemplo. Cada fila se inserta solo si no
+-- existe, para no duplicar datos en bases creadas antes de las migraciones.
+
+INSERT INTO users (username, email, password_hash, first_name, last_name)
+    SELECT 'admin', 'admin@example.com', 'hashed_password', 'Admin', 'User' FROM DUAL
+    WHERE NOT EXISTS (SELECT 1 FROM users WHERE username = 'admin');
+INSERT INTO users (username, email, password_hash, first_name, last_name)
+    SELECT 'user1', 'user1@example.com', 'hashed_password', 'Regular', 'User' FROM DUAL
+    WHERE NOT EXISTS (SELECT 1 FROM users WHERE username = 'user1');
+INSERT INTO users (username, email, password_hash, first_name, last_name)
+    SELECT 'manager', 'manager@example.com', 'hashed_password', 'Manager', 'User' FROM DUAL
+    WHERE NOT EXISTS (SELECT 1 FROM users WHERE username = 'manager');
+
+INSERT INTO roles (role_name, description)
+    SELECT 'ADMIN', 'Administrator role with full access' FROM DUAL
+    WHERE NOT EXISTS (SELECT 1 FROM roles WHERE role_name = 'ADMIN');
+INSERT INTO roles (role_name, description)
+    SELECT 'USER', 'Regular user with limited access' FROM DUAL
+    WHERE NOT EXISTS (SELECT 1 FROM roles WHERE role_name = 'USER');
+INSERT INTO roles (role_name, description)
+    SELECT 'MANAGER', 'Manager with department access' FROM DUAL
+    WHERE NOT EXISTS (SELECT 1 FROM roles WHERE role_name = 'MANAGER');
+
+INSERT INTO user_roles (user_id, role_id)
+    SELECT u.user_id, r.role_id FROM users u, roles r
+    WHERE u.username = 'admin' AND r.role_name = 'ADMIN'
+    AND NOT EXISTS (SELECT 1 FROM user_roles ur WHERE ur.user_id = u.user_id AND ur.role_id = r.role_id);
+INSERT INTO user_roles (user_id, role_id)
+    SELECT u.user_id, r.role_id FROM users u, roles r
+    WHERE u.username = 'user1' AND r.role_name = 'USER'
+    AND NOT EXISTS (SELECT 1 FROM user_roles ur WHERE ur.user_id = u.user_id AND ur.role_id = r.role_id);
+INSERT INTO user_roles (user_id, role_id)
+    SELECT u.user_id, r.role_id FROM users u, roles r
+    WHERE u.username = 'manager' AND r.role_name = 'MANAGER'
+    AND NOT EXISTS (SELECT 1 FROM user_roles ur WHERE ur.user_id = u.user_id AND ur.role_id = r.role_id);
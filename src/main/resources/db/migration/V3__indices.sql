@@ -0,0 +1,10 @@
+-- Índices para las búsquedas por nombre de usuario, email y nombre de rol, y
+-- para listar los usuarios de un rol (la clave primaria de user_roles empieza
+-- por user_id y no sirve para filtrar por role_id).
+-- IF NOT EXISTS: el DDL se confirma sentencia a sentencia, así que el script debe
+-- poder repetirse tras un fallo a medias o si otra instancia lo aplica a la vez.
+
+CREATE UNIQUE INDEX IF NOT EXISTS ux_users_username ON users (username);
+CREATE UNIQUE INDEX IF NOT EXISTS ux_users_email ON users (email);
+CREATE UNIQUE INDEX IF NOT EXISTS ux_roles_role_name ON roles (role_name);
+CREATE INDEX IF NOT EXISTS ix_user_roles_role_user ON user_roles (role_id, user_id);
@@ -0,0 +1,16 @@
+-- Jerarquía de roles: cada fila indica que role_id hereda de parent_role_id
+-- (p. ej. MANAGER hereda de USER), de modo que un usuario con role_id tiene
+-- también, de forma efectiva, parent_role_id y todos sus ascendientes.
+-- IF NOT EXISTS permite repetir el script (ver V3).
+
+CREATE TABLE IF NOT EXISTS role_parents (
+    role_id INT NOT NULL,
+    parent_role_id INT NOT NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (role_id, parent_role_id),
+    FOREIGN KEY (role_id) REFERENCES roles(role_id),
+    FOREIGN KEY (parent_role_id) REFERENCES roles(role_id),
+    CHECK (role_id <> parent_role_id)
+);
+
+CREATE INDEX IF NOT EXISTS ix_role_parents_parent ON role_parents (parent_role_id, role_id);
@@ -0,0 +1,14 @@
+-- Marcador de cambios de user_roles: cada escritura en user_roles incrementa
+-- version en la misma transacción, y cada instancia lo compara con la versión de
+-- su índice en memoria antes de fiarse de él. Los cambios hechos a mano en
+-- user_roles deben incrementarlo también para que las instancias los vean:
+--   UPDATE user_roles_version SET version = version + 1 WHERE id = 1;
+
+CREATE TABLE IF NOT EXISTS user_roles_version (
+    id INT NOT NULL PRIMARY KEY,
+    version BIGINT NOT NULL
+);
+
+INSERT INTO user_roles_version (id, version)
+    SELECT 1, 0 FROM DUAL
+    WHERE NOT EXISTS (SELECT 1 FROM user_roles_version WHERE id = 1);
@@ -0,0 +1,124 @@
+package com.usuarioroles;
+
+import com.microsoft.azure.functions.*;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Petición HTTP de prueba, sin Mockito, para invocar las funciones directamente
+ * desde pruebas y benchmarks. Las respuestas se construyen con
+ * {@link HttpResponseMessageMock}.
+ */
+public class HttpRequestMessageStub implements HttpRequestMessage<Optional<String>> {
+    private final HttpMethod method;
+    private final URI uri;
+    private final Map<String, String> headers = new HashMap<>();
+    private final Map<String, String> queryParameters = new HashMap<>();
+    private Optional<String> body = Optional.empty();
+
+    public HttpRequestMessageStub(HttpMethod method, String path) {
+        this.method = method;
+        this.uri = URI.create("http://localhost:7071/api/" + path);
+    }
+
+    public static HttpRequestMessageStub get(String path) {
+        return new HttpRequestMessageStub(HttpMethod.GET, path);
+    }
+
+    public HttpRequestMessageStub header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    public HttpRequestMessageStub query(String name, String value) {
+        queryParameters.put(name, value);
+        return this;
+    }
+
+    public HttpRequestMessageStub body(String value) {
+        body = Optional.ofNullable(value);
+        return this;
+    }
+
+    @Override
+    public URI getUri() {
+        return uri;
+    }
+
+    @Override
+    public HttpMethod getHttpMethod() {
+        return method;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public Map<String, String> getQueryParameters() {
+        return queryParameters;
+    }
+
+    @Override
+    public Optional<String> getBody() {
+        return body;
+    }
+
+    @Override
+    public HttpResponseMessage.Builder createResponseBuilder(HttpStatus status) {
+        return new HttpResponseMessageMock.HttpResponseMessageBuilderMock().status(status);
+    }
+
+    @Override
+    public HttpResponseMessage.Builder createResponseBuilder(HttpStatusType status) {
+        return new HttpResponseMessageMock.HttpResponseMessageBuilderMock().status(status);
+    }
+
+    /**
+     * Contexto de ejecución cuyo logger acepta todos los mensajes (como el del
+     * host de Functions) pero los descarta.
+     */
+    public static ExecutionContext context(String functionName) {
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.INFO);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        return new ExecutionContext() {
+            @Override
+            public Logger getLogger() {
+                return logger;
+            }
+
+            @Override
+            public String getInvocationId() {
+                return "stub";
+            }
+
+            @Override
+            public String getFunctionName() {
+                return functionName;
+            }
+        };
+    }
+}
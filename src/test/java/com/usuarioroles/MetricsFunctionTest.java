@@ -0,0 +1,31 @@
+package com.usuarioroles;
+
+import com.microsoft.azure.functions.*;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de la función de métricas.
+ */
+public class MetricsFunctionTest {
+
+    @Test
+    public void testMetricsIncludeHandlersAndDaoMethods() {
+        ExecutionContext context = HttpRequestMessageStub.context("MetricsFunctionTest");
+        UserFunction users = new UserFunction();
+        users.getUserById(HttpRequestMessageStub.get("users/1"), "1", context);
+        users.getUserById(HttpRequestMessageStub.get("users/x"), "x", context);
+
+        HttpResponseMessage response = new MetricsFunction().metrics(HttpRequestMessageStub.get("metrics"), context);
+
+        assertEquals(HttpStatus.OK, response.getStatus());
+        assertTrue(response.getHeader("Content-Type").startsWith("text/plain; version=0.0.4"));
+        String body = response.getBody().toString();
+        assertTrue(body.contains("usuarioroles_function_responses_total{function=\"getUserById\",status=\"200\"}"), body);
+        assertTrue(body.contains("usuarioroles_function_responses_total{function=\"getUserById\",status=\"400\"}"), body);
+        assertTrue(body.contains("usuarioroles_function_duration_seconds_bucket{function=\"getUserById\",le=\"+Inf\"}"), body);
+        assertTrue(body.contains("usuarioroles_function_duration_quantile_seconds{function=\"getUserById\",quantile=\"0.99\"}"), body);
+        assertTrue(body.contains("usuarioroles_dao_duration_seconds_count{method=\"UserDAO.getUserById\"}"), body);
+    }
+}
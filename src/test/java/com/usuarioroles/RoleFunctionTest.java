@@ -0,0 +1,46 @@
+package com.usuarioroles;
+
+import com.microsoft.azure.functions.*;
+import com.usuarioroles.dao.UserDAO;
+import com.usuarioroles.util.ResponseCache;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de RoleFunction invocando los métodos directamente, sobre la base de
+ * datos de la aplicación.
+ */
+public class RoleFunctionTest {
+    private final RoleFunction function = new RoleFunction();
+    private final ExecutionContext context = HttpRequestMessageStub.context("RoleFunctionTest");
+
+    private String usersOfRole(String roleId) {
+        HttpResponseMessage response = function.getUsersByRoleId(
+                HttpRequestMessageStub.get("roles/" + roleId + "/users"), roleId, context);
+        assertEquals(HttpStatus.OK, response.getStatus());
+        return new String((byte[]) response.getBody(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testCachedResponseIsInvalidatedByWrites() throws Exception {
+        ResponseCache cache = ResponseCache.getInstance();
+        String before = usersOfRole("3");
+        long hits = cache.getHits();
+        assertEquals(before, usersOfRole("3"));
+        assertEquals(hits + 1, cache.getHits());
+
+        UserDAO userDAO = new UserDAO();
+        userDAO.assignRoleToUser(1, 3);
+        try {
+            String after = usersOfRole("3");
+            assertNotEquals(before, after);
+            assertTrue(after.contains("\"username\":\"admin\""), after);
+        } finally {
+            userDAO.removeRoleFromUser(1, 3);
+        }
+        assertEquals(before, usersOfRole("3"));
+    }
+}
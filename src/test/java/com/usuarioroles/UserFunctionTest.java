@@ -0,0 +1,83 @@
+package com.usuarioroles;
+
+import com.microsoft.azure.functions.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de UserFunction invocando los métodos directamente, sobre la base de
+ * datos de la aplicación.
+ */
+public class UserFunctionTest {
+    private final UserFunction function = new UserFunction();
+    private final ExecutionContext context = HttpRequestMessageStub.context("UserFunctionTest");
+
+    @Test
+    public void testGetUserById() {
+        HttpResponseMessage ok = function.getUserById(HttpRequestMessageStub.get("users/1"), "1", context);
+        assertEquals(HttpStatus.OK, ok.getStatus());
+        assertEquals("application/json", ok.getHeader("Content-Type"));
+        assertTrue(ok.getBody().toString().contains("\"username\":\"admin\""));
+
+        HttpResponseMessage invalid = function.getUserById(HttpRequestMessageStub.get("users/x"), "x", context);
+        assertEquals(HttpStatus.BAD_REQUEST, invalid.getStatus());
+    }
+
+    @Test
+    public void testEffectiveRolesOfUnknownUserIsNotFound() {
+        HttpResponseMessage ok = function.getEffectiveRoles(
+                HttpRequestMessageStub.get("users/1/effectiveRoles"), "1", context);
+        assertEquals(HttpStatus.OK, ok.getStatus());
+        assertTrue(ok.getBody().toString().contains("\"roleName\":\"ADMIN\""));
+
+        HttpResponseMessage missing = function.getEffectiveRoles(
+                HttpRequestMessageStub.get("users/999999/effectiveRoles"), "999999", context);
+        assertEquals(HttpStatus.NOT_FOUND, missing.getStatus());
+    }
+
+    @Test
+    public void testGetAllUsersReturnsPage() {
+        HttpRequestMessageStub request = HttpRequestMessageStub.get("users").query("limit", "2");
+        HttpResponseMessage response = function.getAllUsers(request, context);
+
+        assertEquals(HttpStatus.OK, response.getStatus());
+        String body = new String((byte[]) response.getBody(), StandardCharsets.UTF_8);
+        assertTrue(body.startsWith("{\"items\":[{\"userId\":1,"), body);
+        assertTrue(body.contains("\"next\":"), body);
+    }
+
+    @Test
+    public void testTracedRequestHasServerTiming() {
+        HttpResponseMessage plain = function.getAllUsers(HttpRequestMessageStub.get("users"), context);
+        assertNull(plain.getHeader("Server-Timing"));
+
+        HttpRequestMessageStub request = HttpRequestMessageStub.get("users").header("x-trace", "1");
+        HttpResponseMessage traced = function.getAllUsers(request, context);
+
+        String timing = traced.getHeader("Server-Timing");
+        assertNotNull(timing);
+        assertTrue(timing.matches("handler;dur=\\d+\\.\\d{3}, db;dur=\\d+\\.\\d{3}, map;dur=.*json;dur=.*total;dur=\\d+\\.\\d{3}"), timing);
+    }
+
+    @Test
+    public void testConditionalGetReturnsNotModified() {
+        HttpResponseMessage first = function.getUserById(HttpRequestMessageStub.get("users/1"), "1", context);
+        String etag = first.getHeader("ETag");
+        assertNotNull(etag);
+        assertTrue(etag.startsWith("W/\""), etag);
+        assertNotNull(first.getHeader("Cache-Control"));
+
+        HttpResponseMessage revalidated = function.getUserById(
+                HttpRequestMessageStub.get("users/1").header("if-none-match", "\"other\", " + etag), "1", context);
+        assertEquals(HttpStatus.NOT_MODIFIED, revalidated.getStatus());
+        assertEquals(etag, revalidated.getHeader("ETag"));
+        assertNull(revalidated.getBody());
+
+        HttpResponseMessage changed = function.getUserById(
+                HttpRequestMessageStub.get("users/1").header("if-none-match", "W/\"0000000000000000\""), "1", context);
+        assertEquals(HttpStatus.OK, changed.getStatus());
+    }
+}
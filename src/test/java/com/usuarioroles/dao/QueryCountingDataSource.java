@@ -0,0 +1,121 @@
+package com.usuarioroles.dao;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+import com.usuarioroles.util.DatabaseConnection;
+
+/**
+ * DataSource H2 en memoria, independiente del pool de la aplicación, que cuenta
+ * cuántas sentencias se ejecutan. Sirve para verificar el número de viajes a la
+ * base de datos que hace cada operación de los DAO.
+ */
+public class QueryCountingDataSource implements DataSource {
+    private final JdbcDataSource delegate = new JdbcDataSource();
+    private final AtomicInteger executions = new AtomicInteger();
+
+    public QueryCountingDataSource(String name) {
+        delegate.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        delegate.setUser("test");
+        delegate.setPassword("");
+        DatabaseConnection.initializeDatabase(delegate);
+    }
+
+    public int getExecutions() {
+        return executions.get();
+    }
+
+    public void reset() {
+        executions.set(0);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(delegate.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrap(delegate.getConnection(username, password));
+    }
+
+    private Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Connection.class }, new Handler(connection));
+    }
+
+    private class Handler implements InvocationHandler {
+        private final Object target;
+
+        Handler(Object target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (target instanceof Statement && name.startsWith("execute")) {
+                executions.incrementAndGet();
+            }
+            try {
+                Object result = method.invoke(target, args);
+                if (result instanceof Statement) {
+                    Class<?> type = method.getReturnType();
+                    return Proxy.newProxyInstance(getClass().getClassLoader(),
+                            new Class<?>[] { type }, new Handler(result));
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return delegate.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        delegate.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        delegate.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return delegate.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return delegate.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return delegate.isWrapperFor(iface);
+    }
+}
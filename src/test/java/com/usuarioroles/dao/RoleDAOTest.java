@@ -0,0 +1,195 @@
+package com.usuarioroles.dao;
+
+import com.usuarioroles.model.Role;
+import com.usuarioroles.model.User;
+import com.usuarioroles.model.UserIdPage;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de RoleDAO contra una base H2 en memoria propia.
+ */
+public class RoleDAOTest {
+
+    @Test
+    public void testGetUsersByRoleIdAfterPagesByUserId() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("roles_keyset");
+        UserDAOTest.insertUsers(dataSource, 25);
+        RoleDAO roleDAO = new RoleDAO(UserDAOTest.newContext(dataSource));
+
+        // ADMIN: el usuario 1 más los 25 insertados
+        List<User> first = roleDAO.getUsersByRoleIdAfter(1, 0, 10);
+        assertEquals(10, first.size());
+        assertEquals(1L, first.get(0).getUserId());
+
+        long lastId = first.get(9).getUserId();
+        List<User> second = roleDAO.getUsersByRoleIdAfter(1, lastId, 100);
+        assertEquals(16, second.size());
+        assertTrue(second.get(0).getUserId() > lastId);
+    }
+
+    @Test
+    public void testRoleQueriesUseTheBitmapIndex() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("roles_bitmaps");
+        UserDAOTest.insertUsers(dataSource, 25);
+        DaoContext context = UserDAOTest.newContext(dataSource);
+        RoleDAO roleDAO = new RoleDAO(context);
+        long[] none = new long[0];
+
+        dataSource.reset();
+        // ADMIN = {1, 4..28}, USER = {2, 4..28}, MANAGER = {3}
+        assertEquals(26, roleDAO.countUsersByRoleId(1));
+        // Lectura del marcador de user_roles y carga del índice
+        assertEquals(2, dataSource.getExecutions());
+
+        UserIdPage both = roleDAO.queryUsersByRoles(new long[] { 1, 2 }, none, none, 0, 10);
+        assertEquals(25, both.getCount());
+        assertEquals(10, both.getItems().size());
+        assertEquals(4L, both.getItems().get(0));
+        assertNotNull(both.getNext());
+
+        UserIdPage userNotAdmin = roleDAO.queryUsersByRoles(new long[] { 2 }, none, new long[] { 1 }, 0, 10);
+        assertEquals(1, userNotAdmin.getCount());
+        assertEquals(2L, userNotAdmin.getItems().get(0));
+        assertNull(userNotAdmin.getNext());
+
+        assertEquals(28, roleDAO.queryUsersByRoles(none, new long[] { 1, 2, 3 }, none, 0, 1).getCount());
+        assertEquals(2, dataSource.getExecutions());
+
+        // Las asignaciones se reflejan sin recargar el índice
+        new UserDAO(context).assignRoleToUser(3, 1);
+        dataSource.reset();
+        assertEquals(27, roleDAO.countUsersByRoleId(1));
+        assertEquals(0, dataSource.getExecutions());
+
+        List<User> ids = new ArrayList<>();
+        roleDAO.streamUsersByRoleIdAfter(1, 3, 100, UserFields.parse("userId"), ids::add);
+        assertEquals(25, ids.size());
+        assertEquals(4L, ids.get(0).getUserId());
+        assertEquals(0, dataSource.getExecutions());
+        assertThrows(IllegalArgumentException.class,
+                () -> roleDAO.queryUsersByRoles(none, none, new long[] { 1 }, 0, 10));
+    }
+
+    @Test
+    public void testRoleQueriesSeeChangesFromOtherInstances() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("roles_bitmaps_instances");
+        UserDAOTest.insertUsers(dataSource, 25);
+        // Se lee el marcador de user_roles en cada consulta
+        RoleDAO roleDAO = new RoleDAO(new DaoContext(dataSource, new UserRoleIndex(0)));
+        long[] none = new long[0];
+        assertEquals(1, roleDAO.countUsersByRoleId(3));
+
+        // Otra instancia cambia user_roles: el índice cargado queda desactualizado
+        try (Connection connection = dataSource.getConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("INSERT INTO user_roles (user_id, role_id) VALUES (5, 3)");
+            stmt.executeUpdate("DELETE FROM user_roles WHERE user_id = 4 AND role_id = 1");
+            stmt.executeUpdate("UPDATE user_roles_version SET version = version + 1 WHERE id = 1");
+        }
+
+        assertEquals(2, roleDAO.countUsersByRoleId(3));
+        assertEquals(25, roleDAO.countUsersByRoleId(1));
+
+        UserIdPage both = roleDAO.queryUsersByRoles(new long[] { 1, 2 }, none, none, 0, 10);
+        assertEquals(24, both.getCount());
+        assertEquals(5L, both.getItems().get(0));
+
+        UserIdPage userNotAdmin = roleDAO.queryUsersByRoles(new long[] { 2 }, none, new long[] { 1 }, 0, 10);
+        assertEquals(List.of(2L, 4L), userNotAdmin.getItems());
+
+        List<User> managers = new ArrayList<>();
+        roleDAO.streamUsersByRoleIdAfter(3, 0, 100, UserFields.parse("userId"), managers::add);
+        assertEquals(2, managers.size());
+        assertEquals(3L, managers.get(0).getUserId());
+        assertEquals(5L, managers.get(1).getUserId());
+    }
+
+    @Test
+    public void testEffectiveRolesFollowTheHierarchy() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("roles_hierarchy");
+        DaoContext context = UserDAOTest.newContext(dataSource);
+        RoleDAO roleDAO = new RoleDAO(context);
+
+        // ADMIN (1) hereda de MANAGER (3), que hereda de USER (2)
+        assertTrue(roleDAO.addRoleParent(3, 2));
+        assertTrue(roleDAO.addRoleParent(1, 3));
+        assertFalse(roleDAO.addRoleParent(1, 3));
+        assertThrows(IllegalArgumentException.class, () -> roleDAO.addRoleParent(2, 1));
+        assertThrows(IllegalArgumentException.class, () -> roleDAO.addRoleParent(2, 2));
+        roleDAO.getAllRoles();
+
+        dataSource.reset();
+        assertEquals(List.of(1L, 2L, 3L), roleIds(roleDAO.getEffectiveRoles(1)));
+        assertEquals(List.of(2L, 3L), roleIds(roleDAO.getEffectiveRoles(3)));
+        assertEquals(List.of(3L), roleIds(roleDAO.getParentRoles(1, false)));
+        assertEquals(List.of(2L, 3L), roleIds(roleDAO.getParentRoles(1, true)));
+        // Solo la carga del índice de user_roles (marcador y tabla)
+        assertEquals(2, dataSource.getExecutions());
+
+        assertTrue(roleDAO.removeRoleParent(3, 2));
+        assertEquals(List.of(1L, 3L), roleIds(roleDAO.getEffectiveRoles(1)));
+        assertTrue(roleDAO.addRoleParent(1, 2));
+        assertTrue(roleDAO.deleteRole(3));
+        assertEquals(List.of(1L, 2L), roleIds(roleDAO.getEffectiveRoles(1)));
+
+        // Una instancia nueva carga lo mismo desde role_parents
+        RoleDAO reloaded = new RoleDAO(UserDAOTest.newContext(dataSource));
+        assertEquals(List.of(1L, 2L), roleIds(reloaded.getEffectiveRoles(1)));
+        assertEquals(List.of(2L), roleIds(reloaded.getParentRoles(1, true)));
+    }
+
+    private static List<Long> roleIds(List<Role> roles) {
+        List<Long> ids = new ArrayList<>();
+        for (Role role : roles) {
+            ids.add(role.getRoleId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testRoleCatalogServesReadsWithoutQueries() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("roles_catalog_reads");
+        RoleDAO roleDAO = new RoleDAO(UserDAOTest.newContext(dataSource));
+
+        dataSource.reset();
+        assertEquals(3, roleDAO.getAllRoles().size());
+        assertEquals(1, dataSource.getExecutions());
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("ADMIN", roleDAO.getRoleById(1).getRoleName());
+            assertEquals(3L, roleDAO.getRoleByName("MANAGER").getRoleId());
+            assertTrue(roleDAO.roleExists(2));
+            assertFalse(roleDAO.roleExists(99));
+        }
+        assertEquals(1, dataSource.getExecutions());
+    }
+
+    @Test
+    public void testRoleCatalogFollowsWrites() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("roles_catalog_writes");
+        DaoContext context = UserDAOTest.newContext(dataSource);
+        RoleDAO roleDAO = new RoleDAO(context);
+        RoleDAO otherDAO = new RoleDAO(context);
+        roleDAO.getAllRoles();
+
+        Role created = roleDAO.createRole(new Role(null, "AUDITOR", "Read only", null, null));
+        assertNotNull(created.getCreatedAt());
+        assertEquals(created.getRoleId(), otherDAO.getRoleByName("AUDITOR").getRoleId());
+
+        created.setRoleName("AUDITOR_V2");
+        assertTrue(roleDAO.updateRole(created));
+        assertNull(otherDAO.getRoleByName("AUDITOR"));
+        assertEquals("AUDITOR_V2", otherDAO.getRoleById(created.getRoleId()).getRoleName());
+
+        assertTrue(roleDAO.deleteRole(created.getRoleId()));
+        assertFalse(otherDAO.roleExists(created.getRoleId()));
+        assertEquals(3, otherDAO.getAllRoles().size());
+    }
+}
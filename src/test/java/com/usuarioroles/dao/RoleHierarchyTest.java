@@ -0,0 +1,110 @@
+package com.usuarioroles.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de la jerarquía de roles y su cierre transitivo en memoria.
+ */
+public class RoleHierarchyTest {
+
+    @Test
+    public void testClosureOfAChain() {
+        RoleHierarchy hierarchy = loaded(new long[][] { { 4, 3 }, { 3, 2 }, { 2, 1 } });
+        RoleHierarchy.Snapshot snapshot = hierarchy.current();
+
+        assertArrayEquals(new long[] { 1, 2, 3 }, snapshot.ancestorsOf(4));
+        assertArrayEquals(new long[] { 2, 3, 4 }, snapshot.descendantsOf(1));
+        assertTrue(snapshot.inherits(4, 1));
+        assertFalse(snapshot.inherits(1, 4));
+        assertArrayEquals(new long[] { 1, 2, 3, 5 }, snapshot.expand(new int[] { 3, 5 }));
+    }
+
+    @Test
+    public void testUnloadedHierarchyIgnoresWrites() {
+        RoleHierarchy hierarchy = new RoleHierarchy(60_000);
+        hierarchy.addParent(2, 1);
+
+        assertNull(hierarchy.current());
+    }
+
+    @Test
+    public void testRemovingAnEdgeKeepsOtherPaths() {
+        // 4 llega a 1 por 2 y por 3
+        RoleHierarchy hierarchy = loaded(new long[][] { { 4, 2 }, { 4, 3 }, { 2, 1 }, { 3, 1 } });
+
+        hierarchy.removeParent(2, 1);
+        assertArrayEquals(new long[] { 1, 2, 3 }, hierarchy.current().ancestorsOf(4));
+        assertArrayEquals(new long[] { 3, 4 }, hierarchy.current().descendantsOf(1));
+
+        hierarchy.removeRole(3);
+        assertArrayEquals(new long[] { 2 }, hierarchy.current().ancestorsOf(4));
+        assertArrayEquals(new long[0], hierarchy.current().descendantsOf(1));
+    }
+
+    @Test
+    public void testEdgeClosingACycleDiscardsTheSnapshot() {
+        RoleHierarchy hierarchy = loaded(new long[][] { { 2, 1 } });
+
+        hierarchy.addParent(1, 2);
+        assertNull(hierarchy.current());
+    }
+
+    @Test
+    public void testIncrementalUpdatesMatchAFullLoad() {
+        Random random = new Random(23);
+        int roles = 30;
+        List<long[]> edges = new ArrayList<>();
+        RoleHierarchy hierarchy = loaded(new long[0][]);
+
+        for (int step = 0; step < 2000; step++) {
+            long roleId = 1 + random.nextInt(roles);
+            long parentId = 1 + random.nextInt(roles);
+            int op = random.nextInt(10);
+            if (op < 6) {
+                // Como RoleDAO: solo relaciones que no cierran un ciclo
+                if (roleId != parentId && !hierarchy.current().inherits(parentId, roleId)
+                        && !contains(edges, roleId, parentId)) {
+                    edges.add(new long[] { roleId, parentId });
+                    hierarchy.addParent(roleId, parentId);
+                }
+            } else if (op < 9) {
+                edges.removeIf(e -> e[0] == roleId && e[1] == parentId);
+                hierarchy.removeParent(roleId, parentId);
+            } else {
+                edges.removeIf(e -> e[0] == roleId || e[1] == roleId);
+                hierarchy.removeRole(roleId);
+            }
+
+            if (step % 50 == 0) {
+                RoleHierarchy.Snapshot expected = loaded(edges.toArray(new long[0][])).current();
+                RoleHierarchy.Snapshot actual = hierarchy.current();
+                for (long role = 1; role <= roles; role++) {
+                    assertArrayEquals(expected.parentsOf(role), actual.parentsOf(role));
+                    assertArrayEquals(expected.ancestorsOf(role), actual.ancestorsOf(role));
+                    assertArrayEquals(expected.descendantsOf(role), actual.descendantsOf(role));
+                }
+            }
+        }
+    }
+
+    private static boolean contains(List<long[]> edges, long roleId, long parentId) {
+        for (long[] edge : edges) {
+            if (edge[0] == roleId && edge[1] == parentId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static RoleHierarchy loaded(long[][] edges) {
+        RoleHierarchy hierarchy = new RoleHierarchy(60_000);
+        hierarchy.load(Arrays.asList(edges));
+        return hierarchy;
+    }
+}
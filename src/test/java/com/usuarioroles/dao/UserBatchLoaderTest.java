@@ -0,0 +1,84 @@
+package com.usuarioroles.dao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.usuarioroles.model.User;
+
+/**
+ * Pruebas del cargador por lotes de usuarios.
+ */
+public class UserBatchLoaderTest {
+
+    private static User user(long userId) {
+        return new User(userId, "user" + userId, "user" + userId + "@example.com", "hash", null, null, true,
+                null, null);
+    }
+
+    @Test
+    public void testFullBatchIsDispatchedAtOnce() throws Exception {
+        List<List<Long>> batches = new CopyOnWriteArrayList<>();
+        UserBatchLoader loader = new UserBatchLoader(60_000_000, 3, 1, ids -> {
+            batches.add(new ArrayList<>(ids));
+            Map<Long, User> users = new HashMap<>();
+            for (long id : ids) {
+                if (id != 2) {
+                    users.put(id, user(id));
+                }
+            }
+            return users;
+        });
+
+        CompletableFuture<User> first = loader.load(1);
+        CompletableFuture<User> missing = loader.load(2);
+        // Un ID repetido comparte el futuro y no cuenta para el máximo
+        assertSame(missing, loader.load(2));
+        CompletableFuture<User> third = loader.load(3);
+
+        assertEquals("user1", first.get(10, TimeUnit.SECONDS).getUsername());
+        assertNull(missing.get(10, TimeUnit.SECONDS));
+        assertEquals("user3", third.get(10, TimeUnit.SECONDS).getUsername());
+        assertEquals(List.of(List.of(1L, 2L, 3L)), batches);
+        assertEquals(1, loader.getBatches());
+        assertEquals(3, loader.getKeys());
+    }
+
+    @Test
+    public void testWindowDispatchesPartialBatch() throws Exception {
+        UserBatchLoader loader = new UserBatchLoader(1000, 100, 1, ids -> {
+            Map<Long, User> users = new HashMap<>();
+            for (long id : ids) {
+                users.put(id, user(id));
+            }
+            return users;
+        });
+
+        assertEquals("user7", loader.load(7).get(10, TimeUnit.SECONDS).getUsername());
+        assertEquals("user8", loader.load(8).get(10, TimeUnit.SECONDS).getUsername());
+        assertEquals(2, loader.getBatches());
+    }
+
+    @Test
+    public void testErrorsFailEveryCallerOfTheBatch() throws Exception {
+        UserBatchLoader loader = new UserBatchLoader(60_000_000, 2, 1, ids -> {
+            throw new SQLException("caída");
+        });
+
+        CompletableFuture<User> first = loader.load(1);
+        CompletableFuture<User> second = loader.load(2);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> first.get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof SQLException);
+        assertThrows(ExecutionException.class, () -> second.get(10, TimeUnit.SECONDS));
+    }
+}
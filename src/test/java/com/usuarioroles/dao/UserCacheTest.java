@@ -0,0 +1,74 @@
+package com.usuarioroles.dao;
+
+import com.usuarioroles.model.Role;
+import com.usuarioroles.model.User;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de la caché LRU/TTL de usuarios.
+ */
+public class UserCacheTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        UserCache cache = new UserCache(2, 60_000);
+        cache.put(user(1), cache.stamp());
+        cache.put(user(2), cache.stamp());
+        assertNotNull(cache.get(1));
+
+        cache.put(user(3), cache.stamp());
+
+        assertNotNull(cache.get(1));
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(3));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testExpiredEntriesAreMisses() throws Exception {
+        UserCache cache = new UserCache(10, 1);
+        cache.put(user(1), cache.stamp());
+        Thread.sleep(5);
+
+        assertNull(cache.get(1));
+        assertEquals(1, cache.getExpirations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testPutAfterInvalidationIsIgnored() {
+        UserCache cache = new UserCache(10, 60_000);
+        long stamp = cache.stamp();
+        cache.invalidate(1);
+
+        cache.put(user(1), stamp);
+
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void testInvalidateRoleRemovesOnlyHolders() {
+        UserCache cache = new UserCache(10, 60_000);
+        User admin = user(1);
+        admin.setRoles(Arrays.asList(new Role(1L, "ADMIN", null, null, null)));
+        User regular = user(2);
+        regular.setRoles(Arrays.asList(new Role(2L, "USER", null, null, null)));
+        cache.put(admin, cache.stamp());
+        cache.put(regular, cache.stamp());
+
+        cache.invalidateRole(1);
+
+        assertNull(cache.get(1));
+        assertNotNull(cache.get(2));
+    }
+
+    private static User user(long id) {
+        return new User(id, "user" + id, "user" + id + "@example.com", "hash", null, null, true, null, null);
+    }
+}
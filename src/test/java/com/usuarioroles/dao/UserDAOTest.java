@@ -0,0 +1,487 @@
+package com.usuarioroles.dao;
+
+import com.usuarioroles.model.BatchItemResult;
+import com.usuarioroles.model.Page;
+import com.usuarioroles.model.Role;
+import com.usuarioroles.model.RoleCheck;
+import com.usuarioroles.model.User;
+import com.usuarioroles.util.Pagination;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de UserDAO contra una base H2 en memoria propia.
+ */
+public class UserDAOTest {
+
+    @Test
+    public void testGetAllUsersQueryCountIsConstant() throws Exception {
+        QueryCountingDataSource small = new QueryCountingDataSource("users_scale_small");
+        QueryCountingDataSource large = new QueryCountingDataSource("users_scale_large");
+        insertUsers(small, 10);
+        insertUsers(large, 2000);
+
+        small.reset();
+        List<User> fewUsers = new UserDAO(newContext(small)).getAllUsers();
+        large.reset();
+        List<User> manyUsers = new UserDAO(newContext(large)).getAllUsers();
+
+        assertEquals(13, fewUsers.size());
+        assertEquals(2003, manyUsers.size());
+        assertEquals(1, small.getExecutions());
+        assertEquals(small.getExecutions(), large.getExecutions());
+    }
+
+    @Test
+    public void testGetAllUsersSharesRoleInstances() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("users_shared_roles");
+        insertUsers(dataSource, 20);
+
+        List<User> users = new UserDAO(newContext(dataSource)).getAllUsers();
+
+        Role first = null;
+        for (User user : users) {
+            if (user.getUserId() > 3) {
+                assertEquals(2, user.getRoles().size());
+                Role userRole = user.getRoles().get(1);
+                assertEquals("USER", userRole.getRoleName());
+                if (first == null) {
+                    first = userRole;
+                }
+                assertSame(first, userRole);
+            }
+        }
+        assertNotNull(first);
+    }
+
+    @Test
+    public void testGetUserByIdLoadsRolesInOneQuery() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("users_by_id");
+        UserDAO userDAO = new UserDAO(newContext(dataSource));
+
+        dataSource.reset();
+        User admin = userDAO.getUserById(1);
+
+        assertEquals("admin", admin.getUsername());
+        assertEquals(1, admin.getRoles().size());
+        assertEquals("ADMIN", admin.getRoles().get(0).getRoleName());
+        assertEquals(1, dataSource.getExecutions());
+        assertNull(userDAO.getUserById(999));
+    }
+
+    @Test
+    public void testGetUsersByIdsUsesOneUserAndOneRoleQuery() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("users_by_ids");
+        insertUsers(dataSource, 10);
+        UserDAO userDAO = new UserDAO(newContext(dataSource));
+
+        dataSource.reset();
+        Map<Long, User> users = userDAO.getUsersByIds(Arrays.asList(1L, 3L, 4L, 5L, 999L, 5L));
+
+        assertEquals(2, dataSource.getExecutions());
+        assertEquals(4, users.size());
+        assertNull(users.get(999L));
+        assertEquals("ADMIN", users.get(1L).getRoles().get(0).getRoleName());
+        assertEquals(2, users.get(5L).getRoles().size());
+        assertSame(users.get(4L).getRoles().get(0), users.get(5L).getRoles().get(0));
+    }
+
+    @Test
+    public void testBatchLoaderResolvesConcurrentGetUserByIdInOneBatch() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("users_batch_loader");
+        insertUsers(dataSource, 10);
+        DaoContext context;
+        // Ventana larga: el lote se envía al reunir 3 IDs
+        System.setProperty("USER_BATCH_LOADER_WINDOW_MICROS", "10000000");
+        System.setProperty("USER_BATCH_LOADER_MAX_KEYS", "3");
+        try {
+            context = newContext(dataSource);
+        } finally {
+            System.clearProperty("USER_BATCH_LOADER_WINDOW_MICROS");
+            System.clearProperty("USER_BATCH_LOADER_MAX_KEYS");
+        }
+        UserDAO userDAO = new UserDAO(context);
+
+        dataSource.reset();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<User> first = executor.submit(() -> userDAO.getUserById(4));
+            Future<User> missing = executor.submit(() -> userDAO.getUserById(999));
+            Future<User> third = executor.submit(() -> userDAO.getUserById(6));
+
+            assertEquals("bulk4", first.get(10, TimeUnit.SECONDS).getUsername());
+            assertNull(missing.get(10, TimeUnit.SECONDS));
+            assertEquals(2, third.get(10, TimeUnit.SECONDS).getRoles().size());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, dataSource.getExecutions());
+        assertEquals(1, context.getUserBatchLoader().getBatches());
+
+        // Los usuarios cargados por lotes quedan en la caché
+        assertEquals("bulk6", userDAO.getUserById(6).getUsername());
+        assertEquals(2, dataSource.getExecutions());
+    }
+
+    @Test
+    public void testKeysetPaginationWalksAllUsers() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("users_keyset");
+        insertUsers(dataSource, 47);
+        UserDAO userDAO = new UserDAO(newContext(dataSource));
+
+        int limit = 10;
+        int pages = 0;
+        long seen = 0;
+        long lastId = 0;
+        String cursor = null;
+        do {
+            lastId = Pagination.decodeCursor(cursor);
+            Page<User> page = Pagination.toPage(userDAO.getUsersAfter(lastId, limit + 1), limit, User::getUserId);
+            for (User user : page.getItems()) {
+                assertTrue(user.getUserId() > lastId);
+                assertFalse(user.getRoles().isEmpty());
+                seen++;
+            }
+            cursor = page.getNext();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(50, seen);
+        assertEquals(5, pages);
+    }
+
+    @Test
+    public void testSparseFieldsSkipRolesAndUnselectedColumns() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("users_sparse");
+        insertUsers(dataSource, 5);
+        UserDAO userDAO = new UserDAO(newContext(dataSource));
+
+        List<User> users = new ArrayList<>();
+        userDAO.streamUsersAfter(0, 100, UserFields.parse("username"), users::add);
+
+        assertEquals(8, users.size());
+        for (User user : users) {
+            assertNotNull(user.getUserId());
+            assertNotNull(user.getUsername());
+            assertNull(user.getPasswordHash());
+            assertNull(user.getRoles());
+        }
+
+        users.clear();
+        userDAO.streamUsersAfter(0, 100, UserFields.parse("username,roles.roleName"), users::add);
+        assertEquals("ADMIN", users.get(0).getRoles().get(0).getRoleName());
+        assertNull(users.get(0).getRoles().get(0).getDescription());
+        assertNull(users.get(0).getEmail());
+    }
+
+    @Test
+    public void testUnknownFieldIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> UserFields.parse("userId,salary"));
+        assertThrows(IllegalArgumentException.class, () -> UserFields.parse("roles.permissions"));
+        assertSame(UserFields.ALL, UserFields.parse(null));
+    }
+
+    @Test
+    public void testHasRoleAnswersFromIndexWithoutQueries() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("users_has_role");
+        insertUsers(dataSource, 10);
+        UserDAO userDAO = new UserDAO(newContext(dataSource));
+
+        dataSource.reset();
+        assertTrue(userDAO.hasRole(1, 1));
+        // Lectura del marcador de user_roles, carga del índice y de la jerarquía de roles
+        assertEquals(3, dataSource.getExecutions());
+
+        assertTrue(userDAO.hasRole(5, 2));
+        assertFalse(userDAO.hasRole(5, 3));
+        assertFalse(userDAO.hasRole(999, 1));
+        assertEquals(3, dataSource.getExecutions());
+
+        userDAO.assignRoleToUser(5, 3);
+        userDAO.removeRoleFromUser(5, 2);
+        userDAO.deleteUser(6);
+        dataSource.reset();
+        assertTrue(userDAO.hasRole(5, 3));
+        assertFalse(userDAO.hasRole(5, 2));
+        assertFalse(userDAO.hasRole(6, 1));
+        assertEquals(0, dataSource.getExecutions());
+    }
+
+    @Test
+    public void testRoleChecksIncludeInheritedRoles() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("users_has_role_inherited");
+        DaoContext context = newContext(dataSource);
+        UserDAO userDAO = new UserDAO(context);
+        RoleDAO roleDAO = new RoleDAO(context);
+
+        // manager (3) solo tiene asignado MANAGER (3), que hereda de USER (2)
+        assertTrue(roleDAO.addRoleParent(3, 2));
+        assertTrue(userDAO.hasRole(3, 3));
+        assertTrue(userDAO.hasRole(3, 2));
+        assertFalse(userDAO.hasRole(3, 1));
+        assertFalse(userDAO.hasRole(2, 3));
+
+        List<RoleCheck> checks = userDAO.checkRoles(Arrays.asList(
+                new RoleCheck(3L, 2L, null), new RoleCheck(2L, 3L, null), new RoleCheck(1L, 2L, null)));
+        assertEquals(Boolean.TRUE, checks.get(0).getHasRole());
+        assertEquals(Boolean.FALSE, checks.get(1).getHasRole());
+        assertEquals(Boolean.FALSE, checks.get(2).getHasRole());
+
+        assertTrue(roleDAO.removeRoleParent(3, 2));
+        assertFalse(userDAO.hasRole(3, 2));
+    }
+
+    @Test
+    public void testHasRoleSeesChangesFromOtherInstances() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("users_has_role_instances");
+        // Se lee el marcador de user_roles en cada comprobación
+        DaoContext local = new DaoContext(dataSource, new UserRoleIndex(0));
+        UserDAO localDAO = new UserDAO(local);
+        UserDAO otherDAO = new UserDAO(newContext(dataSource));
+
+        assertTrue(localDAO.hasRole(2, 2));
+        // Las escrituras propias mantienen vigente el índice: solo se lee el marcador
+        localDAO.assignRoleToUser(2, 3);
+        dataSource.reset();
+        assertTrue(localDAO.hasRole(2, 3));
+        assertEquals(1, dataSource.getExecutions());
+
+        // Otra instancia revoca un rol: se ve en la siguiente comprobación, sin
+        // esperar a que termine la recarga del índice
+        otherDAO.removeRoleFromUser(2, 2);
+        assertFalse(localDAO.hasRole(2, 2));
+        assertTrue(localDAO.hasRole(2, 3));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (local.getUserRoleIndex().getLoadedVersion() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(2, local.getUserRoleIndex().getLoadedVersion());
+        dataSource.reset();
+        assertFalse(localDAO.hasRole(2, 2));
+        assertEquals(1, dataSource.getExecutions());
+    }
+
+    @Test
+    public void testGetUserByIdUsesCacheAndWritesInvalidate() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("users_cache");
+        DaoContext context = newContext(dataSource);
+        UserDAO userDAO = new UserDAO(context);
+        RoleDAO roleDAO = new RoleDAO(context);
+
+        userDAO.getUserById(2);
+        dataSource.reset();
+        assertEquals(1, userDAO.getUserById(2).getRoles().size());
+        assertEquals(0, dataSource.getExecutions());
+
+        userDAO.assignRoleToUser(2, 3);
+        assertEquals(2, userDAO.getUserById(2).getRoles().size());
+
+        Role manager = roleDAO.getRoleById(3);
+        roleDAO.updateRole(new Role(manager.getRoleId(), "DEPT_MANAGER", manager.getDescription(), null, null));
+        assertEquals("DEPT_MANAGER", userDAO.getUserById(2).getRoles().get(1).getRoleName());
+
+        userDAO.removeRoleFromUser(2, 3);
+        assertEquals(1, userDAO.getUserById(2).getRoles().size());
+        assertTrue(context.getUserCache().getHits() >= 1);
+    }
+
+    @Test
+    public void testCreateUsersBatchesRoundTrips() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("users_batch");
+        UserDAO userDAO = new UserDAO(newContext(dataSource));
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            User user = new User(null, "batch" + i, "batch" + i + "@example.com", "hash", "B", "U", true, null, null);
+            user.setRoles(Arrays.asList(new Role(2L, null, null, null, null)));
+            users.add(user);
+        }
+
+        dataSource.reset();
+        List<BatchItemResult> results = userDAO.createUsers(users, 100);
+
+        assertEquals(300, results.size());
+        assertTrue(results.stream().allMatch(BatchItemResult::isSuccess));
+        // Por bloque: un lote de usuarios, uno de roles y el incremento del marcador de user_roles
+        assertEquals(12, dataSource.getExecutions());
+        User last = userDAO.getUserById(results.get(299).getId());
+        assertEquals("batch299", last.getUsername());
+        assertEquals("USER", last.getRoles().get(0).getRoleName());
+    }
+
+    @Test
+    public void testCreateUsersReportsFailuresPerItem() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("users_batch_failures");
+        UserDAO userDAO = new UserDAO(newContext(dataSource));
+        User valid = new User(null, "ok", "ok@example.com", "hash", null, null, true, null, null);
+        User missingEmail = new User(null, "noemail", null, "hash", null, null, true, null, null);
+        User badRole = new User(null, "badrole", "badrole@example.com", "hash", null, null, true, null, null);
+        badRole.setRoles(Arrays.asList(new Role(999L, null, null, null, null)));
+        User alsoValid = new User(null, "ok2", "ok2@example.com", "hash", null, null, true, null, null);
+
+        List<BatchItemResult> results = userDAO.createUsers(Arrays.asList(valid, missingEmail, badRole, alsoValid), 10);
+
+        assertTrue(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+        assertFalse(results.get(2).isSuccess());
+        assertTrue(results.get(3).isSuccess());
+        assertNotNull(userDAO.getUserById(results.get(3).getId()));
+        assertEquals(5, userDAO.getAllUsers().size());
+    }
+
+    @Test
+    public void testSetUserRolesWritesOnlyTheDifference() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("users_role_sync");
+        UserDAO userDAO = new UserDAO(newContext(dataSource));
+
+        dataSource.reset();
+        assertTrue(userDAO.setUserRoles(1, Arrays.asList(1L, 2L, 3L)));
+        // Bloqueo del usuario, lectura de roles actuales, un lote de inserciones e
+        // incremento y lectura del marcador de user_roles
+        assertEquals(5, dataSource.getExecutions());
+        assertEquals(3, userDAO.getUserById(1).getRoles().size());
+
+        dataSource.reset();
+        assertTrue(userDAO.setUserRoles(1, Arrays.asList(1L, 2L, 3L)));
+        assertEquals(2, dataSource.getExecutions());
+
+        assertTrue(userDAO.setUserRoles(1, Arrays.asList(3L)));
+        List<Role> roles = userDAO.getUserById(1).getRoles();
+        assertEquals(1, roles.size());
+        assertEquals("MANAGER", roles.get(0).getRoleName());
+
+        assertFalse(userDAO.setUserRoles(999, Arrays.asList(1L)));
+    }
+
+    @Test
+    public void testUpdateUserRollsBackWhenRoleSyncFails() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("users_update_tx");
+        UserDAO userDAO = new UserDAO(newContext(dataSource));
+        User user = userDAO.getUserById(2);
+        User changed = new User(user.getUserId(), "renamed", user.getEmail(), user.getPasswordHash(),
+                user.getFirstName(), user.getLastName(), true, null, null);
+        changed.setRoles(Arrays.asList(new Role(999L, null, null, null, null)));
+
+        assertThrows(SQLException.class, () -> userDAO.updateUser(changed));
+
+        User reloaded = userDAO.getUserById(2);
+        assertEquals("user1", reloaded.getUsername());
+        assertEquals(1, reloaded.getRoles().size());
+    }
+
+    @Test
+    public void testUpdateUserRejectsRoleWithoutIdBeforeWriting() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("users_update_null_role");
+        UserDAO userDAO = new UserDAO(newContext(dataSource));
+        User user = userDAO.getUserById(1);
+        User changed = new User(user.getUserId(), "renamed", user.getEmail(), user.getPasswordHash(),
+                user.getFirstName(), user.getLastName(), true, null, null);
+        // Equivale a {"roles":[{"roleName":"ADMIN"}]}
+        changed.setRoles(Arrays.asList(new Role(null, "ADMIN", null, null, null)));
+
+        dataSource.reset();
+        assertThrows(IllegalArgumentException.class, () -> userDAO.updateUser(changed));
+        assertThrows(IllegalArgumentException.class, () -> userDAO.setUserRoles(1, Arrays.asList(1L, null)));
+        assertEquals(0, dataSource.getExecutions());
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(
+                     "SELECT u.username, COUNT(ur.role_id) FROM users u "
+                             + "LEFT JOIN user_roles ur ON ur.user_id = u.user_id "
+                             + "WHERE u.user_id = 1 GROUP BY u.username")) {
+            try (ResultSet rs = pstmt.executeQuery()) {
+                assertTrue(rs.next());
+                assertEquals("admin", rs.getString(1));
+                assertEquals(user.getRoles().size(), rs.getInt(2));
+            }
+        }
+    }
+
+    @Test
+    public void testCreateUserIsSingleRoundTrip() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("users_create_dialect");
+        DaoContext context = newContext(dataSource);
+        assertEquals("H2", context.getDialect().getName());
+        UserDAO userDAO = new UserDAO(context);
+
+        dataSource.reset();
+        User created = userDAO.createUser(new User(null, "nuevo", "nuevo@example.com", "hash",
+                "Nuevo", "Usuario", true, null, null));
+
+        assertEquals(1, dataSource.getExecutions());
+        assertEquals(4L, created.getUserId());
+        assertNotNull(created.getCreatedAt());
+        assertNotNull(created.getUpdatedAt());
+    }
+
+    @Test
+    public void testStandardInsertReturningUsesGeneratedKeys() throws Exception {
+        QueryCountingDataSource dataSource = new QueryCountingDataSource("users_create_standard");
+        SqlDialect dialect = SqlDialect.forProductName("Oracle");
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = dialect.prepareInsertReturning(connection,
+                     "INSERT INTO roles (role_name, description) VALUES (?, ?)", "role_id", "created_at")) {
+            pstmt.setString(1, "AUDITOR");
+            pstmt.setString(2, "Read only");
+            try (ResultSet rs = dialect.executeInsertReturning(pstmt)) {
+                assertTrue(rs.next());
+                assertEquals(4L, rs.getLong(1));
+                assertNotNull(rs.getTimestamp(2));
+            }
+        }
+    }
+
+    /**
+     * Contexto cuyo índice de user_roles no vuelve a leer el marcador durante la
+     * prueba, para que el número de consultas no dependa del tiempo transcurrido.
+     */
+    static DaoContext newContext(DataSource dataSource) {
+        return new DaoContext(dataSource, new UserRoleIndex(TimeUnit.MINUTES.toMillis(10)));
+    }
+
+    /**
+     * Inserta usuarios (IDs 4 en adelante) con los roles ADMIN (1) y USER (2).
+     */
+    static void insertUsers(QueryCountingDataSource dataSource, int count) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement insertUser = connection.prepareStatement(
+                     "INSERT INTO users (username, email, password_hash) VALUES (?, ?, ?)");
+             PreparedStatement insertRole = connection.prepareStatement(
+                     "INSERT INTO user_roles (user_id, role_id) VALUES (?, ?)")) {
+            for (int i = 0; i < count; i++) {
+                int userId = 4 + i;
+                insertUser.setString(1, "bulk" + userId);
+                insertUser.setString(2, "bulk" + userId + "@example.com");
+                insertUser.setString(3, "hash");
+                insertUser.addBatch();
+            }
+            insertUser.executeBatch();
+            for (int i = 0; i < count; i++) {
+                int userId = 4 + i;
+                for (int roleId = 1; roleId <= 2; roleId++) {
+                    insertRole.setInt(1, userId);
+                    insertRole.setInt(2, roleId);
+                    insertRole.addBatch();
+                }
+            }
+            insertRole.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.usuarioroles.dao;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas del índice en memoria de user_roles.
+ */
+public class UserRoleIndexTest {
+
+    @Test
+    public void testUnloadedIndexHasNoAnswer() {
+        UserRoleIndex index = new UserRoleIndex(60_000);
+        index.assign(1, 1);
+
+        assertFalse(index.isCurrent());
+        assertNull(index.hasRole(1, 1));
+    }
+
+    @Test
+    public void testWritesKeepLoadedIndexCurrent() {
+        UserRoleIndex index = loaded(new long[][] { { 1, 1 }, { 2, 2 }, { 2, 3 } });
+
+        index.assign(1, 3);
+        index.remove(2, 2);
+        index.setRoles(3, Arrays.asList(3L, 1L, 3L));
+
+        assertTrue(index.hasRole(1, 1));
+        assertTrue(index.hasRole(1, 3));
+        assertFalse(index.hasRole(2, 2));
+        assertArrayEquals(new int[] { 1, 3 }, index.rolesOf(3));
+
+        index.removeRole(3);
+        assertArrayEquals(new int[] { 1 }, index.rolesOf(1));
+        assertArrayEquals(new int[0], index.rolesOf(2));
+
+        index.removeUser(1);
+        assertFalse(index.hasRole(1, 1));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testWritesDuringLoadAreReplayed() {
+        UserRoleIndex index = new UserRoleIndex(60_000);
+        UserRoleIndex.Loader loader = index.beginLoad();
+        loader.add(1, 1);
+        loader.add(2, 1);
+
+        // Confirmadas mientras se leía user_roles
+        index.removeUser(2);
+        index.assign(3, 2);
+        index.finishLoad(loader);
+
+        assertTrue(index.hasRole(1, 1));
+        assertFalse(index.hasRole(2, 1));
+        assertTrue(index.hasRole(3, 2));
+    }
+
+    @Test
+    public void testOwnWritesAdvanceTheLoadedVersion() {
+        UserRoleIndex index = new UserRoleIndex(60_000);
+        UserRoleIndex.Loader loader = index.beginLoad();
+        loader.version = 5;
+        index.finishLoad(loader);
+
+        // Confirmadas en otro orden: solo avanza con versiones consecutivas
+        index.written(7);
+        assertEquals(5, index.getLoadedVersion());
+        index.written(6);
+        assertEquals(7, index.getLoadedVersion());
+        // Sin escritura o ya incluida en la carga
+        index.written(0);
+        index.written(4);
+        assertEquals(7, index.getLoadedVersion());
+
+        // Un hueco (escritura de otra instancia) no se salta
+        index.written(9);
+        assertEquals(7, index.getLoadedVersion());
+    }
+
+    @Test
+    public void testManyUsersSurviveGrowthAndRemovals() {
+        UserRoleIndex index = loaded(new long[0][]);
+        for (long userId = 1; userId <= 10_000; userId++) {
+            index.setRoles(userId, Collections.singletonList(userId % 7));
+        }
+        for (long userId = 1; userId <= 10_000; userId += 2) {
+            index.removeUser(userId);
+        }
+
+        assertEquals(5_000, index.size());
+        for (long userId = 1; userId <= 10_000; userId++) {
+            assertEquals(userId % 2 == 0, index.hasRole(userId, userId % 7));
+        }
+    }
+
+    private static UserRoleIndex loaded(long[][] rows) {
+        UserRoleIndex index = new UserRoleIndex(60_000);
+        UserRoleIndex.Loader loader = index.beginLoad();
+        for (long[] row : rows) {
+            loader.add(row[0], row[1]);
+        }
+        index.finishLoad(loader);
+        return index;
+    }
+}
@@ -0,0 +1,54 @@
+package com.usuarioroles.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas del histograma de latencias.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentilesFallInExpectedBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 90 llamadas de 80 µs, 9 de 3 ms y 1 de 2 s
+        for (int i = 0; i < 90; i++) {
+            histogram.record(80_000L);
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(3_000_000L);
+        }
+        histogram.record(2_000_000_000L);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        long p50 = snapshot.percentileNanos(0.5);
+        long p95 = snapshot.percentileNanos(0.95);
+        long p99 = snapshot.percentileNanos(0.99);
+        assertTrue(p50 > 50_000L && p50 <= 100_000L, "p50=" + p50);
+        assertTrue(p95 > 2_500_000L && p95 <= 5_000_000L, "p95=" + p95);
+        assertTrue(p99 <= 5_000_000L, "p99=" + p99);
+        assertTrue(snapshot.percentileNanos(1.0) > 1_000_000_000L);
+    }
+
+    @Test
+    public void testRecordingDoesNotAllocate() {
+        OperationMetrics metrics = Metrics.dao("LatencyHistogramTest.record");
+        for (int i = 0; i < 100_000; i++) {
+            metrics.record(System.nanoTime() - i);
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100_000; i++) {
+            metrics.record(System.nanoTime() - i * 1000L);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(allocated < 1024, "Bytes asignados al registrar: " + allocated);
+    }
+}
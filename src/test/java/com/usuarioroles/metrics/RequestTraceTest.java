@@ -0,0 +1,68 @@
+package com.usuarioroles.metrics;
+
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.usuarioroles.HttpRequestMessageStub;
+
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de la traza por petición.
+ */
+public class RequestTraceTest {
+
+    private static void spin(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Test
+    public void testUnsampledRequestIsNotWrapped() {
+        HttpRequestMessageStub request = HttpRequestMessageStub.get("users");
+        assertSame(request, RequestTrace.start("test", request));
+        assertNull(RequestTrace.current());
+
+        // Sin traza las fases no hacen nada
+        RequestTrace.enterCurrent(RequestTrace.Phase.DATABASE);
+        RequestTrace.exitCurrent();
+        RequestTrace.finish(null);
+    }
+
+    @Test
+    public void testNestedPhasesAreExclusive() {
+        HttpRequestMessage<Optional<String>> request =
+                RequestTrace.start("test", HttpRequestMessageStub.get("users").header("x-trace", "1"));
+        RequestTrace trace = RequestTrace.current();
+        assertNotNull(trace);
+        try {
+            trace.enter(RequestTrace.Phase.MAPPING);
+            spin(2_000_000);
+            trace.enter(RequestTrace.Phase.DATABASE);
+            spin(5_000_000);
+            trace.exit();
+            trace.exit();
+
+            // El tiempo de base de datos no se cuenta también como mapeo
+            long database = trace.getNanos(RequestTrace.Phase.DATABASE);
+            long mapping = trace.getNanos(RequestTrace.Phase.MAPPING);
+            assertTrue(database >= 5_000_000, String.valueOf(database));
+            assertTrue(mapping >= 2_000_000, String.valueOf(mapping));
+            assertTrue(trace.getNanos(RequestTrace.Phase.HANDLER) < database, "handler");
+            assertEquals(1, trace.getCount(RequestTrace.Phase.DATABASE));
+
+            HttpResponseMessage response = request.createResponseBuilder(HttpStatus.OK).body("ok").build();
+            String timing = response.getHeader("Server-Timing");
+            assertTrue(timing.contains("db;dur=" + database / 1_000_000 + "."), timing);
+            assertTrue(timing.contains("build;dur="), timing);
+        } finally {
+            RequestTrace.finish(null);
+        }
+        assertNull(RequestTrace.current());
+    }
+}
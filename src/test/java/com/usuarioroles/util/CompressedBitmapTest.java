@@ -0,0 +1,95 @@
+package com.usuarioroles.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas del bitmap comprimido, comparando con java.util.BitSet.
+ */
+public class CompressedBitmapTest {
+
+    @Test
+    public void testAddRemoveAcrossContainerKinds() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        // Más de ARRAY_MAX valores en el mismo contenedor lo convierte en mapa de bits
+        for (int value = 0; value < 10_000; value++) {
+            assertTrue(bitmap.add(value * 2));
+        }
+        assertFalse(bitmap.add(0));
+        assertEquals(10_000, bitmap.cardinality());
+        assertTrue(bitmap.contains(19_998));
+        assertFalse(bitmap.contains(19_999));
+
+        for (int value = 0; value < 9_000; value++) {
+            assertTrue(bitmap.remove(value * 2));
+        }
+        assertEquals(1_000, bitmap.cardinality());
+        assertFalse(bitmap.contains(0));
+        assertTrue(bitmap.contains(18_000));
+    }
+
+    @Test
+    public void testSetOperationsMatchBitSet() {
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            BitSet expectedA = new BitSet();
+            BitSet expectedB = new BitSet();
+            CompressedBitmap a = random(random, expectedA, 200_000);
+            CompressedBitmap b = random(random, expectedB, 200_000);
+
+            BitSet and = (BitSet) expectedA.clone();
+            and.and(expectedB);
+            assertContents(and, CompressedBitmap.and(a, b));
+            assertEquals(and.cardinality(), CompressedBitmap.andCardinality(a, b));
+
+            BitSet or = (BitSet) expectedA.clone();
+            or.or(expectedB);
+            assertContents(or, CompressedBitmap.or(a, b));
+
+            BitSet andNot = (BitSet) expectedA.clone();
+            andNot.andNot(expectedB);
+            assertContents(andNot, CompressedBitmap.andNot(a, b));
+        }
+    }
+
+    @Test
+    public void testForEachAfterPagesInOrder() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        for (int value : new int[] { 5, 70_000, 3, 65_536, 1_000_000 }) {
+            bitmap.add(value);
+        }
+        List<Integer> page = new ArrayList<>();
+
+        assertEquals(2, bitmap.forEachAfter(3, 2, page::add));
+        assertEquals(List.of(5, 65_536), page);
+
+        page.clear();
+        assertEquals(2, bitmap.forEachAfter(65_536, 10, page::add));
+        assertEquals(List.of(70_000, 1_000_000), page);
+    }
+
+    private static CompressedBitmap random(Random random, BitSet expected, int range) {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        int count = random.nextInt(50_000);
+        for (int i = 0; i < count; i++) {
+            int value = random.nextInt(range);
+            bitmap.add(value);
+            expected.set(value);
+        }
+        return bitmap;
+    }
+
+    private static void assertContents(BitSet expected, CompressedBitmap actual) {
+        assertEquals(expected.cardinality(), actual.cardinality());
+        List<Integer> values = new ArrayList<>();
+        actual.forEach(values::add);
+        List<Integer> expectedValues = new ArrayList<>();
+        expected.stream().forEach(expectedValues::add);
+        assertEquals(expectedValues, values);
+    }
+}
@@ -0,0 +1,46 @@
+package com.usuarioroles.util;
+
+import com.usuarioroles.model.Role;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de las versiones de contenido usadas en los ETag.
+ */
+public class ConditionalGetTest {
+
+    @Test
+    public void testVersionDependsOnlyOnContent() {
+        Timestamp created = new Timestamp(1_700_000_000_000L);
+        List<Role> roles = new ArrayList<>(Arrays.asList(
+                new Role(1L, "ADMIN", "Administrador", created, created),
+                new Role(2L, "USER", "Usuario", created, created)));
+        List<Role> copy = Arrays.asList(
+                new Role(1L, "ADMIN", "Administrador", created, created),
+                new Role(2L, "USER", "Usuario", created, created));
+        long version = ConditionalGet.versionOf(roles);
+        assertEquals(version, ConditionalGet.versionOf(copy));
+
+        // Un cambio de descripción sin cambiar updated_at también cambia la versión
+        roles.set(1, new Role(2L, "USER", "Usuario estándar", created, created));
+        assertNotEquals(version, ConditionalGet.versionOf(roles));
+
+        roles.remove(1);
+        assertNotEquals(version, ConditionalGet.versionOf(roles));
+
+        assertNotEquals(ConditionalGet.versionOf(new Role(1L, "ab", "c", null, null)),
+                ConditionalGet.versionOf(new Role(1L, "a", "bc", null, null)));
+    }
+
+    @Test
+    public void testEtagFormat() {
+        assertEquals("W/\"00000000000000ff\"", ConditionalGet.etag(255));
+        assertEquals("W/\"ffffffffffffffff\"", ConditionalGet.etag(-1));
+    }
+}
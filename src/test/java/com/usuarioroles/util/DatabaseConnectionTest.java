@@ -0,0 +1,42 @@
+package com.usuarioroles.util;
+
+import com.usuarioroles.dao.RoleDAO;
+import com.usuarioroles.dao.UserDAO;
+
+import java.sql.Connection;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas del pool de conexiones compartido.
+ */
+public class DatabaseConnectionTest {
+
+    @Test
+    public void testConcurrentBorrowsUseDistinctConnections() throws Exception {
+        DatabaseConnection db = DatabaseConnection.getInstance();
+
+        try (Connection first = db.getConnection();
+             Connection second = db.getConnection()) {
+            assertNotSame(first, second);
+            assertFalse(first.isClosed());
+            assertFalse(second.isClosed());
+            assertTrue(db.getStatistics().getBorrowedConnectionsCount() >= 2);
+        }
+    }
+
+    @Test
+    public void testDaoCallsReturnConnectionsToPool() throws Exception {
+        DatabaseConnection db = DatabaseConnection.getInstance();
+        RoleDAO roleDAO = new RoleDAO();
+        UserDAO userDAO = new UserDAO();
+
+        for (int i = 0; i < 50; i++) {
+            assertFalse(roleDAO.getAllRoles().isEmpty());
+            assertNotNull(userDAO.getUserById(1));
+        }
+
+        assertEquals(0, db.getStatistics().getBorrowedConnectionsCount());
+    }
+}
@@ -0,0 +1,121 @@
+package com.usuarioroles.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.usuarioroles.model.Page;
+import com.usuarioroles.model.Role;
+import com.usuarioroles.model.User;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de la escritura en streaming de respuestas JSON.
+ */
+public class JsonResponseWriterTest {
+    private final Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").create();
+    private final List<Role> roles = Arrays.asList(
+            new Role(1L, "ADMIN", "Administrator role with full access", new Timestamp(0), new Timestamp(0)),
+            new Role(2L, "USER", "Regular user with limited access", new Timestamp(0), new Timestamp(0)));
+
+    @Test
+    public void testPageMatchesGsonOutput() {
+        List<User> users = new ArrayList<>();
+        generateUsers(6, users::add);
+
+        byte[] streamed;
+        try (JsonResponseWriter out = JsonResponseWriter.open(gson)) {
+            PagedJsonWriter<User> page = new PagedJsonWriter<>(out, User.class, 5, User::getUserId);
+            users.forEach(page);
+            page.finish();
+            streamed = out.toByteArray();
+        }
+
+        String expected = gson.toJson(Pagination.toPage(users, 5, User::getUserId));
+        assertEquals(expected, new String(streamed, StandardCharsets.UTF_8));
+        assertEquals(5, gson.fromJson(expected, Page.class).getItems().size());
+    }
+
+    @Test
+    public void testStreamingAllocatesLessThanMaterializing() {
+        int count = 10_000;
+        // Calentamiento: JIT y crecimiento inicial del buffer del hilo
+        for (int i = 0; i < 3; i++) {
+            streamed(count);
+            materialized(count);
+        }
+
+        long streamedBytes = allocatedBytes(() -> streamed(count));
+        long materializedBytes = allocatedBytes(() -> materialized(count));
+
+        assertTrue(streamedBytes < materializedBytes,
+                "streaming=" + streamedBytes + " materializado=" + materializedBytes);
+    }
+
+    @Test
+    public void testStreamingAllocationPerUserStaysFlat() {
+        int small = 2_000;
+        int large = 20_000;
+        for (int i = 0; i < 3; i++) {
+            streamed(large);
+        }
+
+        // Sin contar el byte[] final, el coste por usuario no depende del tamaño total
+        double perUserSmall = (double) allocatedBytes(() -> streamedWithoutCopy(small)) / small;
+        double perUserLarge = (double) allocatedBytes(() -> streamedWithoutCopy(large)) / large;
+
+        assertTrue(perUserLarge < perUserSmall * 1.5,
+                "por usuario: " + perUserSmall + " (pequeño) vs " + perUserLarge + " (grande)");
+    }
+
+    private byte[] streamed(int count) {
+        try (JsonResponseWriter out = JsonResponseWriter.open(gson)) {
+            out.beginArray();
+            generateUsers(count, user -> out.write(user, User.class));
+            out.endArray();
+            return out.toByteArray();
+        }
+    }
+
+    private int streamedWithoutCopy(int count) {
+        try (JsonResponseWriter out = JsonResponseWriter.open(gson)) {
+            out.beginArray();
+            generateUsers(count, user -> out.write(user, User.class));
+            out.endArray();
+            return out.size();
+        }
+    }
+
+    private byte[] materialized(int count) {
+        List<User> users = new ArrayList<>();
+        generateUsers(count, users::add);
+        return gson.toJson(users).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void generateUsers(int count, Consumer<User> consumer) {
+        Timestamp now = new Timestamp(1_700_000_000_000L);
+        for (int i = 1; i <= count; i++) {
+            User user = new User((long) i, "user" + i, "user" + i + "@example.com", "hashed_password",
+                    "First" + i, "Last" + i, true, now, now);
+            user.setRoles(roles);
+            consumer.accept(user);
+        }
+    }
+
+    private static long allocatedBytes(Runnable action) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        action.run();
+        return threads.getThreadAllocatedBytes(threadId) - before;
+    }
+}
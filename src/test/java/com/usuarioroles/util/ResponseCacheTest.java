@@ -0,0 +1,48 @@
+package com.usuarioroles.util;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de la caché de respuestas serializadas.
+ */
+public class ResponseCacheTest {
+
+    private static ResponseCompression.Body body(int size) {
+        return new ResponseCompression.Body(new byte[size], ResponseCompression.Encoding.IDENTITY);
+    }
+
+    @Test
+    public void testEntriesAreValidOnlyForTheirVersion() {
+        ResponseCache cache = new ResponseCache(10, 100, 60_000);
+        ResponseCompression.Body body = body(3);
+        cache.put("roles", 5, body);
+
+        assertSame(body, cache.get("roles", 5));
+        assertNull(cache.get("roles", 6));
+        assertNull(cache.get("other", 5));
+
+        // Una respuesta generada con datos más antiguos no reemplaza a la vigente
+        cache.put("roles", 4, body(1));
+        assertSame(body, cache.get("roles", 5));
+
+        cache.put("big", 5, body(101));
+        assertNull(cache.get("big", 5));
+    }
+
+    @Test
+    public void testBoundedSizeEvictsOldVersionsFirst() {
+        ResponseCache cache = new ResponseCache(3, 100, 60_000);
+        cache.put("a", 1, body(1));
+        cache.put("b", 2, body(1));
+        cache.put("c", 2, body(1));
+        cache.put("d", 2, body(1));
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get("a", 1));
+        assertNotNull(cache.get("b", 2));
+
+        cache.put("e", 2, body(1));
+        assertEquals(3, cache.size());
+    }
+}
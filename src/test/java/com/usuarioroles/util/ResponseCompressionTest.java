@@ -0,0 +1,70 @@
+package com.usuarioroles.util;
+
+import com.usuarioroles.HttpRequestMessageStub;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de la negociación y la compresión de respuestas.
+ */
+public class ResponseCompressionTest {
+
+    private static ResponseCompression.Encoding negotiate(String acceptEncoding) {
+        return ResponseCompression.negotiate(HttpRequestMessageStub.get("users").header("accept-encoding", acceptEncoding));
+    }
+
+    private static byte[] json(int users) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < users; i++) {
+            sb.append(i == 0 ? "" : ",").append("{\"userId\":").append(i)
+                    .append(",\"username\":\"user").append(i)
+                    .append("\",\"createdAt\":\"2024-01-01T00:00:00.000+0000\",\"roles\":[{\"roleId\":2,\"roleName\":\"USER\"}]}");
+        }
+        return sb.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            return stream.readAllBytes();
+        }
+    }
+
+    @Test
+    public void testNegotiation() {
+        assertEquals(ResponseCompression.Encoding.IDENTITY,
+                ResponseCompression.negotiate(HttpRequestMessageStub.get("users")));
+        assertEquals(ResponseCompression.Encoding.GZIP, negotiate("gzip, deflate, br"));
+        assertEquals(ResponseCompression.Encoding.DEFLATE, negotiate("gzip;q=0.5, deflate"));
+        assertEquals(ResponseCompression.Encoding.IDENTITY, negotiate("gzip;q=0, br"));
+        assertEquals(ResponseCompression.Encoding.GZIP, negotiate("*"));
+        assertEquals(ResponseCompression.Encoding.DEFLATE, negotiate("gzip;q=0, *;q=0.3"));
+    }
+
+    @Test
+    public void testCompressedBodiesRoundTrip() throws Exception {
+        byte[] large = json(500);
+        for (int i = 0; i < 3; i++) {
+            ResponseCompression.Body gzip = ResponseCompression.encode(large, ResponseCompression.Encoding.GZIP);
+            assertEquals(ResponseCompression.Encoding.GZIP, gzip.getEncoding());
+            assertTrue(gzip.getBytes().length < large.length / 5, String.valueOf(gzip.getBytes().length));
+            assertArrayEquals(large, readAll(new GZIPInputStream(new ByteArrayInputStream(gzip.getBytes()))));
+
+            ResponseCompression.Body deflate = ResponseCompression.encode(large, ResponseCompression.Encoding.DEFLATE);
+            assertArrayEquals(large, readAll(new InflaterInputStream(new ByteArrayInputStream(deflate.getBytes()))));
+        }
+
+        // Por debajo del umbral se envía sin comprimir
+        byte[] small = json(1);
+        ResponseCompression.Body body = ResponseCompression.encode(small, ResponseCompression.Encoding.GZIP);
+        assertEquals(ResponseCompression.Encoding.IDENTITY, body.getEncoding());
+        assertSame(small, body.getBytes());
+    }
+}
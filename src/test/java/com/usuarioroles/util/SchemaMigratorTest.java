@@ -0,0 +1,88 @@
+package com.usuarioroles.util;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de las migraciones de esquema.
+ */
+public class SchemaMigratorTest {
+
+    private static JdbcDataSource newDataSource(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUser("test");
+        dataSource.setPassword("");
+        return dataSource;
+    }
+
+    @Test
+    public void testMigrationsApplyOnceAndAreRecorded() throws Exception {
+        JdbcDataSource dataSource = newDataSource("migrations_once");
+
+        assertEquals(1, SchemaMigrator.migrate(dataSource, 1));
+        int pending = SchemaMigrator.migrate(dataSource);
+        assertTrue(pending >= 2);
+        assertEquals(0, SchemaMigrator.migrate(dataSource));
+
+        try (Connection connection = dataSource.getConnection();
+             Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*), MIN(version) FROM schema_version")) {
+                assertTrue(rs.next());
+                assertEquals(1 + pending, rs.getInt(1));
+                assertEquals(1, rs.getInt(2));
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM users")) {
+                assertTrue(rs.next());
+                assertEquals(3, rs.getInt(1));
+            }
+        }
+    }
+
+    @Test
+    public void testIndexesEnforceUniqueNames() throws Exception {
+        JdbcDataSource dataSource = newDataSource("migrations_unique");
+        SchemaMigrator.migrate(dataSource);
+
+        try (Connection connection = dataSource.getConnection();
+             Statement stmt = connection.createStatement()) {
+            assertThrows(SQLException.class, () -> stmt.execute(
+                    "INSERT INTO users (username, email, password_hash) VALUES ('admin', 'other@example.com', 'x')"));
+            assertThrows(SQLException.class, () -> stmt.execute(
+                    "INSERT INTO users (username, email, password_hash) VALUES ('other', 'admin@example.com', 'x')"));
+            assertThrows(SQLException.class, () -> stmt.execute(
+                    "INSERT INTO roles (role_name) VALUES ('ADMIN')"));
+
+            try (ResultSet rs = stmt.executeQuery("EXPLAIN SELECT user_id FROM user_roles WHERE role_id = 1")) {
+                assertTrue(rs.next());
+                assertTrue(rs.getString(1).toUpperCase().contains("IX_USER_ROLES_ROLE_USER"), rs.getString(1));
+            }
+        }
+    }
+
+    @Test
+    public void testScriptInterruptedHalfwayIsAppliedAgain() throws Exception {
+        JdbcDataSource dataSource = newDataSource("migrations_partial");
+        SchemaMigrator.migrate(dataSource, 2);
+
+        // V3 falló tras crear su primer índice: el DDL quedó confirmado sin registrar la versión
+        try (Connection connection = dataSource.getConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE UNIQUE INDEX ux_users_username ON users (username)");
+        }
+
+        assertTrue(SchemaMigrator.migrate(dataSource) >= 1);
+        try (Connection connection = dataSource.getConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM schema_version WHERE version = 3")) {
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+        }
+    }
+}
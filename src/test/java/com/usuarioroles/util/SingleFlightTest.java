@@ -0,0 +1,87 @@
+package com.usuarioroles.util;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de la agrupación de lecturas concurrentes por clave.
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallersShareOneLoad() throws Exception {
+        SingleFlight<Long, String> flight = new SingleFlight<>("test", 0);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        int callers = 8;
+
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(() -> flight.execute(1L, 0, () -> {
+                    loads.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new SQLException(e);
+                    }
+                    return "user1";
+                })));
+            }
+            // Todos los llamantes salvo el primero esperan a la carga en curso
+            while (flight.getShared() < callers - 1) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            for (Future<String> result : results) {
+                assertEquals("user1", result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, flight.getLoads());
+        assertEquals(callers - 1, flight.getShared());
+    }
+
+    @Test
+    public void testFinishedLoadsAreSharedOnlyWithinTheWindowAndVersion() throws Exception {
+        SingleFlight<Long, String> noWindow = new SingleFlight<>("test", 0);
+        noWindow.execute(1L, 0, () -> "a");
+        assertEquals("b", noWindow.execute(1L, 0, () -> "b"));
+        assertEquals(2, noWindow.getLoads());
+
+        SingleFlight<Long, String> window = new SingleFlight<>("test", 60_000);
+        window.execute(1L, 0, () -> "a");
+        assertEquals("a", window.execute(1L, 0, () -> "b"));
+        assertEquals(1, window.getShared());
+        // Tras una escritura (nueva versión de datos) se vuelve a cargar
+        assertEquals("c", window.execute(1L, 1, () -> "c"));
+        assertEquals("d", window.execute(2L, 1, () -> "d"));
+        assertEquals(3, window.getLoads());
+    }
+
+    @Test
+    public void testErrorsAreNotKept() throws Exception {
+        SingleFlight<Long, String> flight = new SingleFlight<>("test", 60_000);
+
+        assertThrows(SQLException.class, () -> flight.execute(1L, 0, () -> {
+            throw new SQLException("caída");
+        }));
+        assertEquals("a", flight.execute(1L, 0, () -> "a"));
+        assertNull(flight.execute(2L, 0, () -> null));
+        assertNull(flight.execute(2L, 0, () -> "b"));
+    }
+}
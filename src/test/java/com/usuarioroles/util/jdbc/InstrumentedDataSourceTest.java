@@ -0,0 +1,132 @@
+package com.usuarioroles.util.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de la instrumentación de JDBC.
+ */
+public class InstrumentedDataSourceTest {
+
+    private static InstrumentedDataSource newDataSource(String name, long slowQueryMillis) {
+        return newDataSource(name, slowQueryMillis, false);
+    }
+
+    private static InstrumentedDataSource newDataSource(String name, long slowQueryMillis,
+            boolean logParameterValues) {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        h2.setUser("test");
+        h2.setPassword("");
+        return new InstrumentedDataSource(h2, slowQueryMillis, logParameterValues);
+    }
+
+    private static QueryStats.Entry find(String sql) {
+        for (QueryStats.Entry entry : QueryStats.top(Integer.MAX_VALUE)) {
+            if (entry.getSql().equals(sql)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testCountsExecutionsRowsAndErrorsPerNormalizedSql() throws Exception {
+        InstrumentedDataSource dataSource = newDataSource("instrumented_stats", -1);
+
+        try (Connection connection = dataSource.getConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE items (id INT PRIMARY KEY)");
+            stmt.execute("INSERT INTO items SELECT X FROM SYSTEM_RANGE(1, 10)");
+
+            for (int limit = 3; limit <= 5; limit++) {
+                try (PreparedStatement query = connection.prepareStatement("SELECT id FROM items WHERE id <= ?")) {
+                    assertSame(connection, query.getConnection());
+                    query.setInt(1, limit);
+                    try (ResultSet rs = query.executeQuery()) {
+                        while (rs.next()) {
+                            rs.getInt(1);
+                        }
+                    }
+                }
+            }
+            // Literales distintos se agrupan en la misma sentencia normalizada
+            stmt.executeQuery("SELECT id  FROM items WHERE id = 7").close();
+            stmt.executeQuery("SELECT id FROM items WHERE id = 8").close();
+            assertThrows(SQLException.class, () -> stmt.executeQuery("SELECT missing FROM items WHERE id = 1"));
+        }
+
+        QueryStats.Entry prepared = find("SELECT id FROM items WHERE id <= ?");
+        assertNotNull(prepared);
+        assertEquals(3, prepared.getExecutions());
+        assertEquals(3 + 4 + 5, prepared.getRows());
+        assertTrue(prepared.getTotalNanos() >= prepared.getMaxNanos());
+
+        QueryStats.Entry literal = find("SELECT id FROM items WHERE id = ?");
+        assertNotNull(literal);
+        assertEquals(2, literal.getExecutions());
+
+        QueryStats.Entry failed = find("SELECT missing FROM items WHERE id = ?");
+        assertNotNull(failed);
+        assertEquals(1, failed.getErrors());
+    }
+
+    @Test
+    public void testSlowQueryIsLoggedWithParameterTypesOnly() throws Exception {
+        List<String> messages = logSlowQuery(newDataSource("instrumented_slow", 0));
+
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0).startsWith("Consulta lenta ("), messages.get(0));
+        assertTrue(messages.get(0).endsWith("SELECT ? || ? [1=String(4), 2=Integer]"), messages.get(0));
+        assertFalse(messages.get(0).contains("hola"), messages.get(0));
+    }
+
+    @Test
+    public void testSlowQueryIsLoggedWithParameterValuesWhenEnabled() throws Exception {
+        List<String> messages = logSlowQuery(newDataSource("instrumented_slow_values", 0, true));
+
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0).endsWith("SELECT ? || ? [1='hola', 2=42]"), messages.get(0));
+    }
+
+    private static List<String> logSlowQuery(InstrumentedDataSource dataSource) throws SQLException {
+        List<String> messages = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(InstrumentedDataSource.class.getName());
+        logger.addHandler(handler);
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement query = connection.prepareStatement("SELECT ? || ?")) {
+            query.setString(1, "hola");
+            query.setInt(2, 42);
+            query.executeQuery().close();
+        } finally {
+            logger.removeHandler(handler);
+        }
+        return messages;
+    }
+}
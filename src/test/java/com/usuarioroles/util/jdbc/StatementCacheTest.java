@@ -0,0 +1,97 @@
+package com.usuarioroles.util.jdbc;
+
+import com.usuarioroles.util.DatabaseConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de la caché de sentencias preparadas por conexión.
+ */
+public class StatementCacheTest {
+
+    private static StatementCachingDataSource newDataSource(String name, int cacheSize) {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        h2.setUser("test");
+        h2.setPassword("");
+        return new StatementCachingDataSource(h2, cacheSize);
+    }
+
+    @Test
+    public void testReusesStatementOnSameConnection() throws Exception {
+        StatementCachingDataSource dataSource = newDataSource("stmt_cache_reuse", 10);
+
+        try (Connection connection = dataSource.getConnection()) {
+            long hitsBefore = StatementCache.getHits();
+            for (int i = 1; i <= 5; i++) {
+                try (PreparedStatement stmt = connection.prepareStatement("SELECT ? + 1")) {
+                    stmt.setInt(1, i);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        assertTrue(rs.next());
+                        assertEquals(i + 1, rs.getInt(1));
+                    }
+                }
+            }
+            assertEquals(4, StatementCache.getHits() - hitsBefore);
+
+            // La misma SQL abierta dos veces a la vez no comparte sentencia
+            try (PreparedStatement outer = connection.prepareStatement("SELECT ? + 1");
+                 PreparedStatement inner = connection.prepareStatement("SELECT ? + 1")) {
+                outer.setInt(1, 1);
+                inner.setInt(1, 2);
+                try (ResultSet a = outer.executeQuery(); ResultSet b = inner.executeQuery()) {
+                    assertTrue(a.next() && b.next());
+                    assertEquals(2, a.getInt(1));
+                    assertEquals(3, b.getInt(1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCacheIsBoundedAndClosedStatementsReject() throws Exception {
+        StatementCachingDataSource dataSource = newDataSource("stmt_cache_bound", 3);
+
+        try (Connection connection = dataSource.getConnection()) {
+            long evictionsBefore = StatementCache.getEvictions();
+            for (int i = 0; i < 10; i++) {
+                try (PreparedStatement stmt = connection.prepareStatement("SELECT " + i)) {
+                    stmt.executeQuery().close();
+                }
+            }
+            assertEquals(7, StatementCache.getEvictions() - evictionsBefore);
+
+            PreparedStatement stmt = connection.prepareStatement("SELECT 1");
+            stmt.close();
+            assertTrue(stmt.isClosed());
+            assertThrows(java.sql.SQLException.class, stmt::executeQuery);
+        }
+    }
+
+    @Test
+    public void testPoolConnectionsHitCache() throws Exception {
+        DatabaseConnection db = DatabaseConnection.getInstance();
+        String sql = "SELECT role_name FROM roles WHERE role_id = ?";
+
+        long hitsBefore = StatementCache.getHits();
+        for (int i = 0; i < 20; i++) {
+            try (Connection connection = db.getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setLong(1, 1);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    assertTrue(rs.next());
+                }
+            }
+        }
+
+        // Como mucho un fallo por cada conexión física del pool
+        int poolSize = db.getStatistics().getTotalConnectionsCount();
+        assertTrue(StatementCache.getHits() - hitsBefore >= 20 - poolSize);
+    }
+}